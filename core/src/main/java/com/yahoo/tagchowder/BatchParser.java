@@ -0,0 +1,218 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Parses many documents in parallel
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.ext.LexicalHandler;
+
+import com.yahoo.tagchowder.templates.HTMLSchema;
+
+/**
+ * Parses a stream of documents on a {@link ForkJoinPool}. Every document is a separate task, so idle workers pick up the next document while
+ * others are still busy with large ones. Each worker thread configures one {@link Parser} and reuses it for all the documents it parses; a fresh
+ * ContentHandler is obtained from the supplier for every document. If the handler is also a {@link LexicalHandler} it receives lexical events.
+ *
+ * <p>
+ * When unknown elements are ignored ({@link Parser#IGNORE_BOGONS_FEATURE}) the parser never adds to its schema, and all workers share a single
+ * {@link HTMLSchema}. Otherwise every worker owns a schema, since unknown elements are registered in the schema as they are found.
+ *
+ * <p>
+ * A document that fails to parse does not stop the batch: its exception is reported in the returned list of {@link Failure}s. Only a bounded
+ * number of documents is in flight at any time, so the inputs may come from a lazy, very long Iterable. A new document is submitted whenever any
+ * document of the batch completes, so a large document does not hold back the ones after it.
+ */
+public class BatchParser {
+
+    /** Number of documents in flight per worker. */
+    private static final int QUEUE_PER_WORKER = 4;
+
+    /**
+     * A document of a batch that could not be parsed.
+     */
+    public static final class Failure {
+
+        private final long theIndex;
+        private final InputSource theInput;
+        private final Throwable theCause;
+
+        Failure(final long index, final InputSource input, final Throwable cause) {
+            theIndex = index;
+            theInput = input;
+            theCause = cause;
+        }
+
+        /**
+         * Return the position of the document in the batch, starting at 0.
+         *
+         * @return index
+         */
+        public long index() {
+            return theIndex;
+        }
+
+        /**
+         * Return the input of the document.
+         *
+         * @return input source
+         */
+        public InputSource input() {
+            return theInput;
+        }
+
+        /**
+         * Return the exception thrown while parsing the document.
+         *
+         * @return exception
+         */
+        public Throwable cause() {
+            return theCause;
+        }
+
+        @Override
+        public String toString() {
+            return "document " + theIndex + (theInput.getSystemId() == null ? "" : " (" + theInput.getSystemId() + ")") + ": " + theCause;
+        }
+    }
+
+    private final int theParallelism;
+    private final Parser thePrototype = new Parser(); // holds the features; workers use copies
+
+    /**
+     * Construct a batch parser.
+     *
+     * @param parallelism number of worker threads
+     */
+    public BatchParser(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        theParallelism = parallelism;
+    }
+
+    /**
+     * Set a feature on the parsers of the following batches.
+     *
+     * @param name feature name, one of the {@link Parser} feature constants
+     * @param value feature value
+     * @throws SAXNotRecognizedException if the feature is unknown
+     * @throws SAXNotSupportedException if the value is not supported
+     */
+    public void setFeature(final String name, final boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        thePrototype.setFeature(name, value);
+    }
+
+    /**
+     * Parse a batch of documents with a default configured parser.
+     *
+     * @param inputs the documents
+     * @param handlers supplies the handler of each document
+     * @param parallelism number of worker threads
+     * @return the documents that failed, in batch order
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public static List<Failure> parseAll(final Iterable<InputSource> inputs, final Supplier<ContentHandler> handlers, final int parallelism)
+            throws InterruptedException {
+        return new BatchParser(parallelism).parse(inputs, handlers);
+    }
+
+    /**
+     * Parse a batch of documents. Returns when all documents have been parsed.
+     *
+     * @param inputs the documents
+     * @param handlers supplies the handler of each document; called on the worker threads
+     * @return the documents that failed, in batch order
+     * @throws InterruptedException if the calling thread is interrupted while waiting; the remaining documents are abandoned
+     */
+    public List<Failure> parse(final Iterable<InputSource> inputs, final Supplier<ContentHandler> handlers) throws InterruptedException {
+        final Parser prototype = thePrototype.copy(); // later features do not affect this batch
+        final ThreadLocal<Parser> parsers = ThreadLocal.withInitial(prototype::copy);
+        List<Failure> failures = new ArrayList<>();
+        Map<Future<Exception>, Failure> pending = new HashMap<>(); // the index and input of each document in flight
+        ForkJoinPool pool = new ForkJoinPool(theParallelism);
+        CompletionService<Exception> completed = new ExecutorCompletionService<>(pool);
+        try {
+            long index = 0;
+            Iterator<InputSource> it = inputs.iterator();
+            while (it.hasNext()) {
+                final InputSource input = it.next();
+                pending.put(completed.submit(() -> parseOne(parsers.get(), input, handlers.get())), new Failure(index++, input, null));
+                if (pending.size() >= theParallelism * QUEUE_PER_WORKER) {
+                    await(completed, pending, failures);
+                }
+            }
+            while (!pending.isEmpty()) {
+                await(completed, pending, failures);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        failures.sort(Comparator.comparingLong(Failure::index));
+        return failures;
+    }
+
+    // Wait for the next document to complete and record its failure
+    private static void await(final CompletionService<Exception> completed, final Map<Future<Exception>, Failure> pending,
+            final List<Failure> failures) throws InterruptedException {
+        Future<Exception> future = completed.take();
+        Failure document = pending.remove(future);
+        Throwable cause;
+        try {
+            cause = future.get();
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+        }
+        if (cause != null) {
+            failures.add(new Failure(document.index(), document.input(), cause));
+        }
+    }
+
+    // Parse one document, returning its checked exception; the pool would wrap it
+    private static Exception parseOne(final Parser parser, final InputSource input, final ContentHandler handler) throws SAXException {
+        parser.setContentHandler(handler);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, handler instanceof LexicalHandler ? handler : null);
+        try {
+            parser.parse(input);
+            return null;
+        } catch (IOException | SAXException e) {
+            return e;
+        } finally {
+            parser.setContentHandler(null);
+            parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, null);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Layout of binary event files
+
+package com.yahoo.tagchowder;
+
+/**
+ * Constants of the binary event files written by {@link BinaryEventWriter} and read by {@link BinaryEventReader}.
+ *
+ * <pre>
+ * file       = magic version flags dictionary body [index]
+ * magic      = 'T' 'C' 'E' 'V'
+ * version    = byte
+ * flags      = byte                                FLAG_INDEX if the index is present
+ * dictionary = varint(count) string*               names; an event refers to one as 1 + its position, or 0 for null
+ * body       = varint(byte length) event*
+ * event      = opcode operand*                     see the opcodes
+ * string     = varint(char count) char*            each char as 1 to 3 bytes of UTF-8, surrogates included
+ * index      = varint(count) varint(delta)*        body offset of each START_ELEMENT, as the difference to the previous one
+ * </pre>
+ *
+ * Varints are unsigned, 7 bits per byte, least significant first.
+ */
+final class BinaryEventFormat {
+
+    static final byte[] MAGIC = {'T', 'C', 'E', 'V'};
+    static final int VERSION = 1;
+    static final int FLAG_INDEX = 1;
+
+    static final int START_DOCUMENT = 0;
+    static final int END_DOCUMENT = 1;
+    static final int START_PREFIX_MAPPING = 2; // name prefix, name uri
+    static final int END_PREFIX_MAPPING = 3; // name prefix
+    static final int START_ELEMENT = 4; // name uri, name localName, name qName, varint count, (name uri, localName, qName, type, string value)*
+    static final int END_ELEMENT = 5; // name uri, name localName, name qName
+    static final int CHARACTERS = 6; // string
+    static final int IGNORABLE_WHITESPACE = 7; // string
+    static final int PROCESSING_INSTRUCTION = 8; // name target, string data
+    static final int SKIPPED_ENTITY = 9; // name
+    static final int START_DTD = 10; // name, name publicid, name systemid
+    static final int END_DTD = 11;
+    static final int START_ENTITY = 12; // name
+    static final int END_ENTITY = 13; // name
+    static final int START_CDATA = 14;
+    static final int END_CDATA = 15;
+    static final int COMMENT = 16; // string
+
+    private BinaryEventFormat() {
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Reads binary event files
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Reads the binary event files written by {@link BinaryEventWriter} and passes their events to a ContentHandler, and optionally a LexicalHandler,
+ * as if the document were being parsed. A file is memory-mapped and its name dictionary is read once; replaying decodes the events straight from
+ * the mapped bytes into a reused char buffer, with strings created only for attribute values and processing instructions.
+ *
+ * <p>
+ * If the file has an index, single elements can be replayed directly with {@link #replayElement(int, ContentHandler)}. A reader may be used by
+ * several threads at once.
+ */
+public class BinaryEventReader {
+
+    private static final int INITIAL_CHARS = 256;
+
+    private final ByteBuffer theBuffer;
+    private final String[] theNames;
+    private final int theBodyStart;
+    private final int theBodyEnd;
+    private final int[] theIndex; // body offsets of the element starts, or null
+
+    /**
+     * Construct a reader of a file, which is memory-mapped.
+     *
+     * @param file the file
+     * @throws IOException if the file can't be read or is not a binary event file
+     */
+    public BinaryEventReader(final Path file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * Construct a reader of the contents of a buffer, from its position to its limit.
+     *
+     * @param buffer the buffer; it is not modified
+     * @throws IOException if the buffer doesn't hold a binary event file
+     */
+    public BinaryEventReader(final ByteBuffer buffer) throws IOException {
+        theBuffer = buffer.slice();
+        Cursor c = new Cursor(theBuffer.duplicate());
+        try {
+            for (byte m : BinaryEventFormat.MAGIC) {
+                if (c.theBytes.get() != m) {
+                    throw new IOException("Not a binary event file");
+                }
+            }
+            int version = c.theBytes.get();
+            if (version != BinaryEventFormat.VERSION) {
+                throw new IOException("Unsupported binary event file version " + version);
+            }
+            int flags = c.theBytes.get();
+            theNames = new String[c.varint()];
+            for (int i = 0; i < theNames.length; i++) {
+                c.chars();
+                theNames[i] = new String(c.theChars, 0, c.theLength);
+            }
+            int bodyLength = c.varint();
+            theBodyStart = c.theBytes.position();
+            theBodyEnd = theBodyStart + bodyLength;
+            if ((flags & BinaryEventFormat.FLAG_INDEX) != 0) {
+                ((Buffer) c.theBytes).position(theBodyEnd);
+                theIndex = new int[c.varint()];
+                int offset = 0;
+                for (int i = 0; i < theIndex.length; i++) {
+                    offset += c.varint();
+                    theIndex[i] = offset;
+                }
+            } else {
+                theIndex = null;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated binary event file", e);
+        }
+    }
+
+    private static ByteBuffer map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary event file too large: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Return whether the file has an index of the element starts.
+     *
+     * @return true if indexed
+     */
+    public boolean isIndexed() {
+        return theIndex != null;
+    }
+
+    /**
+     * Return the number of elements in the index.
+     *
+     * @return element count, or -1 if the file has no index
+     */
+    public int getElementCount() {
+        return theIndex == null ? -1 : theIndex.length;
+    }
+
+    /**
+     * Replay the events of the document into a handler. If the handler is also a {@link LexicalHandler} it receives the lexical events.
+     *
+     * @param handler the handler
+     * @throws SAXException if the handler fails or the file is corrupt
+     */
+    public void replay(final ContentHandler handler) throws SAXException {
+        replay(handler, handler instanceof LexicalHandler ? (LexicalHandler) handler : null);
+    }
+
+    /**
+     * Replay the events of the document into a content handler and a lexical handler.
+     *
+     * @param handler the content handler
+     * @param lexicalHandler the lexical handler, or null to drop lexical events
+     * @throws SAXException if a handler fails or the file is corrupt
+     */
+    public void replay(final ContentHandler handler, final LexicalHandler lexicalHandler) throws SAXException {
+        run(theBodyStart, false, handler, lexicalHandler);
+    }
+
+    /**
+     * Replay one element, with its content, in document order. No startDocument and endDocument events are reported. If the handler is also a
+     * {@link LexicalHandler} it receives the lexical events within the element.
+     *
+     * @param index index of the element, counting start tags from 0
+     * @param handler the handler
+     * @throws SAXException if the handler fails or the file is corrupt
+     */
+    public void replayElement(final int index, final ContentHandler handler) throws SAXException {
+        if (theIndex == null) {
+            throw new IllegalStateException("The binary event file has no index");
+        }
+        if (index < 0 || index >= theIndex.length) {
+            throw new IndexOutOfBoundsException("Element " + index + " of " + theIndex.length);
+        }
+        run(theBodyStart + theIndex[index], true, handler, handler instanceof LexicalHandler ? (LexicalHandler) handler : null);
+    }
+
+    // Decode events from the given offset, up to the end of the body or of the first element
+    private void run(final int start, final boolean element, final ContentHandler handler, final LexicalHandler lexicalHandler) throws SAXException {
+        ByteBuffer bytes = theBuffer.duplicate();
+        // Through Buffer, since the ByteBuffer overrides of Java 9 do not exist on Java 8
+        ((Buffer) bytes).position(start);
+        ((Buffer) bytes).limit(theBodyEnd);
+        Cursor c = new Cursor(bytes);
+        AttributesImpl atts = new AttributesImpl();
+        int depth = 0;
+        try {
+            while (bytes.hasRemaining()) {
+                int opcode = bytes.get();
+                switch (opcode) {
+                case BinaryEventFormat.START_DOCUMENT:
+                    handler.startDocument();
+                    break;
+                case BinaryEventFormat.END_DOCUMENT:
+                    handler.endDocument();
+                    break;
+                case BinaryEventFormat.START_PREFIX_MAPPING:
+                    handler.startPrefixMapping(name(c), name(c));
+                    break;
+                case BinaryEventFormat.END_PREFIX_MAPPING:
+                    handler.endPrefixMapping(name(c));
+                    break;
+                case BinaryEventFormat.START_ELEMENT:
+                    String uri = name(c);
+                    String localName = name(c);
+                    String qName = name(c);
+                    atts.clear();
+                    for (int n = c.varint(); n > 0; n--) {
+                        String attUri = name(c);
+                        String attLocalName = name(c);
+                        String attQName = name(c);
+                        String type = name(c);
+                        c.chars();
+                        atts.addAttribute(attUri, attLocalName, attQName, type, new String(c.theChars, 0, c.theLength));
+                    }
+                    handler.startElement(uri, localName, qName, atts);
+                    depth++;
+                    break;
+                case BinaryEventFormat.END_ELEMENT:
+                    handler.endElement(name(c), name(c), name(c));
+                    depth--;
+                    if (element && depth == 0) {
+                        return;
+                    }
+                    break;
+                case BinaryEventFormat.CHARACTERS:
+                    c.chars();
+                    handler.characters(c.theChars, 0, c.theLength);
+                    break;
+                case BinaryEventFormat.IGNORABLE_WHITESPACE:
+                    c.chars();
+                    handler.ignorableWhitespace(c.theChars, 0, c.theLength);
+                    break;
+                case BinaryEventFormat.PROCESSING_INSTRUCTION:
+                    String target = name(c);
+                    c.chars();
+                    handler.processingInstruction(target, new String(c.theChars, 0, c.theLength));
+                    break;
+                case BinaryEventFormat.SKIPPED_ENTITY:
+                    handler.skippedEntity(name(c));
+                    break;
+                case BinaryEventFormat.START_DTD:
+                    String dtdName = name(c);
+                    String publicid = name(c);
+                    String systemid = name(c);
+                    if (lexicalHandler != null) {
+                        lexicalHandler.startDTD(dtdName, publicid, systemid);
+                    }
+                    break;
+                case BinaryEventFormat.END_DTD:
+                    if (lexicalHandler != null) {
+                        lexicalHandler.endDTD();
+                    }
+                    break;
+                case BinaryEventFormat.START_ENTITY:
+                    String startEntity = name(c);
+                    if (lexicalHandler != null) {
+                        lexicalHandler.startEntity(startEntity);
+                    }
+                    break;
+                case BinaryEventFormat.END_ENTITY:
+                    String endEntity = name(c);
+                    if (lexicalHandler != null) {
+                        lexicalHandler.endEntity(endEntity);
+                    }
+                    break;
+                case BinaryEventFormat.START_CDATA:
+                    if (lexicalHandler != null) {
+                        lexicalHandler.startCDATA();
+                    }
+                    break;
+                case BinaryEventFormat.END_CDATA:
+                    if (lexicalHandler != null) {
+                        lexicalHandler.endCDATA();
+                    }
+                    break;
+                case BinaryEventFormat.COMMENT:
+                    c.chars();
+                    if (lexicalHandler != null) {
+                        lexicalHandler.comment(c.theChars, 0, c.theLength);
+                    }
+                    break;
+                default:
+                    throw new SAXException("Corrupt binary event file: opcode " + opcode + " at offset " + (bytes.position() - 1));
+                }
+            }
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new SAXException("Corrupt binary event file", e);
+        }
+    }
+
+    private String name(final Cursor c) {
+        int id = c.varint();
+        return id == 0 ? null : theNames[id - 1];
+    }
+
+    /**
+     * Decodes varints and strings from a buffer.
+     */
+    private static final class Cursor {
+
+        private final ByteBuffer theBytes;
+        private char[] theChars = new char[INITIAL_CHARS];
+        private int theLength; // chars decoded by the last call of chars()
+
+        Cursor(final ByteBuffer bytes) {
+            theBytes = bytes;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = theBytes.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        void chars() {
+            int length = varint();
+            if (length > theChars.length) {
+                theChars = Arrays.copyOf(theChars, Math.max(length, theChars.length * 2));
+            }
+            ByteBuffer bytes = theBytes;
+            char[] chars = theChars;
+            for (int i = 0; i < length; i++) {
+                int b = bytes.get();
+                if (b >= 0) {
+                    chars[i] = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    chars[i] = (char) ((b & 0x1F) << 6 | bytes.get() & 0x3F);
+                } else {
+                    chars[i] = (char) ((b & 0x0F) << 12 | (bytes.get() & 0x3F) << 6 | bytes.get() & 0x3F);
+                }
+            }
+            theLength = length;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// ContentHandler that writes events in binary form
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A ContentHandler and LexicalHandler that stores the events of a document in the compact binary form described in {@link BinaryEventFormat},
+ * to be read back with {@link BinaryEventReader} without parsing. Names are written once, into a dictionary at the start of the file, and events
+ * refer to them by number; text is written with varint lengths. The file can end with an index of the element starts, so that single elements
+ * can be read back directly.
+ *
+ * <p>
+ * The events of a document are collected in memory and written to the output stream at endDocument. The stream is flushed but not closed. The
+ * document locator is not stored.
+ *
+ * <pre>
+ * try (OutputStream out = Files.newOutputStream(path)) {
+ *     BinaryEventWriter writer = new BinaryEventWriter(out, true);
+ *     parser.setContentHandler(writer);
+ *     parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+ *     parser.parse(source);
+ * }
+ * </pre>
+ */
+public class BinaryEventWriter extends DefaultHandler implements LexicalHandler {
+
+    private static final int INITIAL_BODY = 4096;
+    private static final int INITIAL_INDEX = 256;
+
+    private final OutputStream theOutput;
+    private final boolean theIndexed;
+
+    private byte[] theBody;
+    private int theBodyLength;
+    private String[] theNames;
+    private int theNameCount;
+    private final HashMap<String, Integer> theNameIds = new HashMap<>();
+    private int[] theIndex;
+    private int theIndexLength;
+
+    /**
+     * Construct a writer.
+     *
+     * @param out stream to write to
+     * @param indexed true to write the index of element starts
+     */
+    public BinaryEventWriter(final OutputStream out, final boolean indexed) {
+        theOutput = out;
+        theIndexed = indexed;
+    }
+
+    // ContentHandler implementation
+
+    @Override
+    public void startDocument() throws SAXException {
+        theBody = new byte[INITIAL_BODY];
+        theBodyLength = 0;
+        theNames = new String[INITIAL_INDEX];
+        theNameCount = 0;
+        theNameIds.clear();
+        theIndex = new int[INITIAL_INDEX];
+        theIndexLength = 0;
+        opcode(BinaryEventFormat.START_DOCUMENT);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        opcode(BinaryEventFormat.END_DOCUMENT);
+        byte[] body = theBody;
+        int bodyLength = theBodyLength;
+        // The header, dictionary and index are written through the same buffer
+        theBody = new byte[INITIAL_BODY];
+        theBodyLength = 0;
+        for (byte b : BinaryEventFormat.MAGIC) {
+            writeByte(b);
+        }
+        writeByte(BinaryEventFormat.VERSION);
+        writeByte(theIndexed ? BinaryEventFormat.FLAG_INDEX : 0);
+        writeVarint(theNameCount);
+        for (int i = 0; i < theNameCount; i++) {
+            writeString(theNames[i]);
+        }
+        writeVarint(bodyLength);
+        try {
+            theOutput.write(theBody, 0, theBodyLength);
+            theOutput.write(body, 0, bodyLength);
+            theBodyLength = 0;
+            if (theIndexed) {
+                writeVarint(theIndexLength);
+                int last = 0;
+                for (int i = 0; i < theIndexLength; i++) {
+                    writeVarint(theIndex[i] - last);
+                    last = theIndex[i];
+                }
+                theOutput.write(theBody, 0, theBodyLength);
+            }
+            theOutput.flush();
+        } catch (IOException e) {
+            throw new SAXException(e);
+        } finally {
+            theBody = null;
+            theNames = null;
+            theNameIds.clear();
+            theIndex = null;
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        opcode(BinaryEventFormat.START_PREFIX_MAPPING);
+        writeName(prefix);
+        writeName(uri);
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        opcode(BinaryEventFormat.END_PREFIX_MAPPING);
+        writeName(prefix);
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        if (theIndexed) {
+            if (theIndexLength == theIndex.length) {
+                theIndex = Arrays.copyOf(theIndex, theIndexLength * 2);
+            }
+            theIndex[theIndexLength++] = theBodyLength;
+        }
+        opcode(BinaryEventFormat.START_ELEMENT);
+        writeName(uri);
+        writeName(localName);
+        writeName(qName);
+        int len = atts.getLength();
+        writeVarint(len);
+        for (int i = 0; i < len; i++) {
+            writeName(atts.getURI(i));
+            writeName(atts.getLocalName(i));
+            writeName(atts.getQName(i));
+            writeName(atts.getType(i));
+            writeString(atts.getValue(i));
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        opcode(BinaryEventFormat.END_ELEMENT);
+        writeName(uri);
+        writeName(localName);
+        writeName(qName);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        opcode(BinaryEventFormat.CHARACTERS);
+        writeChars(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        opcode(BinaryEventFormat.IGNORABLE_WHITESPACE);
+        writeChars(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        opcode(BinaryEventFormat.PROCESSING_INSTRUCTION);
+        writeName(target);
+        writeString(data);
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+        opcode(BinaryEventFormat.SKIPPED_ENTITY);
+        writeName(name);
+    }
+
+    // LexicalHandler implementation
+
+    @Override
+    public void startDTD(final String name, final String publicid, final String systemid) throws SAXException {
+        opcode(BinaryEventFormat.START_DTD);
+        writeName(name);
+        writeName(publicid);
+        writeName(systemid);
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        opcode(BinaryEventFormat.END_DTD);
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+        opcode(BinaryEventFormat.START_ENTITY);
+        writeName(name);
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+        opcode(BinaryEventFormat.END_ENTITY);
+        writeName(name);
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        opcode(BinaryEventFormat.START_CDATA);
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        opcode(BinaryEventFormat.END_CDATA);
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+        opcode(BinaryEventFormat.COMMENT);
+        writeChars(ch, start, length);
+    }
+
+    // Encoding
+
+    private void opcode(final int opcode) {
+        writeByte(opcode);
+    }
+
+    private void writeByte(final int b) {
+        if (theBodyLength == theBody.length) {
+            theBody = Arrays.copyOf(theBody, theBodyLength * 2);
+        }
+        theBody[theBodyLength++] = (byte) b;
+    }
+
+    private void writeVarint(final int value) {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        writeByte(v);
+    }
+
+    // Names go to the dictionary; 0 is null
+    private void writeName(final String name) {
+        if (name == null) {
+            writeVarint(0);
+            return;
+        }
+        Integer id = theNameIds.get(name);
+        if (id == null) {
+            if (theNameCount == theNames.length) {
+                theNames = Arrays.copyOf(theNames, theNameCount * 2);
+            }
+            theNames[theNameCount] = name;
+            id = Integer.valueOf(theNameCount++);
+            theNameIds.put(name, id);
+        }
+        writeVarint(id.intValue() + 1);
+    }
+
+    private void writeString(final String s) {
+        writeVarint(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    private void writeChars(final char[] ch, final int start, final int length) {
+        writeVarint(length);
+        if (theBodyLength + 3 * length > theBody.length) {
+            theBody = Arrays.copyOf(theBody, Math.max(theBody.length * 2, theBodyLength + 3 * length));
+        }
+        byte[] body = theBody;
+        int pos = theBodyLength;
+        for (int i = start; i < start + length; i++) {
+            char c = ch[i];
+            if (c < 0x80) {
+                body[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                body[pos++] = (byte) (0xC0 | c >> 6);
+                body[pos++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                body[pos++] = (byte) (0xE0 | c >> 12);
+                body[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                body[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        theBodyLength = pos;
+    }
+
+    private void writeChar(final char c) {
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            writeByte(0xC0 | c >> 6);
+            writeByte(0x80 | c & 0x3F);
+        } else {
+            writeByte(0xE0 | c >> 12);
+            writeByte(0x80 | c >> 6 & 0x3F);
+            writeByte(0x80 | c & 0x3F);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+// Cancellation and deadline of a parse
+
+package com.yahoo.tagchowder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.xml.sax.Locator;
+
+/**
+ * Lets a parse be stopped from another thread or when a deadline passes. The token is set on a parser with
+ * {@link Parser#CANCELLATION_TOKEN_PROPERTY}, and the {@link com.yahoo.tagchowder.templates.HTMLScanner} checks it every few thousand characters.
+ * A parse that finds the token cancelled or expired stops with a {@link ParseCancelledException}. The handlers then get no further events,
+ * not even endDocument.
+ *
+ * <p>
+ * The check costs a counter decrement per character and a volatile read and a clock read per check. A thread that is blocked reading the input is
+ * not interrupted; the token is seen once characters arrive. A token may be shared by any number of parses, for example all the parses of one
+ * request.
+ */
+public final class CancellationToken {
+
+    private final long theStart = System.nanoTime();
+    private final long theTimeout; // nanoseconds from theStart, or Long.MAX_VALUE
+    private volatile boolean theCancelled;
+
+    /**
+     * Construct a token without a deadline, which only stops a parse once {@link #cancel()} is called.
+     */
+    public CancellationToken() {
+        theTimeout = Long.MAX_VALUE;
+    }
+
+    private CancellationToken(final long timeout) {
+        theTimeout = Math.max(timeout, 0);
+    }
+
+    /**
+     * Return a token that expires after a timeout, counted from now.
+     *
+     * @param timeout timeout
+     * @param unit unit of the timeout
+     * @return token
+     */
+    public static CancellationToken withTimeout(final long timeout, final TimeUnit unit) {
+        return new CancellationToken(unit.toNanos(timeout));
+    }
+
+    /**
+     * Cancel the parses that use this token. May be called from any thread.
+     */
+    public void cancel() {
+        theCancelled = true;
+    }
+
+    /**
+     * Return true if {@link #cancel()} has been called.
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return theCancelled;
+    }
+
+    /**
+     * Return true if the deadline of the token has passed.
+     *
+     * @return true if expired
+     */
+    public boolean isExpired() {
+        return theTimeout != Long.MAX_VALUE && System.nanoTime() - theStart >= theTimeout;
+    }
+
+    /**
+     * Stop a parse if the token is cancelled or expired.
+     *
+     * @param locator position of the parse
+     * @param characters number of characters scanned so far
+     * @throws ParseCancelledException if the parse must stop
+     */
+    public void check(final Locator locator, final long characters) throws ParseCancelledException {
+        if (theCancelled) {
+            throw new ParseCancelledException("Parse cancelled after " + characters + " characters", locator, characters, false);
+        }
+        if (isExpired()) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - theStart);
+            throw new ParseCancelledException("Parse deadline passed after " + characters + " characters, " + elapsed + " ms", locator, characters,
+                    true);
+        }
+    }
+}
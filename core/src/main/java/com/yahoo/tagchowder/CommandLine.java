@@ -23,13 +23,25 @@
 
 package com.yahoo.tagchowder;
 
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
@@ -48,6 +60,8 @@ public class CommandLine {
     static {
         options.put("--nocdata", Boolean.FALSE); // CDATA elements are normal
         options.put("--files", Boolean.FALSE); // process arguments as separate files
+        options.put("--threads=", Boolean.FALSE); // worker threads for --files
+        options.put("--output-dir=", Boolean.FALSE); // mirror --files output under a directory
         options.put("--reuse", Boolean.FALSE); // reuse a single Parser
         options.put("--nons", Boolean.FALSE); // no namespaces
         options.put("--nobogons", Boolean.FALSE); // suppress unknown elements
@@ -93,20 +107,17 @@ public class CommandLine {
         if (argv.length == optind) {
             process("", System.out);
         } else if (hasOption(options, "--files")) {
+            List<String[]> files = new ArrayList<>();
             for (int i = optind; i < argv.length; i++) {
-                String src = argv[i];
-                String dst;
-                int j = src.lastIndexOf('.');
-                if (j == -1) {
-                    dst = src + ".xhtml";
-                } else if (src.endsWith(".xhtml")) {
-                    dst = src + "_";
-                } else {
-                    dst = src.substring(0, j) + ".xhtml";
+                addFiles(argv[i], files);
+            }
+            int threads = hasOption(options, "--threads=") ? Integer.parseInt((String) options.get("--threads=")) : 1;
+            if (threads <= 1) {
+                for (String[] file : files) {
+                    processFile(file[0], file[1]);
                 }
-                System.err.println("src: " + src + " dst: " + dst);
-                OutputStream os = new FileOutputStream(dst);
-                process(src, os);
+            } else {
+                processFiles(files, threads);
             }
         } else {
             for (int i = optind; i < argv.length; i++) {
@@ -137,24 +148,113 @@ public class CommandLine {
         System.err.println("]*");
     }
 
-    private static Parser theParser = null;
-    private static HTMLSchema theSchema = null;
-    private static String theOutputEncoding = null;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    // With --reuse, one parser per thread
+    private static final ThreadLocal<Parser> PARSERS = ThreadLocal.withInitial(Parser::new);
+
+    // Add a file argument, or the HTML files below a directory argument, with their destinations
+    private static void addFiles(final String arg, final List<String[]> files) throws IOException {
+        Path path = Paths.get(arg);
+        Path outputDir = hasOption(options, "--output-dir=") ? Paths.get((String) options.get("--output-dir=")) : null;
+        if (!Files.isDirectory(path)) {
+            String dst = outputDir == null ? arg : outputDir.resolve(path.getFileName()).toString();
+            files.add(new String[] {arg, outputName(dst)});
+            return;
+        }
+        List<Path> found = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.filter(p -> Files.isRegularFile(p) && isHTML(p)).sorted().forEach(found::add);
+        }
+        for (Path p : found) {
+            String dst = outputDir == null ? p.toString() : outputDir.resolve(path.relativize(p).toString()).toString();
+            files.add(new String[] {p.toString(), outputName(dst)});
+        }
+    }
+
+    private static boolean isHTML(final Path p) {
+        String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+    // Name the output file after the source file
+
+    private static String outputName(final String src) {
+        int j = src.lastIndexOf('.');
+        if (j == -1 || j < src.lastIndexOf('/') || j < src.lastIndexOf('\\')) {
+            return src + ".xhtml";
+        } else if (src.endsWith(".xhtml")) {
+            return src + "_";
+        } else {
+            return src.substring(0, j) + ".xhtml";
+        }
+    }
+
+    // Process files on a pool of worker threads. All files are processed; then the first failure is thrown, with the others suppressed.
+
+    private static void processFiles(final List<String[]> files, final int threads) throws IOException, SAXException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Throwable failure = null;
+        try {
+            List<Future<?>> results = new ArrayList<>(files.size());
+            for (final String[] file : files) {
+                results.add(pool.submit(() -> {
+                    processFile(file[0], file[1]);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing files");
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof SAXException) {
+            throw (SAXException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    // Process one file onto a buffered output file, creating its directory if needed.
+
+    private static void processFile(final String src, final String dst) throws IOException, SAXException {
+        System.err.println("src: " + src + " dst: " + dst);
+        Path out = Paths.get(dst);
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out), OUTPUT_BUFFER_SIZE)) {
+            process(src, os);
+        }
+    }
 
     // Process one source onto an output stream.
 
     private static void process(final String src, final OutputStream os) throws IOException, SAXException {
         XMLReader r;
         if (hasOption(options, "--reuse")) {
-            if (theParser == null) {
-                theParser = new Parser();
-            }
-            r = theParser;
+            r = PARSERS.get();
         } else {
             r = new Parser();
         }
-        theSchema = new HTMLSchema(true);
-        r.setProperty(Parser.SCHEMA_PROPERTY, theSchema);
+        HTMLSchema schema = new HTMLSchema(true);
+        r.setProperty(Parser.SCHEMA_PROPERTY, schema);
 
         if (hasOption(options, "--nocdata")) {
             r.setFeature(Parser.CDATA_ELEMENTS_FEATURE, false);
@@ -193,13 +293,14 @@ public class CommandLine {
             r.setFeature(Parser.IGNORABLE_WHITESPACE_FEATURE, true);
         }
 
+        String outputEncoding = hasOption(options, "--output-encoding=") ? (String) options.get("--output-encoding=") : null;
         Writer w;
-        if (theOutputEncoding == null) {
+        if (outputEncoding == null) {
             w = new OutputStreamWriter(os);
         } else {
-            w = new OutputStreamWriter(os, theOutputEncoding);
+            w = new OutputStreamWriter(os, outputEncoding);
         }
-        ContentHandler h = chooseContentHandler(w);
+        ContentHandler h = chooseContentHandler(w, schema);
         r.setContentHandler(h);
         if (hasOption(options, "--lexical") && h instanceof LexicalHandler) {
             r.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, h);
@@ -222,7 +323,7 @@ public class CommandLine {
 
     // Pick a content handler to generate the desired format.
 
-    private static ContentHandler chooseContentHandler(final Writer w) {
+    private static ContentHandler chooseContentHandler(final Writer w, final Schema schema) {
         XMLWriter x;
         if (hasOption(options, "--pyx")) {
             return new PYXWriter(w);
@@ -252,16 +353,15 @@ public class CommandLine {
             }
         }
         if (hasOption(options, "--output-encoding=")) {
-            theOutputEncoding = (String) options.get("--output-encoding=");
-            // System.err.println("%%%% Output encoding is " + theOutputEncoding);
-            if (theOutputEncoding != null) {
-                x.setOutputProperty(XMLWriter.ENCODING, theOutputEncoding);
+            String outputEncoding = (String) options.get("--output-encoding=");
+            if (outputEncoding != null) {
+                x.setOutputProperty(XMLWriter.ENCODING, outputEncoding);
             }
         }
         if (hasOption(options, "--omit-xml-declaration")) {
             x.setOutputProperty(XMLWriter.OMIT_XML_DECLARATION, "yes");
         }
-        x.setPrefix(theSchema.getURI(), "");
+        x.setPrefix(schema.getURI(), "");
         return x;
     }
 
@@ -0,0 +1,456 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Array-based document tree
+
+package com.yahoo.tagchowder;
+
+/**
+ * A read-only document tree stored as parallel primitive arrays. Every node is identified by an int; node 0 is the document node. Elements record
+ * the id of their {@link ElementType} in the {@link Schema} the document was parsed with, and all character data (text and attribute values) lives
+ * in a single shared char slab addressed by offset and length.
+ *
+ * <p>
+ * Navigation is done either directly on node numbers or through {@link Node} objects, which are small views created on demand by {@link #node(int)}
+ * and never stored by the tree.
+ *
+ * @see CompactTreeBuilder
+ */
+public final class CompactTree {
+
+    /** Value returned by navigation methods when there is no such node. */
+    public static final int NONE = -1;
+    /** Element type value of the document node. */
+    public static final int DOCUMENT = -2;
+    /** Element type value of text nodes. */
+    public static final int TEXT = -3;
+
+    private final Schema theSchema;
+    private final int theSize;
+    private final int[] theParent;
+    private final int[] theFirstChild;
+    private final int[] theNextSibling;
+    private final int[] theType; // element type id, DOCUMENT or TEXT
+    private final int[] theStart; // text: slab offset, element: first attribute
+    private final int[] theLength; // text: slab length, element: attribute count
+    private final String[] theAttrNames;
+    private final int[] theAttrStart;
+    private final int[] theAttrLength;
+    private final char[] theSlab;
+
+    /**
+     * Construct a tree from arrays filled in by a builder. The arrays are used as given, not copied.
+     *
+     * @param schema schema that element type ids refer to
+     * @param nodes per-node arrays: parent, first child, next sibling, type, start and length, all of the same length
+     * @param attrNames attribute qualified names
+     * @param attrValues per-attribute arrays: slab offset and slab length of the value
+     * @param slab the shared character slab
+     */
+    CompactTree(final Schema schema, final int[][] nodes, final String[] attrNames, final int[][] attrValues, final char[] slab) {
+        theSchema = schema;
+        theSize = nodes[0].length;
+        theParent = nodes[0];
+        theFirstChild = nodes[1];
+        theNextSibling = nodes[2];
+        theType = nodes[3];
+        theStart = nodes[4];
+        theLength = nodes[5];
+        theAttrNames = attrNames;
+        theAttrStart = attrValues[0];
+        theAttrLength = attrValues[1];
+        theSlab = slab;
+    }
+
+    /**
+     * Return the schema whose element type ids this tree refers to.
+     *
+     * @return schema
+     */
+    public Schema schema() {
+        return theSchema;
+    }
+
+    /**
+     * Return the number of nodes in this tree, including the document node.
+     *
+     * @return number of nodes
+     */
+    public int size() {
+        return theSize;
+    }
+
+    /**
+     * Return the root element of the document.
+     *
+     * @return root element, or {@link #NONE} if the document is empty
+     */
+    public int rootElement() {
+        for (int n = theSize > 0 ? theFirstChild[0] : NONE; n != NONE; n = theNextSibling[n]) {
+            if (theType[n] >= 0) {
+                return n;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Return the parent of a node.
+     *
+     * @param node node
+     * @return parent, or {@link #NONE} for the document node
+     */
+    public int parent(final int node) {
+        return theParent[node];
+    }
+
+    /**
+     * Return the first child of a node.
+     *
+     * @param node node
+     * @return first child, or {@link #NONE}
+     */
+    public int firstChild(final int node) {
+        return theFirstChild[node];
+    }
+
+    /**
+     * Return the next sibling of a node.
+     *
+     * @param node node
+     * @return next sibling, or {@link #NONE}
+     */
+    public int nextSibling(final int node) {
+        return theNextSibling[node];
+    }
+
+    /**
+     * Return the element type id of a node. Text nodes return {@link #TEXT} and the document node returns {@link #DOCUMENT}.
+     *
+     * @param node node
+     * @return element type id
+     */
+    public int typeId(final int node) {
+        return theType[node];
+    }
+
+    /**
+     * Return true if a node is an element.
+     *
+     * @param node node
+     * @return boolean
+     */
+    public boolean isElement(final int node) {
+        return theType[node] >= 0;
+    }
+
+    /**
+     * Return true if a node is a text node.
+     *
+     * @param node node
+     * @return boolean
+     */
+    public boolean isText(final int node) {
+        return theType[node] == TEXT;
+    }
+
+    /**
+     * Return the element type of an element node.
+     *
+     * @param node node
+     * @return element type, or null if the node is not an element
+     */
+    public ElementType elementType(final int node) {
+        int type = theType[node];
+        return type >= 0 ? theSchema.getElementType(type) : null;
+    }
+
+    /**
+     * Return the name of an element node.
+     *
+     * @param node node
+     * @return element name, or null if the node is not an element
+     */
+    public String name(final int node) {
+        ElementType type = elementType(node);
+        return type == null ? null : type.name();
+    }
+
+    /**
+     * Return the characters of a text node.
+     *
+     * @param node node
+     * @return text, or null if the node is not a text node
+     */
+    public String text(final int node) {
+        if (theType[node] != TEXT) {
+            return null;
+        }
+        return new String(theSlab, theStart[node], theLength[node]);
+    }
+
+    /**
+     * Append the characters of all text nodes below a node, in document order.
+     *
+     * @param node node
+     * @param sb buffer to append to
+     * @return the buffer
+     */
+    public StringBuilder appendTextContent(final int node, final StringBuilder sb) {
+        if (theType[node] == TEXT) {
+            return sb.append(theSlab, theStart[node], theLength[node]);
+        }
+        int n = theFirstChild[node];
+        while (n != NONE) {
+            if (theType[n] == TEXT) {
+                sb.append(theSlab, theStart[n], theLength[n]);
+            }
+            if (theFirstChild[n] != NONE) {
+                n = theFirstChild[n];
+                continue;
+            }
+            while (n != node && theNextSibling[n] == NONE) {
+                n = theParent[n];
+            }
+            n = n == node ? NONE : theNextSibling[n];
+        }
+        return sb;
+    }
+
+    /**
+     * Return the characters of all text nodes below a node, in document order.
+     *
+     * @param node node
+     * @return text content
+     */
+    public String textContent(final int node) {
+        return appendTextContent(node, new StringBuilder()).toString();
+    }
+
+    /**
+     * Return the number of attributes of an element node.
+     *
+     * @param node node
+     * @return attribute count, 0 for non-elements
+     */
+    public int attributeCount(final int node) {
+        return theType[node] >= 0 ? theLength[node] : 0;
+    }
+
+    /**
+     * Return the qualified name of an attribute.
+     *
+     * @param node element node
+     * @param index attribute index
+     * @return attribute name
+     */
+    public String attributeName(final int node, final int index) {
+        return theAttrNames[attributeSlot(node, index)];
+    }
+
+    /**
+     * Return the value of an attribute.
+     *
+     * @param node element node
+     * @param index attribute index
+     * @return attribute value
+     */
+    public String attributeValue(final int node, final int index) {
+        int slot = attributeSlot(node, index);
+        return new String(theSlab, theAttrStart[slot], theAttrLength[slot]);
+    }
+
+    /**
+     * Return the value of an attribute by qualified name.
+     *
+     * @param node element node
+     * @param name attribute name
+     * @return attribute value, or null if absent
+     */
+    public String getAttribute(final int node, final String name) {
+        int count = attributeCount(node);
+        for (int i = 0; i < count; i++) {
+            int slot = theStart[node] + i;
+            if (theAttrNames[slot].equals(name)) {
+                return new String(theSlab, theAttrStart[slot], theAttrLength[slot]);
+            }
+        }
+        return null;
+    }
+
+    private int attributeSlot(final int node, final int index) {
+        if (index < 0 || index >= attributeCount(node)) {
+            throw new ArrayIndexOutOfBoundsException("Can't access attribute at index: " + index);
+        }
+        return theStart[node] + index;
+    }
+
+    /**
+     * Return a view object for a node.
+     *
+     * @param node node
+     * @return view, or null for {@link #NONE}
+     */
+    public Node node(final int node) {
+        return node == NONE ? null : new Node(node);
+    }
+
+    /**
+     * Return a view object for the document node.
+     *
+     * @return view
+     */
+    public Node document() {
+        return new Node(0);
+    }
+
+    /**
+     * A lightweight view of one node of a {@link CompactTree}. Views hold only the node number, so they are cheap to create and may be discarded
+     * freely; two views of the same node are equal.
+     */
+    public final class Node {
+
+        private final int theNode;
+
+        private Node(final int node) {
+            theNode = node;
+        }
+
+        /**
+         * Return the node number in the tree.
+         *
+         * @return node number
+         */
+        public int index() {
+            return theNode;
+        }
+
+        /**
+         * Return the parent node.
+         *
+         * @return parent, or null
+         */
+        public Node parent() {
+            return node(theParent[theNode]);
+        }
+
+        /**
+         * Return the first child node.
+         *
+         * @return first child, or null
+         */
+        public Node firstChild() {
+            return node(theFirstChild[theNode]);
+        }
+
+        /**
+         * Return the next sibling node.
+         *
+         * @return next sibling, or null
+         */
+        public Node nextSibling() {
+            return node(theNextSibling[theNode]);
+        }
+
+        /**
+         * Return true if this node is an element.
+         *
+         * @return boolean
+         */
+        public boolean isElement() {
+            return CompactTree.this.isElement(theNode);
+        }
+
+        /**
+         * Return true if this node is a text node.
+         *
+         * @return boolean
+         */
+        public boolean isText() {
+            return CompactTree.this.isText(theNode);
+        }
+
+        /**
+         * Return the element type id of this node.
+         *
+         * @return element type id
+         */
+        public int typeId() {
+            return theType[theNode];
+        }
+
+        /**
+         * Return the element name of this node.
+         *
+         * @return name, or null if not an element
+         */
+        public String name() {
+            return CompactTree.this.name(theNode);
+        }
+
+        /**
+         * Return the characters of this text node.
+         *
+         * @return text, or null if not a text node
+         */
+        public String text() {
+            return CompactTree.this.text(theNode);
+        }
+
+        /**
+         * Return the text content below this node.
+         *
+         * @return text content
+         */
+        public String textContent() {
+            return CompactTree.this.textContent(theNode);
+        }
+
+        /**
+         * Return the value of an attribute of this element.
+         *
+         * @param name attribute name
+         * @return value, or null
+         */
+        public String getAttribute(final String name) {
+            return CompactTree.this.getAttribute(theNode, name);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) o;
+            return other.theNode == theNode && other.tree() == tree();
+        }
+
+        @Override
+        public int hashCode() {
+            return theNode;
+        }
+
+        @Override
+        public String toString() {
+            return isElement() ? "<" + name() + ">" : isText() ? text() : "#document";
+        }
+
+        private CompactTree tree() {
+            return CompactTree.this;
+        }
+    }
+}
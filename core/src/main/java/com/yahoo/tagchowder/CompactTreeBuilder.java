@@ -0,0 +1,231 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// ContentHandler that builds a CompactTree
+
+package com.yahoo.tagchowder;
+
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A ContentHandler that builds a {@link CompactTree} from the events of a {@link Parser}. Nodes are appended to growable parallel int arrays as
+ * the events arrive, so building costs a few array stores per event and no per-node objects. Adjacent character events are merged into one text
+ * node.
+ *
+ * <pre>
+ * Parser parser = new Parser();
+ * CompactTreeBuilder builder = new CompactTreeBuilder(parser);
+ * parser.setContentHandler(builder);
+ * parser.parse(source);
+ * CompactTree tree = builder.getTree();
+ * </pre>
+ */
+public class CompactTreeBuilder extends DefaultHandler {
+
+    private static final int INITIAL_NODES = 64;
+    private static final int INITIAL_ATTRS = 32;
+    private static final int INITIAL_SLAB = 1024;
+
+    private final Parser theParser;
+    private Schema theSchema;
+    private CompactTree theTree;
+
+    private int theSize;
+    private int[] theParent;
+    private int[] theFirstChild;
+    private int[] theNextSibling;
+    private int[] theType;
+    private int[] theStart;
+    private int[] theLength;
+
+    private int theAttrCount;
+    private String[] theAttrNames;
+    private int[] theAttrStart;
+    private int[] theAttrLength;
+
+    private int theSlabLength;
+    private char[] theSlab;
+
+    private int theCurrent; // innermost open node
+    private int[] theLastChild; // last child of each open node, indexed by depth
+    private int theDepth;
+
+    /**
+     * Construct a builder for documents parsed by the given parser. The parser's schema is picked up when the document starts, so the parser may
+     * create its default schema lazily.
+     *
+     * @param parser the parser that will report events to this builder
+     */
+    public CompactTreeBuilder(final Parser parser) {
+        theParser = parser;
+    }
+
+    /**
+     * Construct a builder that resolves element names against the given schema.
+     *
+     * @param schema schema used by the parser that will report events to this builder
+     */
+    public CompactTreeBuilder(final Schema schema) {
+        theParser = null;
+        theSchema = schema;
+    }
+
+    /**
+     * Return the tree built from the most recent document.
+     *
+     * @return the tree, or null if no document has been completed
+     */
+    public CompactTree getTree() {
+        return theTree;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (theParser != null) {
+            theSchema = (Schema) theParser.getProperty(Parser.SCHEMA_PROPERTY);
+        }
+        theTree = null;
+        theSize = 0;
+        theParent = new int[INITIAL_NODES];
+        theFirstChild = new int[INITIAL_NODES];
+        theNextSibling = new int[INITIAL_NODES];
+        theType = new int[INITIAL_NODES];
+        theStart = new int[INITIAL_NODES];
+        theLength = new int[INITIAL_NODES];
+        theAttrCount = 0;
+        theAttrNames = new String[INITIAL_ATTRS];
+        theAttrStart = new int[INITIAL_ATTRS];
+        theAttrLength = new int[INITIAL_ATTRS];
+        theSlabLength = 0;
+        theSlab = new char[INITIAL_SLAB];
+        theLastChild = new int[INITIAL_NODES];
+        theDepth = 0;
+        theCurrent = CompactTree.NONE;
+        theCurrent = newNode(CompactTree.DOCUMENT);
+        theLastChild[0] = CompactTree.NONE;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        int[][] nodes = { Arrays.copyOf(theParent, theSize), Arrays.copyOf(theFirstChild, theSize), Arrays.copyOf(theNextSibling, theSize),
+            Arrays.copyOf(theType, theSize), Arrays.copyOf(theStart, theSize), Arrays.copyOf(theLength, theSize) };
+        int[][] attrValues = { Arrays.copyOf(theAttrStart, theAttrCount), Arrays.copyOf(theAttrLength, theAttrCount) };
+        theTree = new CompactTree(theSchema, nodes, Arrays.copyOf(theAttrNames, theAttrCount), attrValues, Arrays.copyOf(theSlab, theSlabLength));
+        theParent = theFirstChild = theNextSibling = theType = theStart = theLength = theLastChild = null;
+        theAttrNames = null;
+        theAttrStart = theAttrLength = null;
+        theSlab = null;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        ElementType type = theSchema.getElementType(qName);
+        if (type == null) {
+            throw new SAXException("Element type " + qName + " is not known to the schema");
+        }
+        int node = newNode(type.id());
+        int len = atts.getLength();
+        theStart[node] = theAttrCount;
+        theLength[node] = len;
+        if (theAttrCount + len > theAttrNames.length) {
+            int capacity = Math.max(theAttrNames.length * 2, theAttrCount + len);
+            theAttrNames = Arrays.copyOf(theAttrNames, capacity);
+            theAttrStart = Arrays.copyOf(theAttrStart, capacity);
+            theAttrLength = Arrays.copyOf(theAttrLength, capacity);
+        }
+        for (int i = 0; i < len; i++) {
+            String value = atts.getValue(i);
+            theAttrNames[theAttrCount] = atts.getQName(i);
+            theAttrStart[theAttrCount] = theSlabLength;
+            theAttrLength[theAttrCount] = value.length();
+            ensureSlab(value.length());
+            value.getChars(0, value.length(), theSlab, theSlabLength);
+            theSlabLength += value.length();
+            theAttrCount++;
+        }
+        if (theDepth + 1 == theLastChild.length) {
+            theLastChild = Arrays.copyOf(theLastChild, theLastChild.length * 2);
+        }
+        theLastChild[++theDepth] = CompactTree.NONE;
+        theCurrent = node;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        theDepth--;
+        theCurrent = theParent[theCurrent];
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        if (length == 0) {
+            return;
+        }
+        int last = theLastChild[theDepth];
+        ensureSlab(length);
+        if (last != CompactTree.NONE && theType[last] == CompactTree.TEXT && theStart[last] + theLength[last] == theSlabLength) {
+            // Extend the previous text node in place
+            theLength[last] += length;
+        } else {
+            int node = newNode(CompactTree.TEXT);
+            theStart[node] = theSlabLength;
+            theLength[node] = length;
+        }
+        System.arraycopy(ch, start, theSlab, theSlabLength, length);
+        theSlabLength += length;
+    }
+
+    // Append a node as the last child of the current node
+    private int newNode(final int type) {
+        if (theSize == theType.length) {
+            int capacity = theSize * 2;
+            theParent = Arrays.copyOf(theParent, capacity);
+            theFirstChild = Arrays.copyOf(theFirstChild, capacity);
+            theNextSibling = Arrays.copyOf(theNextSibling, capacity);
+            theType = Arrays.copyOf(theType, capacity);
+            theStart = Arrays.copyOf(theStart, capacity);
+            theLength = Arrays.copyOf(theLength, capacity);
+        }
+        int node = theSize++;
+        theParent[node] = theCurrent;
+        theFirstChild[node] = CompactTree.NONE;
+        theNextSibling[node] = CompactTree.NONE;
+        theType[node] = type;
+        theStart[node] = 0;
+        theLength[node] = 0;
+        if (theCurrent != CompactTree.NONE) {
+            int last = theLastChild[theDepth];
+            if (last == CompactTree.NONE) {
+                theFirstChild[theCurrent] = node;
+            } else {
+                theNextSibling[last] = node;
+            }
+            theLastChild[theDepth] = node;
+        }
+        return node;
+    }
+
+    private void ensureSlab(final int length) {
+        if (theSlabLength + length > theSlab.length) {
+            theSlab = Arrays.copyOf(theSlab, Math.max(theSlab.length * 2, theSlabLength + length));
+        }
+    }
+}
@@ -34,6 +34,7 @@ public class Element {
     private AttributesImpl theAtts; // attributes of element
     private Element theNext; // successor of element
     private boolean preclosed; // this element has been preclosed
+    private int restarts; // times this element has been restarted
 
     /**
      * Return an Element from a specified ElementType.
@@ -103,6 +104,16 @@ public class Element {
         return theType.name();
     }
 
+    /**
+     * Return the id of the element's type, which identifies the type within its schema. Convenience method.
+     *
+     * @return The element type id
+     */
+
+    public int id() {
+        return theType.id();
+    }
+
     /**
      * Return the namespace name of the element's type. Convenience method.
      *
@@ -230,4 +241,22 @@ public class Element {
         return preclosed;
     }
 
+    /**
+     * Record that this element has been restarted, that is opened again after a misnested tag closed it.
+     */
+
+    public void restarted() {
+        restarts++;
+    }
+
+    /**
+     * Return the number of times this element has been restarted.
+     *
+     * @return int
+     */
+
+    public int restarts() {
+        return restarts;
+    }
+
 }
@@ -31,6 +31,7 @@ package com.yahoo.tagchowder;
 public class ElementType {
 
     private String theName; // element type name (Qname)
+    private int theId = -1; // dense id assigned by the schema
     private String theNamespace; // element type namespace name
     private String theLocalName; // element type local name
     private int theModel; // bitmap: what the element contains
@@ -110,6 +111,17 @@ public class ElementType {
         return theName;
     }
 
+    /**
+     * Returns the id of this element type. Ids are small dense integers assigned by the schema in registration order, so they can be used to index
+     * arrays of per-type data.
+     *
+     * @return The id of the element type, or -1 if it is not registered with a schema
+     */
+
+    public int id() {
+        return theId;
+    }
+
     /**
      * Returns the namespace name of this element type.
      *
@@ -331,6 +343,16 @@ public class ElementType {
         theFlags = flags;
     }
 
+    /**
+     * Sets the id of this element type. Called by the schema when the type is registered.
+     *
+     * @param id The id
+     */
+
+    void setId(final int id) {
+        theId = id;
+    }
+
     /**
      * Sets the parent element type of this element type.
      *
@@ -0,0 +1,388 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+// AutoDetector that sniffs byte order marks and meta charset declarations
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An {@link AutoDetector} that determines the encoding of an HTML document from its first bytes, the way a browser does before it starts
+ * decoding. A byte order mark wins and is dropped. Otherwise the first {@value #PRESCAN_SIZE} bytes are prescanned for a {@code <meta charset>}
+ * or {@code <meta http-equiv="Content-Type" content="...; charset=...">} declaration, skipping comments and the attributes of other tags. If
+ * neither is found, the fallback charset is used.
+ *
+ * <p>
+ * The prescanned bytes are kept and decoded ahead of the rest of the stream, so the stream is read only once. The prescan is done on the first
+ * read from the returned reader, which reports an IOException of the stream. A detector has no state and may be shared by any number of parsers.
+ */
+public class HTMLAutoDetector implements AutoDetector {
+
+    /** Number of bytes prescanned for a meta declaration. */
+    public static final int PRESCAN_SIZE = 1024;
+
+    private static final Charset WINDOWS_1252 = lookup("windows-1252");
+
+    private final Charset theFallback;
+
+    /**
+     * Construct a detector falling back to the platform default charset, as an InputStreamReader does.
+     */
+    public HTMLAutoDetector() {
+        this(Charset.defaultCharset());
+    }
+
+    /**
+     * Construct a detector.
+     *
+     * @param fallback charset of documents that declare none
+     */
+    public HTMLAutoDetector(final Charset fallback) {
+        theFallback = fallback;
+    }
+
+    @Override
+    public Reader autoDetectingReader(final InputStream i) {
+        return new DetectingReader(i);
+    }
+
+    /**
+     * Return the charset of a document given its first bytes, from a byte order mark or a meta declaration.
+     *
+     * @param bytes the first bytes of the document
+     * @param length number of bytes
+     * @return charset, or null if the bytes declare none that is supported
+     */
+    public static Charset detect(final byte[] bytes, final int length) {
+        Charset charset = bomCharset(bytes, length);
+        return charset != null ? charset : new Prescan(bytes, length).run();
+    }
+
+    // Open a reader on the stream, decoding the prescanned bytes first
+    private Reader open(final InputStream i) throws IOException {
+        byte[] bytes = new byte[PRESCAN_SIZE];
+        int length = 0;
+        while (length < bytes.length) {
+            int n = i.read(bytes, length, bytes.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+        }
+        int start = 0;
+        Charset charset = bomCharset(bytes, length);
+        if (charset != null) {
+            start = charset == StandardCharsets.UTF_8 ? 3 : 2;
+        } else {
+            charset = new Prescan(bytes, length).run();
+            if (charset == null) {
+                charset = theFallback;
+            }
+        }
+        InputStream head = new ByteArrayInputStream(bytes, start, length - start);
+        return new InputStreamReader(new SequenceInputStream(head, i), charset);
+    }
+
+    // Return the charset of a byte order mark, or null
+    private static Charset bomCharset(final byte[] b, final int length) {
+        if (length >= 3 && (b[0] & 0xff) == 0xef && (b[1] & 0xff) == 0xbb && (b[2] & 0xff) == 0xbf) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (b[0] & 0xff) == 0xfe && (b[1] & 0xff) == 0xff) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (b[0] & 0xff) == 0xff && (b[1] & 0xff) == 0xfe) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    // Return a supported charset for a declared label, or null
+    private static Charset lookup(final String label) {
+        try {
+            return Charset.forName(label.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Return the charset to decode with for a label found in a meta declaration, or null
+    private static Charset declared(final String label) {
+        Charset charset = lookup(label);
+        if (charset == null) {
+            return label.trim().equals("x-user-defined") ? WINDOWS_1252 : null;
+        }
+        if (charset.name().startsWith("UTF-16") || charset.name().startsWith("UTF-32")) {
+            return StandardCharsets.UTF_8; // the meta was readable as ASCII, so the bytes are not UTF-16
+        }
+        if ((charset == StandardCharsets.ISO_8859_1 || charset == StandardCharsets.US_ASCII) && WINDOWS_1252 != null) {
+            return WINDOWS_1252; // as browsers do, for the C1 range
+        }
+        return charset;
+    }
+
+    // Reader that detects the encoding on its first read
+    private final class DetectingReader extends Reader {
+
+        private final InputStream theInput;
+        private Reader theReader;
+
+        DetectingReader(final InputStream input) {
+            theInput = input;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            if (theReader == null) {
+                theReader = open(theInput);
+            }
+            return theReader.read(cbuf, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (theReader == null) {
+                theInput.close();
+            } else {
+                theReader.close();
+            }
+        }
+    }
+
+    /**
+     * The prescan, a small state machine over the bytes: outside markup it looks for '&lt;', then skips a comment, reads the attributes of a meta
+     * tag, or steps over the name and attributes of any other tag so that a quoted '&gt;' or "meta" in an attribute value is not mistaken for
+     * markup.
+     */
+    private static final class Prescan {
+
+        private final byte[] theBytes;
+        private final int theLength;
+        private int thePos;
+        private final StringBuilder theName = new StringBuilder();
+        private final StringBuilder theValue = new StringBuilder();
+
+        Prescan(final byte[] bytes, final int length) {
+            theBytes = bytes;
+            theLength = length;
+        }
+
+        // Return the declared charset, or null
+        Charset run() {
+            for (; thePos < theLength; thePos++) {
+                if (theBytes[thePos] != '<') {
+                    continue;
+                }
+                if (startsWith("<!--")) {
+                    thePos = indexOf("-->", thePos + 2);
+                } else if (startsWith("<meta") && isSpaceOrSlash(thePos + 5)) {
+                    thePos += 5;
+                    Charset charset = meta();
+                    if (charset != null) {
+                        return charset;
+                    }
+                } else if (isLetter(thePos + 1) || at(thePos + 1) == '/' && isLetter(thePos + 2)) {
+                    while (thePos < theLength && !isSpace(thePos) && theBytes[thePos] != '>') {
+                        thePos++;
+                    }
+                    boolean more = true;
+                    while (more) {
+                        more = attribute();
+                    }
+                } else if (at(thePos + 1) == '!' || at(thePos + 1) == '/' || at(thePos + 1) == '?') {
+                    thePos = indexOf(">", thePos);
+                }
+                if (thePos < 0) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        // Read the attributes of a meta tag and return the charset it declares, or null
+        private Charset meta() {
+            Set<String> seen = new HashSet<>();
+            boolean gotPragma = false;
+            Boolean needPragma = null;
+            String charset = null;
+            while (attribute()) {
+                String name = theName.toString();
+                if (!seen.add(name)) {
+                    continue;
+                }
+                String value = theValue.toString();
+                if (name.equals("http-equiv")) {
+                    gotPragma |= value.equals("content-type");
+                } else if (name.equals("content") && charset == null) {
+                    charset = contentCharset(value);
+                    needPragma = charset == null ? null : Boolean.TRUE;
+                } else if (name.equals("charset")) {
+                    charset = value;
+                    needPragma = Boolean.FALSE;
+                }
+            }
+            if (needPragma == null || needPragma && !gotPragma) {
+                return null;
+            }
+            return declared(charset);
+        }
+
+        // Read the next attribute into theName and theValue, lower cased; return false at the end of the tag
+        private boolean attribute() {
+            theName.setLength(0);
+            theValue.setLength(0);
+            while (thePos < theLength && isSpaceOrSlash(thePos)) {
+                thePos++;
+            }
+            if (thePos >= theLength || theBytes[thePos] == '>') {
+                return false;
+            }
+            for (; thePos < theLength; thePos++) {
+                int c = theBytes[thePos];
+                if (c == '=' && theName.length() > 0) {
+                    break;
+                } else if (isSpace(thePos)) {
+                    while (thePos < theLength && isSpace(thePos)) {
+                        thePos++;
+                    }
+                    if (at(thePos) != '=') {
+                        return thePos < theLength;
+                    }
+                    break;
+                } else if (c == '/' || c == '>') {
+                    return true;
+                }
+                theName.append(lower(c));
+            }
+            if (thePos >= theLength) {
+                return false;
+            }
+            thePos++; // the '='
+            while (thePos < theLength && isSpace(thePos)) {
+                thePos++;
+            }
+            if (thePos >= theLength) {
+                return false;
+            }
+            int quote = theBytes[thePos];
+            if (quote == '"' || quote == '\'') {
+                for (thePos++; thePos < theLength; thePos++) {
+                    if (theBytes[thePos] == quote) {
+                        thePos++;
+                        return true;
+                    }
+                    theValue.append(lower(theBytes[thePos]));
+                }
+                return false;
+            }
+            for (; thePos < theLength && !isSpace(thePos) && theBytes[thePos] != '>'; thePos++) {
+                theValue.append(lower(theBytes[thePos]));
+            }
+            return thePos < theLength;
+        }
+
+        // Return the charset named in the value of a content attribute, or null
+        private static String contentCharset(final String content) {
+            for (int p = content.indexOf("charset"); p >= 0; p = content.indexOf("charset", p)) {
+                p += 7;
+                while (p < content.length() && content.charAt(p) <= ' ') {
+                    p++;
+                }
+                if (p >= content.length() || content.charAt(p) != '=') {
+                    continue;
+                }
+                p++;
+                while (p < content.length() && content.charAt(p) <= ' ') {
+                    p++;
+                }
+                if (p >= content.length()) {
+                    return null;
+                }
+                char quote = content.charAt(p);
+                if (quote == '"' || quote == '\'') {
+                    int end = content.indexOf(quote, p + 1);
+                    return end < 0 ? null : content.substring(p + 1, end);
+                }
+                int end = p;
+                while (end < content.length() && content.charAt(end) > ' ' && content.charAt(end) != ';') {
+                    end++;
+                }
+                return content.substring(p, end);
+            }
+            return null;
+        }
+
+        private int at(final int pos) {
+            return pos < theLength ? theBytes[pos] : -1;
+        }
+
+        private boolean startsWith(final String s) {
+            if (thePos + s.length() > theLength) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (lower(theBytes[thePos + i]) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Return the position of the last byte of s at or after pos, or -1
+        private int indexOf(final String s, final int pos) {
+            for (int p = pos; p + s.length() <= theLength; p++) {
+                int i = 0;
+                while (i < s.length() && theBytes[p + i] == s.charAt(i)) {
+                    i++;
+                }
+                if (i == s.length()) {
+                    return p + i - 1;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isSpace(final int pos) {
+            int c = at(pos);
+            return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+        }
+
+        private boolean isSpaceOrSlash(final int pos) {
+            return isSpace(pos) || at(pos) == '/';
+        }
+
+        private boolean isLetter(final int pos) {
+            int c = at(pos) | 0x20;
+            return c >= 'a' && c <= 'z';
+        }
+
+        private static char lower(final int c) {
+            return (char) (c >= 'A' && c <= 'Z' ? c + 0x20 : c & 0xff);
+        }
+    }
+}
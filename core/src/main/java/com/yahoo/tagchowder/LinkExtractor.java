@@ -0,0 +1,308 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// ContentHandler that extracts links and resource references
+
+package com.yahoo.tagchowder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A ContentHandler that collects the URLs found in a chosen set of (element type, attribute) pairs, such as a/href or img/src. Only the attributes
+ * registered for an element are looked at; the interest list of each element name is computed once and cached by interned name, so elements nobody
+ * asked about cost a single map lookup.
+ *
+ * <p>
+ * Relative URLs are resolved against the document base, which is the first {@code <base href>} of the document if there is one, otherwise the
+ * value given to {@link #setDocumentBase(String)}, otherwise the system id of the input. Resolved values are cached per document by raw attribute
+ * value, so a relative link that is repeated many times is resolved once. Values that cannot be parsed as a URI are reported as found, trimmed.
+ * Attributes named in {@link #addSrcset(String)} hold a comma separated list of candidates, each of which is reported separately.
+ */
+public class LinkExtractor extends DefaultHandler {
+
+    private static final String[] NO_ATTRIBUTES = new String[0];
+
+    private static final String[][] DEFAULT_INTERESTS = {
+        {"a", "href"}, {"area", "href"}, {"link", "href"}, {"form", "action"}, {"button", "formaction"}, {"input", "formaction"},
+        {"input", "src"}, {"img", "src"}, {"img", "srcset"}, {"script", "src"}, {"iframe", "src"}, {"frame", "src"}, {"embed", "src"},
+        {"object", "data"}, {"audio", "src"}, {"video", "src"}, {"video", "poster"}, {"source", "src"}, {"source", "srcset"}, {"track", "src"},
+    };
+
+    /**
+     * A URL found in a document, with the element and attribute it came from.
+     */
+    public static final class Link {
+
+        private final String theElement;
+        private final String theAttribute;
+        private final String theUrl;
+
+        Link(final String element, final String attribute, final String url) {
+            theElement = element;
+            theAttribute = attribute;
+            theUrl = url;
+        }
+
+        /**
+         * Return the name of the element the URL was found on.
+         *
+         * @return element name
+         */
+        public String element() {
+            return theElement;
+        }
+
+        /**
+         * Return the name of the attribute the URL was found in.
+         *
+         * @return attribute name
+         */
+        public String attribute() {
+            return theAttribute;
+        }
+
+        /**
+         * Return the resolved URL.
+         *
+         * @return URL
+         */
+        public String url() {
+            return theUrl;
+        }
+
+        @Override
+        public String toString() {
+            return theElement + "@" + theAttribute + "=" + theUrl;
+        }
+    }
+
+    private final HashMap<String, ArrayList<String>> theInterests = new HashMap<>(); // element name -> attribute names
+    private final ArrayList<String> theSrcsets = new ArrayList<>();
+    private final IdentityHashMap<String, String[]> theLookup = new IdentityHashMap<>(); // interned qName -> attribute names
+    private final HashMap<String, String> theResolved = new HashMap<>(); // raw value -> resolved URL, per document
+    private ArrayList<Link> theLinks = new ArrayList<>();
+    private String theDocumentBase;
+    private URI theBase;
+    private boolean sawBase;
+
+    /**
+     * Construct an extractor interested in the usual link and resource attributes of HTML: href, src, srcset, action, formaction, data and
+     * poster on the elements that define them.
+     */
+    public LinkExtractor() {
+        this(true);
+    }
+
+    /**
+     * Construct an extractor.
+     *
+     * @param defaults true to start with the usual HTML link attributes, false to start with no interests
+     */
+    public LinkExtractor(final boolean defaults) {
+        if (defaults) {
+            for (String[] interest : DEFAULT_INTERESTS) {
+                addInterest(interest[0], interest[1]);
+            }
+            addSrcset("srcset");
+        }
+    }
+
+    /**
+     * Register interest in an attribute of an element type. Names are case insensitive.
+     *
+     * @param element element type name
+     * @param attribute attribute name
+     */
+    public void addInterest(final String element, final String attribute) {
+        String e = element.toLowerCase();
+        String a = attribute.toLowerCase();
+        ArrayList<String> attributes = theInterests.get(e);
+        if (attributes == null) {
+            attributes = new ArrayList<>();
+            theInterests.put(e, attributes);
+        }
+        if (!attributes.contains(a)) {
+            attributes.add(a);
+        }
+        theLookup.clear();
+    }
+
+    /**
+     * Declare that an attribute holds a srcset style list of candidates ("url [descriptor], url [descriptor], ...").
+     *
+     * @param attribute attribute name
+     */
+    public void addSrcset(final String attribute) {
+        String a = attribute.toLowerCase();
+        if (!theSrcsets.contains(a)) {
+            theSrcsets.add(a);
+        }
+    }
+
+    /**
+     * Set the base URL of the next documents, used when a document has no {@code <base href>}. When null, the system id of the input is used.
+     *
+     * @param base absolute URL, or null
+     */
+    public void setDocumentBase(final String base) {
+        theDocumentBase = base;
+    }
+
+    /**
+     * Return the links found in the last document, in document order.
+     *
+     * @return list of links
+     */
+    public List<Link> getLinks() {
+        return Collections.unmodifiableList(theLinks);
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        theLinks = new ArrayList<>();
+        theResolved.clear();
+        sawBase = false;
+        theBase = toURI(theDocumentBase);
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+        if (theDocumentBase == null && !sawBase) {
+            setBase(toURI(locator.getSystemId()));
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        theResolved.clear();
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        if (!sawBase && ("base".equalsIgnoreCase(localName) || "base".equalsIgnoreCase(qName))) {
+            String href = atts.getValue("href");
+            if (href != null) {
+                sawBase = true;
+                URI base = toURI(resolve(href));
+                if (base != null) {
+                    setBase(base);
+                }
+            }
+        }
+        String[] attributes = interestsOf(qName);
+        for (String attribute : attributes) {
+            String value = atts.getValue(attribute);
+            if (value == null) {
+                continue;
+            }
+            if (theSrcsets.contains(attribute)) {
+                addSrcsetLinks(qName, attribute, value);
+            } else if (value.trim().length() != 0) {
+                theLinks.add(new Link(qName, attribute, resolve(value)));
+            }
+        }
+    }
+
+    // Report each candidate URL of a srcset list
+    private void addSrcsetLinks(final String element, final String attribute, final String value) {
+        int len = value.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && (Character.isWhitespace(value.charAt(i)) || value.charAt(i) == ',')) {
+                i++;
+            }
+            int start = i;
+            while (i < len && !Character.isWhitespace(value.charAt(i))) {
+                i++;
+            }
+            int end = i;
+            // A URL may itself contain commas, but trailing ones separate candidates
+            while (end > start && value.charAt(end - 1) == ',') {
+                end--;
+            }
+            if (end > start) {
+                theLinks.add(new Link(element, attribute, resolve(value.substring(start, end))));
+            }
+            while (i < len && value.charAt(i) != ',') {
+                i++;
+            }
+        }
+    }
+
+    // Return the attributes of interest for an element, caching by interned name
+    private String[] interestsOf(final String qName) {
+        String[] attributes = theLookup.get(qName);
+        if (attributes == null) {
+            ArrayList<String> list = theInterests.get(qName.toLowerCase());
+            attributes = list == null ? NO_ATTRIBUTES : list.toArray(new String[list.size()]);
+            theLookup.put(qName, attributes);
+        }
+        return attributes;
+    }
+
+    // Resolve a raw attribute value against the current base, caching per document
+    private String resolve(final String raw) {
+        String resolved = theResolved.get(raw);
+        if (resolved == null) {
+            String value = raw.trim();
+            resolved = value;
+            if (theBase != null) {
+                try {
+                    resolved = theBase.resolve(new URI(value)).toString();
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    resolved = value;
+                }
+            }
+            theResolved.put(raw, resolved);
+        }
+        return resolved;
+    }
+
+    private void setBase(final URI base) {
+        if (base != theBase) {
+            theBase = base;
+            theResolved.clear();
+        }
+    }
+
+    private static URI toURI(final String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            URI uri = new URI(s.trim());
+            if (!uri.isAbsolute() || uri.isOpaque()) {
+                return null;
+            }
+            // "http://host" must resolve "a" to "http://host/a"
+            return uri.getRawPath().length() == 0 ? uri.resolve("/") : uri;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Cache of parse results keyed by document content
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.yahoo.tagchowder.templates.HTMLSchema;
+
+/**
+ * A cache of parse results in front of {@link Parser#parse(InputSource)}, for workloads that see the same documents again and again. The input is
+ * read completely and hashed with SHA-256, so that crafted input can't make two documents share a key. Together with the parser's feature
+ * settings, schema, limits and, for byte input, encoding and auto-detector, the hash is the key of a {@link TokenTape} holding the document's
+ * events. On a hit the tape is replayed into the parser's content handler and lexical handler; on a miss the document is parsed into a new tape,
+ * which is cached and then replayed the same way.
+ *
+ * <p>
+ * The cache holds tapes up to a budget of bytes (as estimated by {@link TokenTape#getMemorySize()}) and evicts the least recently used ones
+ * beyond it. It may be shared by any number of threads and parsers; documents are parsed outside its lock. Documents whose doctype names a
+ * system id are cached for their own system id only, since the parser resolves the doctype's system id against it.
+ *
+ * <p>
+ * Replayed events carry no document locator, and if parsing fails the handlers receive no events at all.
+ */
+public class ParseCache {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final long theMaxBytes;
+    private final LinkedHashMap<Key, Entry> theEntries = new LinkedHashMap<>(16, 0.75f, true); // in access order
+    private long theBytes;
+    private final LongAdder theHits = new LongAdder();
+    private final LongAdder theMisses = new LongAdder();
+    private final LongAdder theEvictions = new LongAdder();
+
+    /**
+     * Construct a cache.
+     *
+     * @param maxBytes budget for the cached tapes, in bytes
+     */
+    public ParseCache(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + maxBytes);
+        }
+        theMaxBytes = maxBytes;
+    }
+
+    /**
+     * Parse a document with the given parser, or replay the cached result of an earlier parse of the same content into the parser's handlers.
+     *
+     * @param parser the parser, with its handlers and features set
+     * @param input the input source
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    public void parse(final Parser parser, final InputSource input) throws IOException, SAXException {
+        InputSource source = new InputSource();
+        source.setPublicId(input.getPublicId());
+        source.setSystemId(input.getSystemId());
+        Hash hash = new Hash();
+        StringBuilder config = new StringBuilder(parser.getFeatureKey());
+        Object schema = parser.getProperty(Parser.SCHEMA_PROPERTY);
+        config.append(' ').append(schema == null ? HTMLSchema.class.getName() : schema.getClass().getName());
+        config.append(' ').append(parser.getProperty(Parser.LIMITS_PROPERTY));
+        InputStream in = input.getByteStream();
+        if (in != null && input.getCharacterStream() == null) {
+            byte[] bytes = readBytes(in);
+            hash.update(bytes, bytes.length);
+            source.setByteStream(new ByteArrayInputStream(bytes));
+            source.setEncoding(input.getEncoding());
+            Object detector = parser.getProperty(Parser.AUTO_DETECTOR_PROPERTY);
+            boolean defaultDetector = detector == null || detector == Parser.DEFAULT_AUTO_DETECTOR;
+            config.append(" bytes ").append(input.getEncoding()).append(' ').append(defaultDetector ? "default" : detector.getClass().getName());
+        } else {
+            char[] chars;
+            try (Reader r = parser.openReader(input)) {
+                chars = readChars(r);
+            }
+            hash.update(chars);
+            source.setCharacterStream(new CharArrayReader(chars));
+            config.append(" chars");
+        }
+        Key key = new Key(hash, config.toString());
+        Entry entry = get(key, input.getSystemId());
+        if (entry == null) {
+            theMisses.increment();
+            entry = record(parser, source);
+            put(key, entry);
+        } else {
+            theHits.increment();
+        }
+        ContentHandler handler = parser.getContentHandler();
+        entry.theTape.replay(handler == null ? new DefaultHandler() : handler, (LexicalHandler) parser.getProperty(Parser.LEXICAL_HANDLER_PROPERTY));
+    }
+
+    /**
+     * Return the number of documents found in the cache.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return theHits.sum();
+    }
+
+    /**
+     * Return the number of documents that had to be parsed.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return theMisses.sum();
+    }
+
+    /**
+     * Return the number of tapes evicted to stay within the budget.
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return theEvictions.sum();
+    }
+
+    /**
+     * Return the number of cached documents.
+     *
+     * @return entry count
+     */
+    public synchronized int getEntryCount() {
+        return theEntries.size();
+    }
+
+    /**
+     * Return the estimated size of the cached tapes, in bytes.
+     *
+     * @return size in bytes
+     */
+    public synchronized long getByteCount() {
+        return theBytes;
+    }
+
+    /**
+     * Remove all cached documents.
+     */
+    public synchronized void clear() {
+        theEntries.clear();
+        theBytes = 0;
+    }
+
+    private synchronized Entry get(final Key key, final String systemId) {
+        Entry entry = theEntries.get(key);
+        if (entry != null && entry.theSystemId != null && !entry.theSystemId.equals(systemId)) {
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(final Key key, final Entry entry) {
+        if (entry.theSize > theMaxBytes) {
+            return;
+        }
+        Entry old = theEntries.put(key, entry);
+        if (old != null) {
+            theBytes -= old.theSize;
+        }
+        theBytes += entry.theSize;
+        Iterator<Map.Entry<Key, Entry>> it = theEntries.entrySet().iterator();
+        while (theBytes > theMaxBytes) {
+            theBytes -= it.next().getValue().theSize;
+            it.remove();
+            theEvictions.increment();
+        }
+    }
+
+    // Parse a document into a new tape, with the parser's handlers set aside
+    private static Entry record(final Parser parser, final InputSource source) throws IOException, SAXException {
+        ContentHandler handler = parser.getContentHandler();
+        Object lexicalHandler = parser.getProperty(Parser.LEXICAL_HANDLER_PROPERTY);
+        DoctypeTape tape = new DoctypeTape();
+        parser.setContentHandler(tape);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, tape);
+        try {
+            parser.parse(source);
+        } finally {
+            parser.setContentHandler(handler);
+            parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, lexicalHandler);
+        }
+        return new Entry(tape, tape.theHasSystemId ? source.getSystemId() : null);
+    }
+
+    private static byte[] readBytes(final InputStream in) throws IOException {
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while ((n = in.read(bytes, length, bytes.length - length)) != -1) {
+            length += n;
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static char[] readChars(final Reader r) throws IOException {
+        char[] chars = new char[READ_BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while ((n = r.read(chars, length, chars.length - length)) != -1) {
+            length += n;
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            }
+        }
+        return Arrays.copyOf(chars, length);
+    }
+
+    /**
+     * A cached tape.
+     */
+    private static final class Entry {
+
+        private final TokenTape theTape;
+        private final String theSystemId; // the only system id the tape is valid for, or null for any
+        private final long theSize;
+
+        Entry(final TokenTape tape, final String systemId) {
+            theTape = tape;
+            theSystemId = systemId;
+            theSize = tape.getMemorySize();
+        }
+    }
+
+    /**
+     * A tape that notes whether the doctype has a system id. Its names are kept in the tape, so that it can be replayed whatever happens to the
+     * parser's schema.
+     */
+    private static final class DoctypeTape extends TokenTape {
+
+        private boolean theHasSystemId;
+
+        @Override
+        public void startDTD(final String name, final String publicid, final String systemid) throws SAXException {
+            if (systemid != null && systemid.length() > 0) {
+                theHasSystemId = true;
+            }
+            super.startDTD(name, publicid, systemid);
+        }
+    }
+
+    /**
+     * Content digest and configuration of a document.
+     */
+    private static final class Key {
+
+        private final byte[] theDigest;
+        private final String theConfig;
+
+        Key(final Hash hash, final String config) {
+            theDigest = hash.digest();
+            theConfig = config;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(theDigest) * 31 + theConfig.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return Arrays.equals(theDigest, k.theDigest) && Objects.equals(theConfig, k.theConfig);
+        }
+    }
+
+    /**
+     * A SHA-256 digest of bytes or characters. A weaker hash would let anyone who controls the input build two documents with the same key,
+     * and then have one served the events of the other.
+     */
+    private static final class Hash {
+
+        private final MessageDigest theDigest;
+        private final ByteBuffer theBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Hash() {
+            try {
+                theDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+            }
+        }
+
+        void update(final byte[] bytes, final int length) {
+            theDigest.update(bytes, 0, length);
+        }
+
+        void update(final char[] chars) {
+            int i = 0;
+            while (i < chars.length) {
+                int n = Math.min(chars.length - i, theBuffer.capacity() / 2);
+                theBuffer.asCharBuffer().put(chars, i, n);
+                theDigest.update(theBuffer.array(), 0, n * 2);
+                i += n;
+            }
+        }
+
+        byte[] digest() {
+            return theDigest.digest();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+// Thrown when a parse is stopped by its cancellation token
+
+package com.yahoo.tagchowder;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Thrown by a parse stopped through its {@link CancellationToken}, because the token was cancelled or its deadline passed. The line and column
+ * are where the scanner was, and {@link #getCharacterCount()} tells how far into the document it got.
+ */
+public class ParseCancelledException extends SAXParseException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long theCharacterCount;
+    private final boolean theDeadlinePassed;
+
+    /**
+     * Construct an exception.
+     *
+     * @param message message
+     * @param locator position of the parse, or null
+     * @param characterCount number of characters scanned
+     * @param deadlinePassed true if the deadline passed, false if the token was cancelled
+     */
+    public ParseCancelledException(final String message, final Locator locator, final long characterCount, final boolean deadlinePassed) {
+        super(message, locator);
+        theCharacterCount = characterCount;
+        theDeadlinePassed = deadlinePassed;
+    }
+
+    /**
+     * Return the number of characters scanned before the parse stopped.
+     *
+     * @return character count
+     */
+    public long getCharacterCount() {
+        return theCharacterCount;
+    }
+
+    /**
+     * Return true if the parse stopped because the deadline passed, false if the token was cancelled.
+     *
+     * @return true for a deadline
+     */
+    public boolean isDeadlinePassed() {
+        return theDeadlinePassed;
+    }
+}
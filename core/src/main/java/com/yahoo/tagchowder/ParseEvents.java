@@ -0,0 +1,141 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// JDK Flight Recorder events of a parse
+
+package com.yahoo.tagchowder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Flight Recorder events of one document parsed by {@link Parser#parse(org.xml.sax.InputSource)}. {@code com.yahoo.tagchowder.SlowParse} is
+ * enabled by default and recorded for documents that take longer than its threshold, {@link Parser#LONG_PARSE_TIME} unless the recording sets
+ * another. {@code com.yahoo.tagchowder.Parse} is recorded for every document, but only by recordings that enable it. Both are duration events, from
+ * the start to the end of the document, with the system id and the counts of {@link ParseStatistics}.
+ *
+ * <p>
+ * This class refers to jdk.jfr, so the parser only loads it when that module is present, and only keeps an instance while a recording has one of
+ * the events enabled. Otherwise a parse costs the allocation of two events that are never begun.
+ */
+final class ParseEvents {
+
+    /**
+     * Fields shared by the events.
+     */
+    @Category("TagChowder")
+    @StackTrace(false)
+    abstract static class DocumentEvent extends Event {
+
+        @Label("System Id")
+        protected String systemId;
+
+        @Label("Bytes")
+        @Description("Bytes read from the byte stream of the document, 0 if it was read as characters")
+        @DataAmount
+        protected long bytes;
+
+        @Label("Characters")
+        protected long characters;
+
+        @Label("Elements")
+        @Description("Elements started, including implied ones")
+        protected long elements;
+
+        @Label("Maximum Depth")
+        protected long maxDepth;
+
+        // Copy the counts of the document
+        void set(final String id, final ParseStatistics statistics) {
+            systemId = id;
+            bytes = statistics.get(ParseStatistics.Counter.BYTES);
+            characters = statistics.get(ParseStatistics.Counter.CHARACTERS);
+            elements = statistics.get(ParseStatistics.Counter.ELEMENTS_PUSHED);
+            maxDepth = statistics.get(ParseStatistics.Counter.MAX_DEPTH);
+        }
+    }
+
+    /**
+     * A parsed document.
+     */
+    @Name("com.yahoo.tagchowder.Parse")
+    @Label("HTML Parse")
+    @Description("A document parsed by TagChowder")
+    @Enabled(false)
+    static final class ParseEvent extends DocumentEvent {
+    }
+
+    /**
+     * A document that took long to parse.
+     */
+    @Name("com.yahoo.tagchowder.SlowParse")
+    @Label("Slow HTML Parse")
+    @Description("A document that took longer than the threshold to parse")
+    @Threshold("5 s") // Parser.LONG_PARSE_TIME
+    static final class SlowParseEvent extends DocumentEvent {
+    }
+
+    private final ParseEvent theParse;
+    private final SlowParseEvent theSlowParse;
+
+    private ParseEvents(final ParseEvent parse, final SlowParseEvent slowParse) {
+        theParse = parse;
+        theSlowParse = slowParse;
+    }
+
+    /**
+     * Begin the events of a document.
+     *
+     * @return the events, or null if no recording has them enabled
+     */
+    static ParseEvents begin() {
+        ParseEvent parse = new ParseEvent();
+        SlowParseEvent slowParse = new SlowParseEvent();
+        if (!parse.isEnabled() && !slowParse.isEnabled()) {
+            return null;
+        }
+        parse.begin();
+        slowParse.begin();
+        return new ParseEvents(parse, slowParse);
+    }
+
+    /**
+     * End the events of a document, and commit the ones that pass their thresholds.
+     *
+     * @param systemId system id of the document, or null
+     * @param statistics counts of the document
+     */
+    void end(final String systemId, final ParseStatistics statistics) {
+        commit(theParse, systemId, statistics);
+        commit(theSlowParse, systemId, statistics);
+    }
+
+    private static void commit(final DocumentEvent event, final String systemId, final ParseStatistics statistics) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(systemId, statistics);
+            event.commit();
+        }
+    }
+}
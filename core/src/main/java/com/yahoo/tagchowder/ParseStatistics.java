@@ -0,0 +1,260 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+// Counts of what the parser did with a document
+
+package com.yahoo.tagchowder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of what a {@link Parser} did with the last document it parsed. The counts show which documents are expensive and why. Set an instance
+ * with {@link Parser#STATISTICS_PROPERTY}; the parser resets it when a document starts and fills it as it goes, on the parsing thread, so an
+ * instance belongs to one parser. Without statistics the parser only pays a null check per event.
+ *
+ * <p>
+ * Statistics constructed with a {@link Registry} add their counts to it when each document ends, whether it was parsed or failed. A registry
+ * may be shared by all the parsers of a process; {@link Parser#copy()} gives each copy its own statistics for the same registry.
+ */
+public class ParseStatistics {
+
+    /**
+     * The quantities counted.
+     */
+    public enum Counter {
+        /** Characters scanned. */
+        CHARACTERS,
+        /** Bytes read from a byte stream, including those read ahead for encoding detection. */
+        BYTES,
+        /** Elements started. */
+        ELEMENTS_PUSHED,
+        /** Elements ended. */
+        ELEMENTS_POPPED,
+        /** Elements started that were not in the document, to give an element a parent it can be in. */
+        IMPLIED_ELEMENTS,
+        /** Elements closed early and started again, such as a b element across a paragraph end. */
+        RESTARTED_ELEMENTS,
+        /** Unknown element names added to the schema. */
+        BOGONS,
+        /** Entity and character references replaced, in text and attribute values. */
+        ENTITIES_RESOLVED,
+        /** Entity references left as text because they name no entity. */
+        ENTITIES_UNRESOLVED,
+        /** Largest number of open elements. A registry keeps the maximum over all documents. */
+        MAX_DEPTH,
+        /** Nanoseconds from the start of the document to its end. */
+        NANOS
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+
+    // Indexes of the counters, for the parser
+    static final int CHARACTERS = Counter.CHARACTERS.ordinal();
+    static final int BYTES = Counter.BYTES.ordinal();
+    static final int ELEMENTS_PUSHED = Counter.ELEMENTS_PUSHED.ordinal();
+    static final int ELEMENTS_POPPED = Counter.ELEMENTS_POPPED.ordinal();
+    static final int IMPLIED_ELEMENTS = Counter.IMPLIED_ELEMENTS.ordinal();
+    static final int RESTARTED_ELEMENTS = Counter.RESTARTED_ELEMENTS.ordinal();
+    static final int BOGONS = Counter.BOGONS.ordinal();
+    static final int ENTITIES_RESOLVED = Counter.ENTITIES_RESOLVED.ordinal();
+    static final int ENTITIES_UNRESOLVED = Counter.ENTITIES_UNRESOLVED.ordinal();
+    static final int MAX_DEPTH = Counter.MAX_DEPTH.ordinal();
+    static final int NANOS = Counter.NANOS.ordinal();
+
+    private final long[] theCounts = new long[COUNTERS.length];
+    private final Registry theRegistry;
+    private long theStart;
+
+    /**
+     * Construct statistics that are not aggregated.
+     */
+    public ParseStatistics() {
+        this(null);
+    }
+
+    /**
+     * Construct statistics that add their counts to a registry at the end of each document.
+     *
+     * @param registry registry, or null
+     */
+    public ParseStatistics(final Registry registry) {
+        theRegistry = registry;
+    }
+
+    /**
+     * Return a count of the last document.
+     *
+     * @param counter counter
+     * @return count
+     */
+    public long get(final Counter counter) {
+        return theCounts[counter.ordinal()];
+    }
+
+    /**
+     * Return the registry the counts are added to.
+     *
+     * @return registry, or null
+     */
+    public Registry getRegistry() {
+        return theRegistry;
+    }
+
+    // Add one to a count
+    void increment(final int counter) {
+        theCounts[counter]++;
+    }
+
+    // Raise a count to a value
+    void max(final int counter, final long value) {
+        if (value > theCounts[counter]) {
+            theCounts[counter] = value;
+        }
+    }
+
+    // Set a count
+    void set(final int counter, final long value) {
+        theCounts[counter] = value;
+    }
+
+    // Reset the counts at the start of a document
+    void start() {
+        Arrays.fill(theCounts, 0);
+        theStart = System.nanoTime();
+    }
+
+    // Record the time at the end of a document and publish the counts
+    void finish() {
+        theCounts[NANOS] = System.nanoTime() - theStart;
+        if (theRegistry != null) {
+            theRegistry.add(this);
+        }
+    }
+
+    // Count the bytes read from a stream
+    InputStream count(final InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    theCounts[BYTES]++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    theCounts[BYTES] += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Counter counter : COUNTERS) {
+            sb.append(sb.length() == 0 ? "" : " ").append(counter.name().toLowerCase()).append('=').append(get(counter));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Totals of the statistics of any number of documents, parsed on any number of threads. Each count is a {@link LongAdder}, so parsers on
+     * different threads do not contend when they add their documents.
+     */
+    public static final class Registry {
+
+        private final LongAdder[] theTotals = new LongAdder[COUNTERS.length];
+        private final LongAccumulator theMaxDepth = new LongAccumulator(Math::max, 0);
+        private final LongAdder theDocuments = new LongAdder();
+
+        /**
+         * Construct an empty registry.
+         */
+        public Registry() {
+            for (int i = 0; i < theTotals.length; i++) {
+                theTotals[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Add the counts of a document.
+         *
+         * @param statistics statistics of the document
+         */
+        public void add(final ParseStatistics statistics) {
+            for (int i = 0; i < theTotals.length; i++) {
+                if (i == MAX_DEPTH) {
+                    theMaxDepth.accumulate(statistics.theCounts[i]);
+                } else if (statistics.theCounts[i] != 0) {
+                    theTotals[i].add(statistics.theCounts[i]);
+                }
+            }
+            theDocuments.increment();
+        }
+
+        /**
+         * Return the total of a count over all documents, or the maximum for {@link Counter#MAX_DEPTH}.
+         *
+         * @param counter counter
+         * @return total
+         */
+        public long get(final Counter counter) {
+            return counter == Counter.MAX_DEPTH ? theMaxDepth.get() : theTotals[counter.ordinal()].sum();
+        }
+
+        /**
+         * Return the number of documents added.
+         *
+         * @return document count
+         */
+        public long getDocumentCount() {
+            return theDocuments.sum();
+        }
+
+        /**
+         * Clear the totals. Documents added at the same time may be partly counted.
+         */
+        public void reset() {
+            for (LongAdder total : theTotals) {
+                total.reset();
+            }
+            theMaxDepth.reset();
+            theDocuments.reset();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("documents=").append(getDocumentCount());
+            for (Counter counter : COUNTERS) {
+                sb.append(' ').append(counter.name().toLowerCase()).append('=').append(get(counter));
+            }
+            return sb.toString();
+        }
+    }
+}
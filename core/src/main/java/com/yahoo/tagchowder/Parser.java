@@ -23,6 +23,7 @@
 
 package com.yahoo.tagchowder;
 
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -32,10 +33,9 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
@@ -46,6 +46,7 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.DefaultHandler;
@@ -66,39 +67,55 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
     private ErrorHandler theErrorHandler = this;
     private EntityResolver theEntityResolver = this;
     private Schema theSchema;
+    private boolean theSchemaIsDefault; // theSchema was created by setup(), not set by the caller
+    private Schema theSharedSchema; // default schema handed to copies that ignore bogons
+    private boolean theSharedSchemaInterns;
+    private boolean theSchemaIsShared; // theSchema came from getSharedSchema() of the parser this one was copied from
     private Scanner theScanner;
+    private Supplier<Scanner> theScannerFactory;
     private AutoDetector theAutoDetector;
-    private boolean useIntern = true;
-    /** Logger. */
-    private Logger logger = LoggerFactory.getLogger(Parser.class);
-
-
-    private int defaultBufferSize = 2000;
-    // Default values for feature flags
-
-    private static final boolean DEFAULT_NAMESPACES = true;
-    private static final boolean DEFAULT_IGNORE_BOGONS = false;
-    private static final boolean DEFAULT_BOGONS_EMPTY = false;
-    private static final boolean DEFAULT_ROOT_BOGONS = true;
-    private static final boolean DEFAULT_DEFAULT_ATTRIBUTES = true;
-    private static final boolean DEFAULT_TRANSLATE_COLONS = false;
-    private static final boolean DEFAULT_RESTART_ELEMENTS = true;
-    private static final boolean DEFAULT_IGNORABLE_WHITESPACE = false;
-    private static final boolean DEFAULT_CDATA_ELEMENTS = true;
-    private static final boolean DEFAULT_AMP_VALIDATION = false;
-
-    // Feature flags.
-
-    private boolean namespaces = DEFAULT_NAMESPACES;
-    private boolean ignoreBogons = DEFAULT_IGNORE_BOGONS;
-    private boolean bogonsEmpty = DEFAULT_BOGONS_EMPTY;
-    private boolean rootBogons = DEFAULT_ROOT_BOGONS;
-    private boolean defaultAttributes = DEFAULT_DEFAULT_ATTRIBUTES;
-    private boolean translateColons = DEFAULT_TRANSLATE_COLONS;
-    private boolean restartElements = DEFAULT_RESTART_ELEMENTS;
-    private boolean ignorableWhitespace = DEFAULT_IGNORABLE_WHITESPACE;
-    private boolean cdataElements = DEFAULT_CDATA_ELEMENTS;
-    private boolean ampValidation = DEFAULT_AMP_VALIDATION;
+    private CancellationToken theCancellationToken;
+    private ParseStatistics theStatistics;
+    private boolean useIntern;
+    private static final boolean FLIGHT_RECORDER = isClassPresent("jdk.jfr.Event");
+    static final AutoDetector DEFAULT_AUTO_DETECTOR = new HTMLAutoDetector();
+    // Restarts of an element past which LIMIT_RESTARTS_FEATURE does not save it again while as many such elements of its type are saved
+    private static final int MAX_REPEATED_RESTARTS = 3;
+
+    private int defaultBufferSize;
+
+    // Feature flags, kept as bits (see ParserConfig) and as fields for the ones the parser acts on.
+
+    private int theFeatures;
+    private boolean namespaces;
+    private boolean ignoreBogons;
+    private boolean bogonsEmpty;
+    private boolean rootBogons;
+    private boolean defaultAttributes;
+    private boolean translateColons;
+    private boolean restartElements;
+    private boolean limitRestarts;
+    private boolean ignorableWhitespace;
+    private boolean cdataElements;
+    private boolean ampValidation;
+
+    // Limits, with the maxima the parser checks on every event kept as fields
+
+    private ParserLimits theLimits;
+    private int theMaxDepth;
+    private int theMaxAttributes;
+    private int theMaxValueLength;
+    private int theMaxTokenLength;
+    private long theMaxCharacters;
+    private long theMaxEvents;
+    private int theDepth; // elements pushed and not yet popped
+    private int theAttributeCount; // attributes set on the new element
+    private long theCharacters;
+    private long theEvents;
+    private boolean theCharactersExceeded; // the reader stopped at the character limit with more input left
+    private boolean theDropped; // push() left out an element past the depth limit
+    private boolean theTruncated; // a pushed document was ended at a limit
+    private boolean theEnding; // the document is being ended at a limit, so no more elements are started
 
     /**
      * A value of "true" indicates namespace URIs and unprefixed local names for element and attribute names will be available.
@@ -221,6 +238,13 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
      **/
     public static final String RESTART_ELEMENTS_FEATURE = "restart-elements";
 
+    /**
+     * A value of "true" indicates that the parser will not restart an element that has already been restarted three times while three other such
+     * elements of its type are waiting to be restarted, after the "Noah's Ark" clause of HTML5. Unclosed formatting elements repeated before every
+     * block then no longer pile up, at the cost of a different tree for some misnested documents. Normally false.
+     **/
+    public static final String LIMIT_RESTARTS_FEATURE = "limit-restarts";
+
     /**
      * A value of "true" indicates that the parser will transmit whitespace in element-only content via the SAX ignorableWhitespace callback. Normally
      * this is not done, because HTML is an SGML application and SGML suppresses such whitespace.
@@ -249,52 +273,81 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
     public static final String SCHEMA_PROPERTY = "schema";
 
     /**
-     * Specifies the AutoDetector (for encoding detection) this Parser uses.
+     * Specifies the AutoDetector (for encoding detection) this Parser uses. The default is an {@link HTMLAutoDetector}.
      **/
     public static final String AUTO_DETECTOR_PROPERTY = "auto-detector";
 
     /**
-     * Specifies long parsing time limit.
+     * Specifies the {@link ParserLimits} this Parser enforces. The default is {@link ParserLimits#NONE}.
+     **/
+    public static final String LIMITS_PROPERTY = "limits";
+
+    /**
+     * Specifies the {@link CancellationToken} that can stop the parses of this Parser, or null for none. It is not copied by {@link #copy()}.
+     **/
+    public static final String CANCELLATION_TOKEN_PROPERTY = "cancellation-token";
+
+    /**
+     * Specifies the {@link ParseStatistics} this Parser fills, or null for none. {@link #copy()} gives the copy its own statistics for the same
+     * registry.
+     **/
+    public static final String STATISTICS_PROPERTY = "statistics";
+
+    /**
+     * Specifies long parsing time limit, the default threshold of the {@code com.yahoo.tagchowder.SlowParse} Flight Recorder event. Use a
+     * {@link CancellationToken} to stop long parses.
      **/
     public static final long LONG_PARSE_TIME = 5 * 1000L; // 5 seconds
 
-    // Due to sucky Java order of initialization issues, these
-    // entries are maintained separately from the initial values of
-    // the corresponding instance variables, but care must be taken
-    // to keep them in sync.
-
-    private HashMap theFeatures = new HashMap();
-    {
-        theFeatures.put(NAMESPACES_FEATURE, truthValue(DEFAULT_NAMESPACES));
-        theFeatures.put(NAMESPACE_PREFIXES_FEATURE, Boolean.FALSE);
-        theFeatures.put(EXTERNAL_GENERAL_ENTITIES_FEATURE, Boolean.FALSE);
-        theFeatures.put(EXTERNAL_PARAMETER_ENTITIES_FEATURE, Boolean.FALSE);
-        theFeatures.put(IS_STANDALONE_FEATURE, Boolean.FALSE);
-        theFeatures.put(LEXICAL_HANDLER_PARAMETER_ENTITIES_FEATURE, Boolean.FALSE);
-        theFeatures.put(RESOLVE_DTDURIS_FEATURE, Boolean.TRUE);
-        theFeatures.put(STRING_INTERNING_FEATURE, Boolean.TRUE);
-        theFeatures.put(USE_ATTRIBUTES2_FEATURE, Boolean.FALSE);
-        theFeatures.put(USE_LOCATOR2_FEATURE, Boolean.FALSE);
-        theFeatures.put(USE_ENTITYRESOLVER2_FEATURE, Boolean.FALSE);
-        theFeatures.put(VALIDATION_FEATURE, Boolean.FALSE);
-        theFeatures.put(XMLNS_URIS_FEATURE, Boolean.FALSE);
-        theFeatures.put(XMLNS_URIS_FEATURE, Boolean.FALSE);
-        theFeatures.put(XML11_FEATURE, Boolean.FALSE);
-        theFeatures.put(IGNORE_BOGONS_FEATURE, truthValue(DEFAULT_IGNORE_BOGONS));
-        theFeatures.put(BOGONS_EMPTY_FEATURE, truthValue(DEFAULT_BOGONS_EMPTY));
-        theFeatures.put(ROOT_BOGONS_FEATURE, truthValue(DEFAULT_ROOT_BOGONS));
-        theFeatures.put(DEFAULT_ATTRIBUTES_FEATURE, truthValue(DEFAULT_DEFAULT_ATTRIBUTES));
-        theFeatures.put(TRANSLATE_COLONS_FEATURE, truthValue(DEFAULT_TRANSLATE_COLONS));
-        theFeatures.put(RESTART_ELEMENTS_FEATURE, truthValue(DEFAULT_RESTART_ELEMENTS));
-        theFeatures.put(IGNORABLE_WHITESPACE_FEATURE, truthValue(DEFAULT_IGNORABLE_WHITESPACE));
-        theFeatures.put(CDATA_ELEMENTS_FEATURE, truthValue(DEFAULT_CDATA_ELEMENTS));
-        theFeatures.put(AMP_VALIDATION_FEATURE, truthValue(DEFAULT_AMP_VALIDATION));
-    }
-
-    // Private clone of Boolean.valueOf that is guaranteed to return
-    // Boolean.TRUE or Boolean.FALSE
-    private static Boolean truthValue(final boolean b) {
-        return b ? Boolean.TRUE : Boolean.FALSE;
+    /**
+     * Construct a parser with the default configuration.
+     */
+    public Parser() {
+        this(ParserConfig.DEFAULT);
+    }
+
+    /**
+     * Construct a parser with a configuration. Settings changed later on the parser do not affect the configuration.
+     *
+     * @param config configuration
+     */
+    public Parser(final ParserConfig config) {
+        setFeatures(config.getFeatures());
+        theSchema = config.getSchema();
+        theSchemaIsShared = config.isSchemaShared();
+        theSchemaIsDefault = theSchemaIsShared;
+        theScannerFactory = config.getScannerFactory();
+        theAutoDetector = config.getAutoDetector();
+        defaultBufferSize = config.getDefaultBufferSize();
+        setLimits(config.getLimits());
+    }
+
+    // Set the feature bits and the flags derived from them
+    private void setFeatures(final int features) {
+        theFeatures = features;
+        namespaces = (features & ParserConfig.NAMESPACES) != 0;
+        ignoreBogons = (features & ParserConfig.IGNORE_BOGONS) != 0;
+        bogonsEmpty = (features & ParserConfig.BOGONS_EMPTY) != 0;
+        rootBogons = (features & ParserConfig.ROOT_BOGONS) != 0;
+        defaultAttributes = (features & ParserConfig.DEFAULT_ATTRIBUTES) != 0;
+        translateColons = (features & ParserConfig.TRANSLATE_COLONS) != 0;
+        restartElements = (features & ParserConfig.RESTART_ELEMENTS) != 0;
+        limitRestarts = (features & ParserConfig.LIMIT_RESTARTS) != 0;
+        ignorableWhitespace = (features & ParserConfig.IGNORABLE_WHITESPACE) != 0;
+        cdataElements = (features & ParserConfig.CDATA_ELEMENTS) != 0;
+        useIntern = (features & ParserConfig.STRING_INTERNING) != 0;
+        ampValidation = (features & ParserConfig.AMP_VALIDATION) != 0;
+    }
+
+    // Set the limits and the maxima derived from them
+    private void setLimits(final ParserLimits limits) {
+        theLimits = limits;
+        theMaxDepth = limits.getIntMax(ParserLimits.Limit.DEPTH);
+        theMaxAttributes = limits.getIntMax(ParserLimits.Limit.ATTRIBUTES);
+        theMaxValueLength = limits.getIntMax(ParserLimits.Limit.ATTRIBUTE_VALUE_LENGTH);
+        theMaxTokenLength = limits.getIntMax(ParserLimits.Limit.TOKEN_LENGTH);
+        theMaxCharacters = limits.getMax(ParserLimits.Limit.CHARACTERS);
+        theMaxEvents = limits.getMax(ParserLimits.Limit.EVENTS);
     }
 
     /**
@@ -316,48 +369,13 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
 
     @Override
     public boolean getFeature(final String name) throws SAXNotRecognizedException, SAXNotSupportedException {
-        Boolean b = (Boolean) theFeatures.get(name);
-        if (b == null) {
-            throw new SAXNotRecognizedException("Unknown feature " + name);
-        }
-        return b.booleanValue();
+        return (theFeatures & ParserConfig.featureBit(name)) != 0;
     }
 
     @Override
     public void setFeature(final String name, final boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
-        Boolean b = (Boolean) theFeatures.get(name);
-        if (b == null) {
-            throw new SAXNotRecognizedException("Unknown feature " + name);
-        }
-        if (value) {
-            theFeatures.put(name, Boolean.TRUE);
-        } else {
-            theFeatures.put(name, Boolean.FALSE);
-        }
-
-        if (name.equals(NAMESPACES_FEATURE)) {
-            namespaces = value;
-        } else if (name.equals(IGNORE_BOGONS_FEATURE)) {
-            ignoreBogons = value;
-        } else if (name.equals(BOGONS_EMPTY_FEATURE)) {
-            bogonsEmpty = value;
-        } else if (name.equals(ROOT_BOGONS_FEATURE)) {
-            rootBogons = value;
-        } else if (name.equals(DEFAULT_ATTRIBUTES_FEATURE)) {
-            defaultAttributes = value;
-        } else if (name.equals(TRANSLATE_COLONS_FEATURE)) {
-            translateColons = value;
-        } else if (name.equals(RESTART_ELEMENTS_FEATURE)) {
-            restartElements = value;
-        } else if (name.equals(IGNORABLE_WHITESPACE_FEATURE)) {
-            ignorableWhitespace = value;
-        } else if (name.equals(CDATA_ELEMENTS_FEATURE)) {
-            cdataElements = value;
-        } else if (name.equals(STRING_INTERNING_FEATURE)) {
-            useIntern = value;
-        } else if (name.equals(AMP_VALIDATION_FEATURE)) {
-            ampValidation = value;
-        }
+        int bit = ParserConfig.featureBit(name);
+        setFeatures(value ? theFeatures | bit : theFeatures & ~bit);
     }
 
     @Override
@@ -370,6 +388,12 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
             return theSchema;
         } else if (name.equals(AUTO_DETECTOR_PROPERTY)) {
             return theAutoDetector;
+        } else if (name.equals(LIMITS_PROPERTY)) {
+            return theLimits;
+        } else if (name.equals(CANCELLATION_TOKEN_PROPERTY)) {
+            return theCancellationToken;
+        } else if (name.equals(STATISTICS_PROPERTY)) {
+            return theStatistics;
         } else {
             throw new SAXNotRecognizedException("Unknown property " + name);
         }
@@ -394,6 +418,8 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         } else if (name.equals(SCHEMA_PROPERTY)) {
             if (value instanceof Schema) {
                 theSchema = (Schema) value;
+                theSchemaIsDefault = false;
+                theSchemaIsShared = false;
             } else {
                 throw new SAXNotSupportedException("Your schema is not a Schema");
             }
@@ -403,6 +429,26 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
             } else {
                 throw new SAXNotSupportedException("Your auto-detector is not an AutoDetector");
             }
+        } else if (name.equals(LIMITS_PROPERTY)) {
+            if (value == null) {
+                setLimits(ParserLimits.NONE);
+            } else if (value instanceof ParserLimits) {
+                setLimits((ParserLimits) value);
+            } else {
+                throw new SAXNotSupportedException("Your limits are not ParserLimits");
+            }
+        } else if (name.equals(CANCELLATION_TOKEN_PROPERTY)) {
+            if (value == null || value instanceof CancellationToken) {
+                theCancellationToken = (CancellationToken) value;
+            } else {
+                throw new SAXNotSupportedException("Your cancellation token is not a CancellationToken");
+            }
+        } else if (name.equals(STATISTICS_PROPERTY)) {
+            if (value == null || value instanceof ParseStatistics) {
+                theStatistics = (ParseStatistics) value;
+            } else {
+                throw new SAXNotSupportedException("Your statistics are not ParseStatistics");
+            }
         } else {
             throw new SAXNotRecognizedException("Unknown property " + name);
         }
@@ -448,49 +494,171 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         return (theErrorHandler == this) ? null : theErrorHandler;
     }
 
+    /**
+     * Parse a document. When Flight Recorder is recording, a document that takes longer than {@link #LONG_PARSE_TIME} is reported by the {@code
+     * com.yahoo.tagchowder.SlowParse} event, and every document by the {@code com.yahoo.tagchowder.Parse} event if the recording enables it. Both
+     * carry the system id and the counts of {@link ParseStatistics}; the counts are collected for the events even if no statistics are set.
+     *
+     * @param input the document
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
     @Override
     public void parse(final InputSource input) throws IOException, SAXException {
+        final ParseEvents events = FLIGHT_RECORDER ? ParseEvents.begin() : null;
+        final ParseStatistics statistics = theStatistics;
+        if (events != null && statistics == null) {
+            theStatistics = new ParseStatistics();
+        }
+        try {
+            setup();
+            Reader r = getReader(input);
+            if (theMaxCharacters != ParserLimits.UNLIMITED || theStatistics != null) {
+                r = new LimitedReader(r);
+            }
+            beginDocument(input.getPublicId(), input.getSystemId());
+            try {
+                theScanner.scan(r, this);
+            } catch (Truncation e) {
+                theEnding = true;
+                eof(null, 0, 0);
+            }
+        } finally {
+            finishStatistics();
+            if (events != null) {
+                events.end(input.getSystemId(), theStatistics);
+            }
+            theStatistics = statistics;
+        }
+    }
+
+    /**
+     * Start parsing a document whose characters are then supplied in chunks by {@link #push(char[], int, int)}, instead of being read from an
+     * InputSource. Requires the default {@link HTMLScanner}.
+     *
+     * @param publicid public id of the document, or null
+     * @param systemid system id of the document, or null
+     * @throws SAXException if the scanner can't be fed incrementally, or the content handler fails
+     */
+    void startPush(final String publicid, final String systemid) throws SAXException {
         setup();
-        Reader r = getReader(input);
+        beginPush(publicid, systemid);
+    }
+
+    /**
+     * Start pushing a document whose input was opened by {@link #openReader(InputSource)}. Unlike {@link #startPush(String, String)}, the parser
+     * is not set up again, so the statistics keep the bytes read and the time taken by the reader.
+     *
+     * @param publicid public id of the document, or null
+     * @param systemid system id of the document, or null
+     * @throws SAXException if the scanner can't be fed incrementally, or the content handler fails
+     */
+    void beginPush(final String publicid, final String systemid) throws SAXException {
+        if (!(theScanner instanceof HTMLScanner)) {
+            throw new SAXNotSupportedException("Scanner " + theScanner.getClass().getName() + " can't be fed incrementally");
+        }
+        beginDocument(publicid, systemid);
+        ((HTMLScanner) theScanner).startScan();
+    }
+
+    /**
+     * Parse the next chunk of characters of a document started with {@link #startPush(String, String)}.
+     *
+     * @param buff characters
+     * @param offset start of the characters
+     * @param length number of characters
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    void push(final char[] buff, final int offset, final int length) throws IOException, SAXException {
+        if (theTruncated) {
+            return;
+        }
+        int len = length;
+        if (len > theMaxCharacters - theCharacters) {
+            exceeded(ParserLimits.Limit.CHARACTERS);
+            len = (int) (theMaxCharacters - theCharacters);
+            theTruncated = true;
+        }
+        theCharacters += len;
+        try {
+            ((HTMLScanner) theScanner).scan(buff, offset, len, this);
+            if (theTruncated) {
+                ((HTMLScanner) theScanner).endScan(this);
+            }
+        } catch (Truncation e) {
+            theTruncated = true;
+            theEnding = true;
+            eof(buff, offset, 0);
+        }
+    }
+
+    /**
+     * Finish a document started with {@link #startPush(String, String)}.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    void endPush() throws IOException, SAXException {
+        try {
+            if (!theTruncated) {
+                ((HTMLScanner) theScanner).endScan(this);
+            }
+        } finally {
+            finishStatistics();
+        }
+    }
+
+    // Publish the statistics of a document that has ended
+    private void finishStatistics() {
+        if (theStatistics != null) {
+            theStatistics.set(ParseStatistics.CHARACTERS, theCharacters);
+            theStatistics.finish();
+        }
+    }
+
+    // Report the start of a document
+    private void beginDocument(final String publicid, final String systemid) throws SAXException {
         theContentHandler.startDocument();
-        theScanner.resetDocumentLocator(input.getPublicId(), input.getSystemId());
+        theScanner.resetDocumentLocator(publicid, systemid);
         if (theScanner instanceof Locator) {
             theContentHandler.setDocumentLocator((Locator) theScanner);
         }
         if (!(theSchema.getURI().equals(""))) {
             theContentHandler.startPrefixMapping(theSchema.getPrefix(), theSchema.getURI());
         }
-        theScanner.scan(r, this);
     }
 
     @Override
     public void parse(final String systemid) throws IOException, SAXException {
-        final long startTime = System.currentTimeMillis();
         parse(new InputSource(systemid));
-        final long parseTime = System.currentTimeMillis() - startTime;
-        // record the system id if parsing takes too long (5 seconds now)
-        if (parseTime > LONG_PARSE_TIME) {
-            logger.debug("Tagchowder parsing takes too long: time={}ms, system id={}", parseTime, systemid);
-        }
     }
 
     // Sets up instance variables that haven't been set by setFeature
     private void setup() {
-        if (theSchema == null) {
+        if (theSchema == null || theSchemaIsShared && !ignoreBogons) {
             theSchema = new HTMLSchema(useIntern);
+            theSchemaIsDefault = true;
+            theSchemaIsShared = false;
         }
         if (theScanner == null) {
-            theScanner = new HTMLScanner(defaultBufferSize);
+            theScanner = theScannerFactory == null ? new HTMLScanner(defaultBufferSize) : theScannerFactory.get();
+        }
+        if (theScanner instanceof HTMLScanner) {
+            ((HTMLScanner) theScanner).setCancellationToken(theCancellationToken);
         }
         if (theAutoDetector == null) {
-            theAutoDetector = new AutoDetector() {
-                @Override
-                public Reader autoDetectingReader(final InputStream i) {
-                    return new InputStreamReader(i);
-                }
-            };
+            theAutoDetector = DEFAULT_AUTO_DETECTOR;
         }
         theStack = new Element(theSchema.getElementType("<root>"), defaultAttributes);
+        if (theOpenCounts.length < theSchema.getElementTypeCount()) {
+            theOpenCounts = new int[theSchema.getElementTypeCount()];
+            theSavedCounts = new int[theSchema.getElementTypeCount()];
+        } else {
+            Arrays.fill(theOpenCounts, 0);
+            Arrays.fill(theSavedCounts, 0);
+        }
+        theOpenCounts[theStack.id()] = 1;
         thePCDATA = new Element(theSchema.getElementType("<pcdata>"), defaultAttributes);
         theNewElement = null;
         theAttributeName = null;
@@ -499,6 +667,96 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         theEntity = 0;
         virginStack = true;
         theDoctypeName = theDoctypePublicId = theDoctypeSystemId = null;
+        theDepth = 0;
+        theCharacters = 0;
+        theEvents = 0;
+        theCharactersExceeded = false;
+        theTruncated = false;
+        theEnding = false;
+        if (theStatistics != null) {
+            theStatistics.start();
+        }
+    }
+
+    /**
+     * Return a new parser with the features, buffer size, scanner factory and auto-detector of this one, without going through
+     * {@link #setFeature}. Handlers and the scanner are not copied. A schema set on this parser is shared with the copy. Otherwise, if unknown
+     * elements are ignored ({@link #IGNORE_BOGONS_FEATURE}) the schema is never changed by a parse, and all copies share one default schema; if
+     * not, each copy creates its own schema on its first parse, as a new parser does.
+     *
+     * <p>
+     * This parser must not be reconfigured while it is being copied, but it may be parsing.
+     *
+     * @return new parser
+     */
+    public Parser copy() {
+        Parser copy = new Parser();
+        copy.setFeatures(theFeatures);
+        copy.defaultBufferSize = defaultBufferSize;
+        copy.theScannerFactory = theScannerFactory;
+        copy.theAutoDetector = theAutoDetector;
+        copy.setLimits(theLimits);
+        if (theStatistics != null) {
+            copy.theStatistics = new ParseStatistics(theStatistics.getRegistry());
+        }
+        if (theSchema != null && !theSchemaIsDefault) {
+            copy.theSchema = theSchema;
+        } else if (ignoreBogons) {
+            copy.theSchema = theSchemaIsShared ? theSchema : getSharedSchema();
+            copy.theSchemaIsDefault = true;
+            copy.theSchemaIsShared = true;
+        }
+        return copy;
+    }
+
+    // Return the default schema shared by copies, matching the current interning setting
+    private synchronized Schema getSharedSchema() {
+        if (theSharedSchema == null || theSharedSchemaInterns != useIntern) {
+            theSharedSchema = new HTMLSchema(useIntern);
+            theSharedSchemaInterns = useIntern;
+        }
+        return theSharedSchema;
+    }
+
+    /**
+     * Open the characters of an InputSource the way {@link #parse(InputSource)} does.
+     *
+     * @param input the input source
+     * @return reader
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    Reader openReader(final InputSource input) throws IOException, SAXException {
+        setup();
+        return getReader(input);
+    }
+
+    /**
+     * Return the cancellation token of the parses.
+     *
+     * @return token, or null
+     */
+    CancellationToken getCancellationToken() {
+        return theCancellationToken;
+    }
+
+    // Whether a class of the platform is available, for optional modules such as jdk.jfr
+    private static boolean isClassPresent(final String name) {
+        try {
+            Class.forName(name, false, Parser.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the settings of all features as a key for results that depend on them.
+     *
+     * @return feature settings
+     */
+    String getFeatureKey() {
+        return Integer.toHexString(theFeatures);
     }
 
     // Return a Reader based on the contents of an InputSource
@@ -514,6 +772,9 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
                 i = getInputStream(publicid, systemid);
             // i = new BufferedInputStream(i);
             }
+            if (theStatistics != null) {
+                i = theStatistics.count(i);
+            }
             if (encoding == null) {
                 r = theAutoDetector.autoDetectingReader(i);
             } else {
@@ -548,6 +809,8 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
     private String thePITarget = null;
     private Element theStack = null;
     private Element theSaved = null;
+    private int[] theOpenCounts = new int[0]; // elements of each type id on the stack, so stray end-tags need no walk of the stack
+    private int[] theSavedCounts = new int[0]; // elements of each type id in theSaved that have been restarted MAX_REPEATED_RESTARTS times
     private Element thePCDATA = null;
     private int theEntity = 0; // needs to support chars past U+FFFF
 
@@ -556,7 +819,7 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if (theNewElement == null || theAttributeName == null) {
             return;
         }
-        theNewElement.setAttribute(theAttributeName, null, theAttributeName);
+        setAttribute(theAttributeName, theAttributeName);
         theAttributeName = null;
     }
 
@@ -567,7 +830,7 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         }
         // Currently we don't rely on Schema to canonicalize
         // attribute names.
-        theAttributeName = makeName(buff, offset, length).toLowerCase();
+        theAttributeName = makeName(buff, offset, tokenLength(length)).toLowerCase();
     }
 
     @Override
@@ -575,12 +838,33 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if (theNewElement == null || theAttributeName == null) {
             return;
         }
-        String value = new String(buff, offset, length);
+        int len = length;
+        if (len > theMaxValueLength) {
+            exceeded(ParserLimits.Limit.ATTRIBUTE_VALUE_LENGTH);
+            len = theMaxValueLength;
+        }
+        String value = new String(buff, offset, len);
         value = expandEntities(value);
-        theNewElement.setAttribute(theAttributeName, null, value);
+        setAttribute(theAttributeName, value);
         theAttributeName = null;
     }
 
+    // Set an attribute of the new element, unless it is one too many
+    private void setAttribute(final String name, final String value) throws SAXException {
+        if (theMaxAttributes != Integer.MAX_VALUE) {
+            // Declared attributes are present without a value until they are set
+            int i = theNewElement.atts().getIndex(name);
+            if (i < 0 || theNewElement.atts().getValue(i) == null) {
+                if (theAttributeCount >= theMaxAttributes) {
+                    exceeded(ParserLimits.Limit.ATTRIBUTES);
+                    return;
+                }
+                theAttributeCount++;
+            }
+        }
+        theNewElement.setAttribute(name, null, value);
+    }
+
     // Expand entity references in attribute values selectively.
     // Currently we expand a reference iff it is properly terminated
     // with a semicolon.
@@ -604,6 +888,9 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
                 // properly terminated ref
                 int ent = lookupEntity(dst, refStart, dstlen - refStart - 1);
                 // System.err.println(" = " + ent);
+                if (theStatistics != null) {
+                    theStatistics.increment(ent != 0 ? ParseStatistics.ENTITIES_RESOLVED : ParseStatistics.ENTITIES_UNRESOLVED);
+                }
                 if (ent > 0xFFFF) {
                     ent -= 0x10000;
                     dst[refStart - 1] = (char) ((ent >> 10) + 0xD800);
@@ -625,11 +912,14 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
     @Override
     public void entity(final char[] buff, final int offset, final int length) throws SAXException {
         theEntity = lookupEntity(buff, offset, length);
+        if (theStatistics != null) {
+            theStatistics.increment(theEntity != 0 ? ParseStatistics.ENTITIES_RESOLVED : ParseStatistics.ENTITIES_UNRESOLVED);
+        }
     }
 
     // Process numeric character references,
     // deferring to the schema for named ones.
-    private int lookupEntity(final char[] buff, final int offset, final int length) {
+    int lookupEntity(final char[] buff, final int offset, final int length) {
         int result = 0;
         if (length < 1) {
             return result;
@@ -653,6 +943,9 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
 
     @Override
     public void eof(final char[] buff, final int offset, final int length) throws SAXException {
+        if (theCharactersExceeded) {
+            exceeded(ParserLimits.Limit.CHARACTERS);
+        }
         if (virginStack) {
             rectify(thePCDATA);
         }
@@ -667,10 +960,11 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
 
     @Override
     public void etag(final char[] buff, final int offset, final int length) throws SAXException {
-        if (etagCdata(buff, offset, length)) {
+        int len = tokenLength(length);
+        if (etagCdata(buff, offset, len)) {
             return;
         }
-        etagBasic(buff, offset, length);
+        etagBasic(buff, offset, len);
     }
 
     private static char[] etagchars = { '<', '/', '>' };
@@ -720,23 +1014,24 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
      */
     public void etagBasic(final char[] buff, final int offset, final int length) throws SAXException {
         theNewElement = null;
-        String name;
+        int id;
         if (length != 0) {
-            // Canonicalize case of name
-            name = makeName(buff, offset, length);
-            ElementType type = theSchema.getElementType(name);
+            ElementType type = getElementType(buff, offset, length);
             if (type == null) {
                 return; // mysterious end-tag
             }
-            name = type.name();
+            id = type.id();
         } else {
-            name = theStack.name();
+            id = theStack.id();
+        }
+        if (id >= theOpenCounts.length || theOpenCounts[id] == 0) {
+            return; // Ignore etags of elements that are not open
         }
 
         Element sp;
         boolean inNoforce = false;
         for (sp = theStack; sp != null; sp = sp.next()) {
-            if (sp.name().equals(name)) {
+            if (sp.id() == id) {
                 break;
             }
             if ((sp.flags() & Schema.F_NOFORCE) != 0) {
@@ -770,6 +1065,13 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
     private void restart(final Element e) throws SAXException {
         while (theSaved != null && theStack.canContain(theSaved) && (e == null || theSaved.canContain(e))) {
             Element next = theSaved.next();
+            if (theStatistics != null) {
+                theStatistics.increment(ParseStatistics.RESTARTED_ELEMENTS);
+            }
+            if (theSaved.restarts() >= MAX_REPEATED_RESTARTS) {
+                theSavedCounts[theSaved.id()]--;
+            }
+            theSaved.restarted();
             push(theSaved);
             theSaved = next;
         }
@@ -800,7 +1102,12 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
                 theContentHandler.endPrefixMapping(attPrefix);
             }
         }
+        theOpenCounts[theStack.id()]--;
         theStack = theStack.next();
+        theDepth--;
+        if (theStatistics != null) {
+            theStatistics.increment(ParseStatistics.ELEMENTS_POPPED);
+        }
     }
 
     // Pop the stack restartably
@@ -809,8 +1116,18 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         pop();
         if (restartElements && (popped.flags() & Schema.F_RESTART) != 0) {
             popped.anonymize();
-            popped.setNext(theSaved);
-            theSaved = popped;
+            int id = popped.id();
+            if (id >= theSavedCounts.length) {
+                theSavedCounts = Arrays.copyOf(theSavedCounts, theOpenCounts.length);
+            }
+            boolean repeated = popped.restarts() >= MAX_REPEATED_RESTARTS;
+            if (!limitRestarts || !repeated || theSavedCounts[id] < MAX_REPEATED_RESTARTS) {
+                popped.setNext(theSaved);
+                theSaved = popped;
+                if (repeated) {
+                    theSavedCounts[id]++;
+                }
+            }
         }
     }
 
@@ -818,6 +1135,17 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
     private boolean virginStack = true;
 
     private void push(final Element e) throws SAXException {
+        if (theEnding) {
+            return;
+        }
+        if (theDepth >= theMaxDepth) {
+            if (exceeded(ParserLimits.Limit.DEPTH) == ParserLimits.Policy.FLATTEN) {
+                theDropped = true;
+                return;
+            }
+            throw new Truncation();
+        }
+        countEvent();
         String name = e.name();
         String localName = e.localName();
         String namespace = e.namespace();
@@ -848,6 +1176,15 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         theContentHandler.startElement(namespace, localName, name, e.atts());
         e.setNext(theStack);
         theStack = e;
+        theDepth++;
+        if (e.id() >= theOpenCounts.length) {
+            theOpenCounts = Arrays.copyOf(theOpenCounts, Math.max(e.id() + 1, theOpenCounts.length * 2));
+        }
+        theOpenCounts[e.id()]++;
+        if (theStatistics != null) {
+            theStatistics.increment(ParseStatistics.ELEMENTS_PUSHED);
+            theStatistics.max(ParseStatistics.MAX_DEPTH, theDepth);
+        }
         virginStack = false;
         if (cdataElements && (theStack.flags() & Schema.F_CDATA) != 0) {
             theScanner.startCDATA();
@@ -884,7 +1221,7 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
      */
     @Override
     public void decl(final char[] buff, final int offset, final int length) throws SAXException {
-        String s = new String(buff, offset, length);
+        String s = new String(buff, offset, tokenLength(length));
         String name = null;
         String systemid = null;
         String publicid = null;
@@ -1020,28 +1357,42 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         return dst.toString().trim(); // trim any final junk whitespace
     }
 
+    // Look up the element type of a tag name, canonicalizing the name only if it is not plain
+    private ElementType getElementType(final char[] buff, final int offset, final int length) {
+        ElementType type = theSchema.getElementType(buff, offset, length);
+        return type != null ? type : theSchema.getElementType(makeName(buff, offset, length));
+    }
+
     @Override
     public void gi(final char[] buff, final int offset, final int length) throws SAXException {
         if (theNewElement != null) {
             return;
         }
-        String name = makeName(buff, offset, length);
-        ElementType type = theSchema.getElementType(name);
+        int len = tokenLength(length);
+        ElementType type = theSchema.getElementType(buff, offset, len);
         if (type == null) {
-            // Suppress unknown elements if ignore-bogons is on
-            if (ignoreBogons) {
-                return;
-            }
-            int bogonModel = bogonsEmpty ? Schema.M_EMPTY : Schema.M_ANY;
-            int bogonMemberOf = rootBogons ? Schema.M_ANY : (Schema.M_ANY & ~Schema.M_ROOT);
-            theSchema.elementType(name, bogonModel, bogonMemberOf, 0);
-            if (!rootBogons) {
-                theSchema.parent(name, theSchema.rootElementType().name());
-            }
+            String name = makeName(buff, offset, len);
             type = theSchema.getElementType(name);
+            if (type == null) {
+                // Suppress unknown elements if ignore-bogons is on
+                if (ignoreBogons) {
+                    return;
+                }
+                int bogonModel = bogonsEmpty ? Schema.M_EMPTY : Schema.M_ANY;
+                int bogonMemberOf = rootBogons ? Schema.M_ANY : (Schema.M_ANY & ~Schema.M_ROOT);
+                theSchema.elementType(name, bogonModel, bogonMemberOf, 0);
+                if (theStatistics != null) {
+                    theStatistics.increment(ParseStatistics.BOGONS);
+                }
+                if (!rootBogons) {
+                    theSchema.parent(name, theSchema.rootElementType().name());
+                }
+                type = theSchema.getElementType(name);
+            }
         }
 
         theNewElement = new Element(type, defaultAttributes);
+        theAttributeCount = 0;
     }
 
     @Override
@@ -1056,6 +1407,7 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if (length == 0) {
             return;
         }
+        countEvent();
         boolean allWhite = true;
         for (int i = 0; i < length; i++) {
             if (!Character.isWhitespace(buff[offset + i])) {
@@ -1077,7 +1429,7 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if (theNewElement != null) {
             return;
         }
-        thePITarget = makeName(buff, offset, length).replace(':', '_');
+        thePITarget = makeName(buff, offset, tokenLength(length)).replace(':', '_');
     }
 
     @Override
@@ -1089,11 +1441,12 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if ("xml".equalsIgnoreCase(thePITarget)) {
             return;
         }
+        countEvent();
         // if (length > 0 && buff[length - 1] == '?') System.err.println("%% Removing ? from PI");
         if (l > 0 && buff[l - 1] == '?') {
             l--; // remove trailing ?
         }
-        theContentHandler.processingInstruction(thePITarget, new String(buff, offset, length));
+        theContentHandler.processingInstruction(thePITarget, new String(buff, offset, tokenLength(length)));
         thePITarget = null;
     }
 
@@ -1102,8 +1455,9 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if (theNewElement == null) {
             return;
         }
+        theDropped = false;
         rectify(theNewElement);
-        if (theStack.model() == Schema.M_EMPTY) {
+        if (!theDropped && theStack.model() == Schema.M_EMPTY) {
             // Force an immediate end tag
             etagBasic(buff, offset, length);
         }
@@ -1115,14 +1469,19 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         if (theNewElement == null) {
             return;
         }
+        theDropped = false;
         rectify(theNewElement);
+        if (theDropped) {
+            return;
+        }
         // Force an immediate end tag
         etagBasic(buff, offset, length);
     }
 
     @Override
     public void cmnt(final char[] buff, final int offset, final int length) throws SAXException {
-        theLexicalHandler.comment(buff, offset, length);
+        countEvent();
+        theLexicalHandler.comment(buff, offset, tokenLength(length));
     }
 
     // Rectify the stack, pushing and popping as needed
@@ -1144,6 +1503,9 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
                 break;
             }
             Element parent = new Element(parentType, defaultAttributes);
+            if (theStatistics != null) {
+                theStatistics.increment(ParseStatistics.IMPLIED_ELEMENTS);
+            }
             parent.setNext(e);
             e = parent;
         }
@@ -1158,7 +1520,7 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         }
         while (e != null) {
             Element nexte = e.next();
-            if (!e.name().equals("<pcdata>")) {
+            if (e.id() != thePCDATA.id()) {
                 push(e);
             }
             e = nexte;
@@ -1172,10 +1534,83 @@ public class Parser extends DefaultHandler implements ScanHandler, XMLReader, Le
         return theEntity;
     }
 
+    // Return the length of a token cut to the limit
+    private int tokenLength(final int length) throws SAXException {
+        if (length > theMaxTokenLength) {
+            exceeded(ParserLimits.Limit.TOKEN_LENGTH);
+            return theMaxTokenLength;
+        }
+        return length;
+    }
+
+    // Count an event, ending the document past the limit
+    private void countEvent() throws SAXException {
+        if (++theEvents > theMaxEvents) {
+            exceeded(ParserLimits.Limit.EVENTS);
+            throw new Truncation();
+        }
+    }
+
+    // Fail the parse at a limit, or return the policy that handles it
+    private ParserLimits.Policy exceeded(final ParserLimits.Limit limit) throws SAXException {
+        ParserLimits.Policy policy = theLimits.getPolicy(limit);
+        if (policy == ParserLimits.Policy.FAIL) {
+            String message = "Document exceeds the " + limit + " limit of " + theLimits.getMax(limit);
+            if (theScanner instanceof Locator) {
+                throw new SAXParseException(message, (Locator) theScanner);
+            }
+            throw new SAXException(message);
+        }
+        return policy;
+    }
+
+    // Thrown through the scanner to end a document at a limit
+    private static final class Truncation extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+
+        Truncation() {
+            super("Document truncated at a limit");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    // Reads up to the character limit, then reports the end of input
+    private final class LimitedReader extends FilterReader {
+
+        LimitedReader(final Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] c = new char[1];
+            return read(c, 0, 1) < 0 ? -1 : c[0];
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            long left = theMaxCharacters - theCharacters;
+            if (left <= 0) {
+                theCharactersExceeded |= in.read() >= 0;
+                return -1;
+            }
+            int n = in.read(cbuf, off, (int) Math.min(len, left));
+            if (n > 0) {
+                theCharacters += n;
+            }
+            return n;
+        }
+    }
+
     // Return the argument as a valid XML name
     // This no longer lowercases the result: we depend on Schema to
     // canonicalize case.
-    private String makeName(final char[] buff, final int offset, final int length) {
+    String makeName(final char[] buff, final int offset, final int length) {
         int off = offset;
         int l = length;
         final StringBuffer dst = new StringBuffer(l + 2);
@@ -0,0 +1,326 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+// Immutable parser configuration
+
+package com.yahoo.tagchowder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.xml.sax.SAXNotRecognizedException;
+
+import com.yahoo.tagchowder.templates.HTMLSchema;
+
+/**
+ * An immutable set of {@link Parser} settings: the features, held as bits, the schema, a factory for scanners, the auto-detector, the buffer
+ * size and the limits. A configuration is built once with a {@link Builder} and may be shared by any number of threads;
+ * {@link Parser#Parser(ParserConfig)} then only copies a few fields, with no feature lookups and no schema construction.
+ *
+ * <p>
+ * When unknown elements are ignored ({@link Parser#IGNORE_BOGONS_FEATURE}) and no schema is given, {@link Builder#build()} creates a single
+ * {@link HTMLSchema} for all parsers of the configuration, since such parsers never change their schema. Otherwise a schema given to the builder
+ * is shared as is, and without one every parser creates its own on its first parse.
+ */
+public final class ParserConfig {
+
+    // The features in bit order
+    private static final String[] FEATURES = {
+        Parser.NAMESPACES_FEATURE,
+        Parser.IGNORE_BOGONS_FEATURE,
+        Parser.BOGONS_EMPTY_FEATURE,
+        Parser.ROOT_BOGONS_FEATURE,
+        Parser.DEFAULT_ATTRIBUTES_FEATURE,
+        Parser.TRANSLATE_COLONS_FEATURE,
+        Parser.RESTART_ELEMENTS_FEATURE,
+        Parser.IGNORABLE_WHITESPACE_FEATURE,
+        Parser.CDATA_ELEMENTS_FEATURE,
+        Parser.STRING_INTERNING_FEATURE,
+        Parser.AMP_VALIDATION_FEATURE,
+        Parser.LIMIT_RESTARTS_FEATURE,
+        Parser.NAMESPACE_PREFIXES_FEATURE,
+        Parser.EXTERNAL_GENERAL_ENTITIES_FEATURE,
+        Parser.EXTERNAL_PARAMETER_ENTITIES_FEATURE,
+        Parser.IS_STANDALONE_FEATURE,
+        Parser.LEXICAL_HANDLER_PARAMETER_ENTITIES_FEATURE,
+        Parser.RESOLVE_DTDURIS_FEATURE,
+        Parser.USE_ATTRIBUTES2_FEATURE,
+        Parser.USE_LOCATOR2_FEATURE,
+        Parser.USE_ENTITYRESOLVER2_FEATURE,
+        Parser.VALIDATION_FEATURE,
+        Parser.XMLNS_URIS_FEATURE,
+        Parser.XML11_FEATURE,
+    };
+
+    // Bits of the features the parser acts on
+    static final int NAMESPACES = 1;
+    static final int IGNORE_BOGONS = 1 << 1;
+    static final int BOGONS_EMPTY = 1 << 2;
+    static final int ROOT_BOGONS = 1 << 3;
+    static final int DEFAULT_ATTRIBUTES = 1 << 4;
+    static final int TRANSLATE_COLONS = 1 << 5;
+    static final int RESTART_ELEMENTS = 1 << 6;
+    static final int IGNORABLE_WHITESPACE = 1 << 7;
+    static final int CDATA_ELEMENTS = 1 << 8;
+    static final int STRING_INTERNING = 1 << 9;
+    static final int AMP_VALIDATION = 1 << 10;
+    static final int LIMIT_RESTARTS = 1 << 11;
+    private static final int RESOLVE_DTDURIS = 1 << 17;
+
+    /** Feature bits of a new parser. */
+    static final int DEFAULT_FEATURES = NAMESPACES | ROOT_BOGONS | DEFAULT_ATTRIBUTES | RESTART_ELEMENTS | CDATA_ELEMENTS | STRING_INTERNING
+            | RESOLVE_DTDURIS;
+
+    /** Buffer size of a new parser. */
+    static final int DEFAULT_BUFFER_SIZE = 2000;
+
+    private static final Map<String, Integer> FEATURE_BITS = new HashMap<>();
+    static {
+        for (int i = 0; i < FEATURES.length; i++) {
+            FEATURE_BITS.put(FEATURES[i], Integer.valueOf(1 << i));
+        }
+    }
+
+    /** The configuration of a new parser. */
+    public static final ParserConfig DEFAULT = new Builder().build();
+
+    private final int theFeatures;
+    private final Schema theSchema;
+    private final boolean theSchemaIsShared;
+    private final Supplier<Scanner> theScannerFactory;
+    private final AutoDetector theAutoDetector;
+    private final int theBufferSize;
+    private final ParserLimits theLimits;
+
+    private ParserConfig(final Builder builder) {
+        theFeatures = builder.theFeatures;
+        if (builder.theSchema == null && (theFeatures & IGNORE_BOGONS) != 0) {
+            theSchema = new HTMLSchema((theFeatures & STRING_INTERNING) != 0);
+            theSchemaIsShared = true;
+        } else {
+            theSchema = builder.theSchema;
+            theSchemaIsShared = false;
+        }
+        theScannerFactory = builder.theScannerFactory;
+        theAutoDetector = builder.theAutoDetector;
+        theBufferSize = builder.theBufferSize;
+        theLimits = builder.theLimits;
+    }
+
+    /**
+     * Return the bit of a feature.
+     *
+     * @param name feature name
+     * @return bit
+     * @throws SAXNotRecognizedException if the feature is unknown
+     */
+    static int featureBit(final String name) throws SAXNotRecognizedException {
+        Integer bit = FEATURE_BITS.get(name);
+        if (bit == null) {
+            throw new SAXNotRecognizedException("Unknown feature " + name);
+        }
+        return bit.intValue();
+    }
+
+    /**
+     * Return the value of a feature.
+     *
+     * @param name feature name, one of the {@link Parser} feature constants
+     * @return feature value
+     * @throws SAXNotRecognizedException if the feature is unknown
+     */
+    public boolean getFeature(final String name) throws SAXNotRecognizedException {
+        return (theFeatures & featureBit(name)) != 0;
+    }
+
+    /**
+     * Return the feature bits.
+     *
+     * @return features
+     */
+    int getFeatures() {
+        return theFeatures;
+    }
+
+    /**
+     * Return the schema shared by all parsers, or null if each parser creates its own.
+     *
+     * @return schema
+     */
+    public Schema getSchema() {
+        return theSchema;
+    }
+
+    /**
+     * Return whether the schema was created by this configuration, as opposed to given to its builder.
+     *
+     * @return true if the schema is the shared default schema
+     */
+    boolean isSchemaShared() {
+        return theSchemaIsShared;
+    }
+
+    /**
+     * Return the scanner factory, or null if parsers use an {@link com.yahoo.tagchowder.templates.HTMLScanner}.
+     *
+     * @return scanner factory
+     */
+    public Supplier<Scanner> getScannerFactory() {
+        return theScannerFactory;
+    }
+
+    /**
+     * Return the auto-detector, or null if parsers use an {@link HTMLAutoDetector}, which reads the byte order mark and the meta charset.
+     *
+     * @return auto-detector
+     */
+    public AutoDetector getAutoDetector() {
+        return theAutoDetector;
+    }
+
+    /**
+     * Return the buffer size of the default scanner.
+     *
+     * @return buffer size
+     */
+    public int getDefaultBufferSize() {
+        return theBufferSize;
+    }
+
+    /**
+     * Return the limits on parsed documents.
+     *
+     * @return limits
+     */
+    public ParserLimits getLimits() {
+        return theLimits;
+    }
+
+    /**
+     * Builds a {@link ParserConfig}. A builder is not thread-safe.
+     */
+    public static final class Builder {
+
+        private int theFeatures = DEFAULT_FEATURES;
+        private Schema theSchema;
+        private Supplier<Scanner> theScannerFactory;
+        private AutoDetector theAutoDetector;
+        private int theBufferSize = DEFAULT_BUFFER_SIZE;
+        private ParserLimits theLimits = ParserLimits.NONE;
+
+        /**
+         * Construct a builder with the settings of a new parser.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Construct a builder with the settings of a configuration. A default schema created by the configuration is not carried over.
+         *
+         * @param config configuration
+         */
+        public Builder(final ParserConfig config) {
+            theFeatures = config.theFeatures;
+            theSchema = config.theSchemaIsShared ? null : config.theSchema;
+            theScannerFactory = config.theScannerFactory;
+            theAutoDetector = config.theAutoDetector;
+            theBufferSize = config.theBufferSize;
+            theLimits = config.theLimits;
+        }
+
+        /**
+         * Set a feature.
+         *
+         * @param name feature name, one of the {@link Parser} feature constants
+         * @param value feature value
+         * @return this builder
+         * @throws SAXNotRecognizedException if the feature is unknown
+         */
+        public Builder setFeature(final String name, final boolean value) throws SAXNotRecognizedException {
+            int bit = featureBit(name);
+            theFeatures = value ? theFeatures | bit : theFeatures & ~bit;
+            return this;
+        }
+
+        /**
+         * Set the schema shared by all parsers. The parsers register unknown elements in it unless they ignore them, so a schema shared by
+         * parsers on several threads should only be set together with {@link Parser#IGNORE_BOGONS_FEATURE}.
+         *
+         * @param schema schema, or null for the default
+         * @return this builder
+         */
+        public Builder setSchema(final Schema schema) {
+            theSchema = schema;
+            return this;
+        }
+
+        /**
+         * Set the factory of the scanner of each parser.
+         *
+         * @param scannerFactory scanner factory, or null for the default
+         * @return this builder
+         */
+        public Builder setScannerFactory(final Supplier<Scanner> scannerFactory) {
+            theScannerFactory = scannerFactory;
+            return this;
+        }
+
+        /**
+         * Set the auto-detector shared by all parsers.
+         *
+         * @param autoDetector auto-detector, or null for an {@link HTMLAutoDetector}
+         * @return this builder
+         */
+        public Builder setAutoDetector(final AutoDetector autoDetector) {
+            theAutoDetector = autoDetector;
+            return this;
+        }
+
+        /**
+         * Set the buffer size of the default scanner.
+         *
+         * @param bufferSize buffer size
+         * @return this builder
+         */
+        public Builder setDefaultBufferSize(final int bufferSize) {
+            theBufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Set the limits on parsed documents.
+         *
+         * @param limits limits, or null for none
+         * @return this builder
+         */
+        public Builder setLimits(final ParserLimits limits) {
+            theLimits = limits == null ? ParserLimits.NONE : limits;
+            return this;
+        }
+
+        /**
+         * Return a configuration with the current settings.
+         *
+         * @return configuration
+         */
+        public ParserConfig build() {
+            return new ParserConfig(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+// Limits on the size and structure of parsed documents
+
+package com.yahoo.tagchowder;
+
+import java.util.Arrays;
+
+/**
+ * Limits on the size and structure of the documents a {@link Parser} parses. They put a ceiling on the time and memory a hostile document can
+ * take. Each {@link Limit} has a maximum and a {@link Policy} that says what happens when a document goes past it. Limits are immutable, are
+ * built with a {@link Builder}, and are set with {@link Parser#LIMITS_PROPERTY} or {@link ParserConfig.Builder#setLimits}.
+ *
+ * <p>
+ * A limit on the element depth also bounds the work of each tag, because the parser searches the open elements for one that can contain a new
+ * element or that matches an end tag. The scanner buffers a token until its end, so its memory is bounded by the character limit.
+ */
+public final class ParserLimits {
+
+    /**
+     * The quantities that can be limited.
+     */
+    public enum Limit {
+        /** Number of open elements. */
+        DEPTH,
+        /** Number of attributes of an element. */
+        ATTRIBUTES,
+        /** Length of an attribute value, before entities are expanded. */
+        ATTRIBUTE_VALUE_LENGTH,
+        /** Length of an element or attribute name, a comment, a processing instruction or a declaration. */
+        TOKEN_LENGTH,
+        /** Number of characters in the document. */
+        CHARACTERS,
+        /** Number of start tags, character chunks, comments and processing instructions reported. */
+        EVENTS
+    }
+
+    /**
+     * What the parser does with a document that goes past a limit.
+     */
+    public enum Policy {
+        /** Stop the parse with a SAXException; a {@link org.xml.sax.SAXParseException} when the scanner knows the position. */
+        FAIL,
+        /**
+         * Drop what is past the limit: the extra attributes, or the end of a value or token. For depth, characters and events, end the document
+         * there, closing the open elements.
+         */
+        TRUNCATE,
+        /** Depth only: do not open elements past the limit, so their content goes to the deepest open element. */
+        FLATTEN
+    }
+
+    /** The maximum of a quantity that is not limited. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** No limits, the default. */
+    public static final ParserLimits NONE = new Builder().build();
+
+    private final long[] theMax;
+    private final Policy[] thePolicies;
+
+    private ParserLimits(final Builder builder) {
+        theMax = builder.theMax.clone();
+        thePolicies = builder.thePolicies.clone();
+    }
+
+    /**
+     * Return the maximum of a quantity.
+     *
+     * @param limit quantity
+     * @return maximum, or {@link #UNLIMITED}
+     */
+    public long getMax(final Limit limit) {
+        return theMax[limit.ordinal()];
+    }
+
+    /**
+     * Return the policy of a limit.
+     *
+     * @param limit quantity
+     * @return policy
+     */
+    public Policy getPolicy(final Limit limit) {
+        return thePolicies[limit.ordinal()];
+    }
+
+    // Return true if no quantity is limited
+    boolean isUnlimited() {
+        for (long max : theMax) {
+            if (max != UNLIMITED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Return a maximum that fits an int
+    int getIntMax(final Limit limit) {
+        return (int) Math.min(getMax(limit), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Limit limit : Limit.values()) {
+            if (getMax(limit) != UNLIMITED) {
+                sb.append(sb.length() == 0 ? "" : " ").append(limit).append('=').append(getMax(limit)).append('/').append(getPolicy(limit));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds {@link ParserLimits}. A builder is not thread-safe.
+     */
+    public static final class Builder {
+
+        private final long[] theMax = new long[Limit.values().length];
+        private final Policy[] thePolicies = new Policy[Limit.values().length];
+
+        /**
+         * Construct a builder with no limits.
+         */
+        public Builder() {
+            Arrays.fill(theMax, UNLIMITED);
+            Arrays.fill(thePolicies, Policy.FAIL);
+        }
+
+        /**
+         * Construct a builder with the settings of existing limits.
+         *
+         * @param limits limits
+         */
+        public Builder(final ParserLimits limits) {
+            System.arraycopy(limits.theMax, 0, theMax, 0, theMax.length);
+            System.arraycopy(limits.thePolicies, 0, thePolicies, 0, thePolicies.length);
+        }
+
+        /**
+         * Limit a quantity. A maximum of 0 attributes, value characters or characters leaves them all out, or fails at the first one. Depth,
+         * token length and events must be at least 1, since every document has at least the html element.
+         *
+         * @param limit quantity
+         * @param max maximum, or {@link #UNLIMITED}
+         * @param policy what to do past the maximum
+         * @return this builder
+         * @throws IllegalArgumentException if the maximum is negative, or 0 for depth, token length or events, or the policy is
+         *         {@link Policy#FLATTEN} for another limit than depth
+         */
+        public Builder setLimit(final Limit limit, final long max, final Policy policy) {
+            if (max < 0) {
+                throw new IllegalArgumentException("Negative maximum for " + limit + ": " + max);
+            }
+            if (max == 0 && (limit == Limit.DEPTH || limit == Limit.TOKEN_LENGTH || limit == Limit.EVENTS)) {
+                throw new IllegalArgumentException("The maximum for " + limit + " must be at least 1");
+            }
+            if (policy == Policy.FLATTEN && limit != Limit.DEPTH) {
+                throw new IllegalArgumentException("Only the depth limit can flatten");
+            }
+            theMax[limit.ordinal()] = max;
+            thePolicies[limit.ordinal()] = policy;
+            return this;
+        }
+
+        /**
+         * Return limits with the current settings.
+         *
+         * @return limits
+         */
+        public ParserLimits build() {
+            return new ParserLimits(this);
+        }
+    }
+}
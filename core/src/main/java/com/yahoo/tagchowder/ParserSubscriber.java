@@ -0,0 +1,179 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Flow subscriber that feeds a Parser
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A {@link Flow.Subscriber} that parses a document delivered as a stream of byte buffers, for example by an asynchronous HTTP client. Each buffer
+ * is decoded and scanned on the thread that delivers it, and the next buffer is requested only once the scanner has consumed it, so a document
+ * in flight holds no thread while it waits for data. Events go to the content handler (and lexical handler) set on the parser; a slow handler
+ * delays the next request, which is the backpressure the publisher sees.
+ *
+ * <p>
+ * The bytes are decoded with the given charset; malformed input is replaced, as by an InputStreamReader. Completion of the document, or the
+ * failure that stopped it, is reported through {@link #getResult()}. A subscriber parses a single document. This class needs Java 9 or later at
+ * run time.
+ */
+public class ParserSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+    private static final int CHAR_BUFFER_SIZE = 8192;
+    private static final int MAX_BYTES_PER_CHAR = 16;
+
+    private final Parser theParser;
+    private final String theSystemId;
+    private final CharsetDecoder theDecoder;
+    private final CharBuffer theChars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final ByteBuffer theCarry = ByteBuffer.allocate(MAX_BYTES_PER_CHAR); // bytes of a character split across buffers
+    private final CompletableFuture<Void> theResult = new CompletableFuture<>();
+    private Flow.Subscription theSubscription;
+
+    /**
+     * Construct a subscriber.
+     *
+     * @param parser the parser to feed, with its handlers set; it must not be used for anything else until the result is complete
+     * @param charset encoding of the bytes
+     * @param systemId system id reported to the handlers, or null
+     */
+    public ParserSubscriber(final Parser parser, final Charset charset, final String systemId) {
+        theParser = parser;
+        theSystemId = systemId;
+        theDecoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        theCarry.flip();
+    }
+
+    /**
+     * Return the result of the parse, completed when the document has been parsed (after endDocument), or completed exceptionally with the error
+     * of the publisher, the scanner or a handler.
+     *
+     * @return result
+     */
+    public CompletableFuture<Void> getResult() {
+        return theResult;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        if (theSubscription != null) {
+            subscription.cancel();
+            return;
+        }
+        theSubscription = subscription;
+        try {
+            theParser.startPush(null, theSystemId);
+        } catch (SAXException e) {
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(final ByteBuffer item) {
+        if (theResult.isDone()) {
+            return;
+        }
+        try {
+            decode(item, false);
+        } catch (IOException | SAXException e) {
+            fail(e);
+            return;
+        }
+        theSubscription.request(1);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        theResult.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (theResult.isDone()) {
+            return;
+        }
+        try {
+            decode(ByteBuffer.allocate(0), true);
+            theParser.endPush();
+        } catch (IOException | SAXException e) {
+            theResult.completeExceptionally(e);
+            return;
+        }
+        theResult.complete(null);
+    }
+
+    // Decode bytes and scan the characters
+    private void decode(final ByteBuffer bytes, final boolean endOfInput) throws IOException, SAXException {
+        // First finish a character left incomplete by the previous buffer, a byte at a time
+        while (theCarry.hasRemaining() && bytes.hasRemaining()) {
+            theCarry.compact();
+            theCarry.put(bytes.get());
+            theCarry.flip();
+            decode(theCarry, false, false);
+        }
+        if (theCarry.hasRemaining() && endOfInput) {
+            decode(theCarry, true, false);
+        }
+        decode(bytes, endOfInput, true);
+        if (endOfInput) {
+            while (theDecoder.flush(theChars).isOverflow()) {
+                scanChars();
+            }
+            scanChars();
+        }
+    }
+
+    private void decode(final ByteBuffer bytes, final boolean endOfInput, final boolean carry) throws IOException, SAXException {
+        while (true) {
+            CoderResult result = theDecoder.decode(bytes, theChars, endOfInput);
+            scanChars();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (carry && bytes.hasRemaining()) {
+            theCarry.clear();
+            theCarry.put(bytes);
+            theCarry.flip();
+        }
+    }
+
+    private void scanChars() throws IOException, SAXException {
+        if (theChars.position() > 0) {
+            theParser.push(theChars.array(), 0, theChars.position());
+            theChars.clear();
+        }
+    }
+
+    private void fail(final Exception e) {
+        theSubscription.cancel();
+        theResult.completeExceptionally(e);
+    }
+}
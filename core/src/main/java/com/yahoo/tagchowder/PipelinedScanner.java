@@ -0,0 +1,614 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Scanner that lexes on a separate thread
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotSupportedException;
+
+import com.yahoo.tagchowder.templates.HTMLScanner;
+
+/**
+ * A Scanner that runs an {@link HTMLScanner} on a thread of its own, so that lexing overlaps with the work of the parser and its content handler
+ * on the calling thread. Install it with {@link Parser#SCANNER_PROPERTY}. The lexical events are passed in batches of compact records (opcode,
+ * position in a character slab, line and column) through a bounded single-producer, single-consumer ring; both sides wait without locks,
+ * spinning briefly before they park.
+ *
+ * <p>
+ * The parser switches the scanner to CDATA mode when it starts a CDATA element (script, style), long after a scanner running ahead would have
+ * scanned on. The scanning thread therefore predicts from the schema's {@link Schema#F_CDATA} flags which start tags, and which end tags inside
+ * CDATA content, may switch the mode. At those tags only it waits until the parser has handled the tag and takes over its decision; everywhere
+ * else it runs ahead. If the parser asks for CDATA mode anywhere else, which takes a schema with restartable CDATA elements, parsing fails with a
+ * SAXException.
+ *
+ * <p>
+ * The events are the same as with the default scanner, and so is the document locator. The scanner needs the {@link Parser} as its ScanHandler;
+ * a new thread is started for every document. Pipelining pays off for large documents whose handlers do real work; small documents are faster
+ * with the default scanner.
+ */
+public class PipelinedScanner implements Scanner, Locator {
+
+    /** Number of batches in the ring. */
+    private static final int RING_SIZE = 8;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    /** A batch is passed on when it has this many events, or this many characters. */
+    private static final int BATCH_EVENTS = 512;
+    private static final int BATCH_CHARS = 16384;
+
+    /** Number of times a waiting thread yields before it parks. */
+    private static final int SPINS = 64;
+
+    private static final byte ADUP = 0;
+    private static final byte ANAME = 1;
+    private static final byte AVAL = 2;
+    private static final byte CDSECT = 3;
+    private static final byte DECL = 4;
+    private static final byte ETAG = 5;
+    private static final byte GI = 6;
+    private static final byte PCDATA = 7;
+    private static final byte PI = 8;
+    private static final byte PITARGET = 9;
+    private static final byte STAGC = 10;
+    private static final byte STAGE = 11;
+    private static final byte CMNT = 12;
+    private static final byte EOF = 13;
+
+    private String thePublicid;
+    private String theSystemid;
+    private int theLine;
+    private int theColumn;
+    private boolean theCDATARequested; // set by the parser while an event is replayed
+
+    @Override
+    public void resetDocumentLocator(final String publicid, final String systemid) {
+        thePublicid = publicid;
+        theSystemid = systemid;
+        theLine = 0;
+        theColumn = 0;
+    }
+
+    @Override
+    public void startCDATA() {
+        theCDATARequested = true;
+    }
+
+    @Override
+    public int getLineNumber() {
+        return theLine;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return theColumn;
+    }
+
+    @Override
+    public String getPublicId() {
+        return thePublicid;
+    }
+
+    @Override
+    public String getSystemId() {
+        return theSystemid;
+    }
+
+    @Override
+    public void scan(final Reader r, final ScanHandler h) throws IOException, SAXException {
+        if (!(h instanceof Parser)) {
+            throw new SAXNotSupportedException("PipelinedScanner needs a Parser as its ScanHandler");
+        }
+        Parser parser = (Parser) h;
+        Pipe pipe = new Pipe();
+        Producer producer = new Producer(pipe, parser, r, cdataNames(parser), thePublicid, theSystemid);
+        Thread thread = new Thread(producer, "tagchowder-scanner");
+        thread.setDaemon(true);
+        thread.start();
+        boolean done = false;
+        boolean eof = false;
+        try {
+            while (!done) {
+                Batch batch = pipe.take();
+                eof |= replay(batch, h);
+                if (batch.theLast) {
+                    rethrow(batch.theError);
+                    if (!eof) {
+                        throw new SAXException("Scanner thread stopped before the end of the document");
+                    }
+                    done = true;
+                }
+                if (batch.theSync) {
+                    pipe.answer(theCDATARequested);
+                }
+                pipe.release();
+            }
+        } finally {
+            if (!done) {
+                pipe.cancel();
+            }
+        }
+    }
+
+    // Pass the events of a batch to the parser; true if the last one was the end of the document
+    private boolean replay(final Batch batch, final ScanHandler h) throws SAXException {
+        byte[] events = batch.theEvents;
+        int[] ends = batch.theEnds;
+        char[] slab = batch.theSlab;
+        int count = batch.theCount;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = ends[i];
+            int length = end - start;
+            theLine = batch.theLines[i];
+            theColumn = batch.theColumns[i];
+            theCDATARequested = false;
+            switch (events[i]) {
+            case ADUP:
+                h.adup(slab, start, length);
+                break;
+            case ANAME:
+                h.aname(slab, start, length);
+                break;
+            case AVAL:
+                h.aval(slab, start, length);
+                break;
+            case CDSECT:
+                h.cdsect(slab, start, length);
+                break;
+            case DECL:
+                h.decl(slab, start, length);
+                break;
+            case ETAG:
+                h.etag(slab, start, length);
+                break;
+            case GI:
+                h.gi(slab, start, length);
+                break;
+            case PCDATA:
+                h.pcdata(slab, start, length);
+                break;
+            case PI:
+                h.pi(slab, start, length);
+                break;
+            case PITARGET:
+                h.pitarget(slab, start, length);
+                break;
+            case STAGC:
+                h.stagc(slab, start, length);
+                break;
+            case STAGE:
+                h.stage(slab, start, length);
+                break;
+            case CMNT:
+                h.cmnt(slab, start, length);
+                break;
+            case EOF:
+                h.eof(slab, start, length);
+                return true;
+            default:
+                throw new IllegalStateException("Bad event " + events[i]);
+            }
+            if (theCDATARequested && !(batch.theSync && i == count - 1)) {
+                throw new SAXException("CDATA element started where the scanner could not predict it, at line " + theLine);
+            }
+            start = end;
+        }
+        return false;
+    }
+
+    private static void rethrow(final Exception e) throws IOException, SAXException {
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e != null) {
+            throw (SAXException) e;
+        }
+    }
+
+    // Names of the element types whose start puts the scanner in CDATA mode
+    private static String[] cdataNames(final Parser parser) throws SAXException {
+        ArrayList<String> names = new ArrayList<>();
+        Schema schema = (Schema) parser.getProperty(Parser.SCHEMA_PROPERTY);
+        for (int id = 0; id < schema.getElementTypeCount(); id++) {
+            ElementType type = schema.getElementType(id);
+            if ((type.flags() & Schema.F_CDATA) != 0) {
+                names.add(type.name());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * Events passed from the scanning thread to the parser in one step.
+     */
+    private static final class Batch {
+
+        private final byte[] theEvents = new byte[BATCH_EVENTS];
+        private final int[] theEnds = new int[BATCH_EVENTS]; // end of each event's characters in the slab
+        private final int[] theLines = new int[BATCH_EVENTS];
+        private final int[] theColumns = new int[BATCH_EVENTS];
+        private char[] theSlab = new char[BATCH_CHARS * 2];
+        private int theCount;
+        private int theSlabSize;
+        private boolean theSync; // the scanner waits for the parser's CDATA decision on the last event
+        private boolean theLast;
+        private Exception theError;
+
+        void clear() {
+            theCount = 0;
+            theSlabSize = 0;
+            theSync = false;
+            theLast = false;
+            theError = null;
+        }
+
+        boolean isFull() {
+            return theCount == BATCH_EVENTS || theSlabSize >= BATCH_CHARS;
+        }
+
+        void add(final byte event, final char[] buff, final int offset, final int length, final int line, final int column) {
+            if (theSlabSize + length > theSlab.length) {
+                theSlab = Arrays.copyOf(theSlab, Math.max(theSlab.length * 2, theSlabSize + length));
+            }
+            System.arraycopy(buff, offset, theSlab, theSlabSize, length);
+            theSlabSize += length;
+            theEvents[theCount] = event;
+            theEnds[theCount] = theSlabSize;
+            theLines[theCount] = line;
+            theColumns[theCount] = column;
+            theCount++;
+        }
+    }
+
+    /**
+     * The ring of batches between the two threads, and the CDATA decisions passed back. Each index is written by one thread only.
+     */
+    private static final class Pipe {
+
+        private final Batch[] theRing = new Batch[RING_SIZE];
+        private final AtomicLong theHead = new AtomicLong(); // batches consumed
+        private final AtomicLong theTail = new AtomicLong(); // batches published
+        private final AtomicLong theAnswerCount = new AtomicLong(); // CDATA decisions made
+        private volatile boolean theAnswer;
+        private volatile boolean theCancelled;
+        private volatile Thread theWaitingProducer;
+        private volatile Thread theWaitingConsumer;
+
+        Pipe() {
+            for (int i = 0; i < RING_SIZE; i++) {
+                theRing[i] = new Batch();
+            }
+        }
+
+        // Producer side: the next free batch, or null if the consumer has gone
+        Batch claim() {
+            int spins = SPINS;
+            long tail = theTail.get();
+            while (tail - theHead.get() == RING_SIZE) {
+                if (theCancelled) {
+                    return null;
+                }
+                if (spins > 0) {
+                    spins--;
+                    Thread.yield();
+                } else {
+                    theWaitingProducer = Thread.currentThread();
+                    if (tail - theHead.get() == RING_SIZE && !theCancelled) {
+                        LockSupport.park(this);
+                    }
+                    theWaitingProducer = null;
+                }
+            }
+            Batch batch = theRing[(int) tail & RING_MASK];
+            batch.clear();
+            return batch;
+        }
+
+        void publish() {
+            theTail.set(theTail.get() + 1);
+            Thread waiting = theWaitingConsumer;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+
+        // Producer side: wait for decision number n, false if the consumer has gone
+        boolean awaitAnswer(final long n) {
+            int spins = SPINS;
+            while (theAnswerCount.get() < n) {
+                if (theCancelled) {
+                    return false;
+                }
+                if (spins > 0) {
+                    spins--;
+                    Thread.yield();
+                } else {
+                    theWaitingProducer = Thread.currentThread();
+                    if (theAnswerCount.get() < n && !theCancelled) {
+                        LockSupport.park(this);
+                    }
+                    theWaitingProducer = null;
+                }
+            }
+            return true;
+        }
+
+        // Consumer side: the next published batch
+        Batch take() throws InterruptedIOException {
+            int spins = SPINS;
+            long head = theHead.get();
+            while (head == theTail.get()) {
+                if (spins > 0) {
+                    spins--;
+                    Thread.yield();
+                } else {
+                    theWaitingConsumer = Thread.currentThread();
+                    if (head == theTail.get()) {
+                        LockSupport.park(this);
+                    }
+                    theWaitingConsumer = null;
+                    if (Thread.interrupted()) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the scanner");
+                    }
+                }
+            }
+            return theRing[(int) head & RING_MASK];
+        }
+
+        void release() {
+            theHead.set(theHead.get() + 1);
+            wakeProducer();
+        }
+
+        void answer(final boolean cdata) {
+            theAnswer = cdata;
+            theAnswerCount.set(theAnswerCount.get() + 1);
+            wakeProducer();
+        }
+
+        void cancel() {
+            theCancelled = true;
+            wakeProducer();
+        }
+
+        private void wakeProducer() {
+            Thread waiting = theWaitingProducer;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    /**
+     * Runs the scanner on the scanning thread and fills batches. Entity references are resolved here, through the parser, since the scanner needs
+     * their value at once; that only reads the schema's entity table. Tag names are cleaned up the same way.
+     */
+    private static final class Producer implements ScanHandler, Runnable {
+
+        private final Pipe thePipe;
+        private final Parser theParser;
+        private final Reader theReader;
+        private final String[] theCDATANames;
+        private final HTMLScanner theScanner = new HTMLScanner();
+        private Batch theBatch;
+        private long theQuestions; // CDATA decisions asked for
+        private int theEntity;
+        private boolean theCDATAStart; // a start tag of a CDATA element is open
+        private boolean theInCDATA; // the scanner is in CDATA mode
+
+        Producer(final Pipe pipe, final Parser parser, final Reader r, final String[] cdataNames, final String publicid, final String systemid) {
+            thePipe = pipe;
+            theParser = parser;
+            theReader = r;
+            theCDATANames = cdataNames;
+            theScanner.resetDocumentLocator(publicid, systemid);
+            theScanner.setCancellationToken(parser.getCancellationToken());
+        }
+
+        @Override
+        public void run() {
+            Exception error = null;
+            try {
+                theScanner.scan(theReader, this);
+            } catch (IOException | SAXException e) {
+                error = e;
+            } finally {
+                finish(error);
+            }
+        }
+
+        // Publish the last batch, unless the consumer has gone
+        private void finish(final Exception error) {
+            Batch batch = theBatch == null ? thePipe.claim() : theBatch;
+            if (batch == null) {
+                return;
+            }
+            batch.theLast = true;
+            batch.theError = error;
+            thePipe.publish();
+        }
+
+        private void record(final byte event, final char[] buff, final int offset, final int length, final boolean sync) throws SAXException {
+            if (theBatch == null) {
+                theBatch = thePipe.claim();
+                if (theBatch == null) {
+                    throw new SAXException("Parsing stopped");
+                }
+            }
+            Batch batch = theBatch;
+            batch.add(event, buff, offset, length, theScanner.getLineNumber(), theScanner.getColumnNumber());
+            if (sync) {
+                batch.theSync = true;
+            }
+            if (sync || batch.isFull()) {
+                theBatch = null;
+                thePipe.publish();
+            }
+        }
+
+        // Record an event at which the parser may switch to CDATA mode, and follow its decision
+        private void recordAndFollow(final byte event, final char[] buff, final int offset, final int length) throws SAXException {
+            record(event, buff, offset, length, true);
+            if (!thePipe.awaitAnswer(++theQuestions)) {
+                throw new SAXException("Parsing stopped");
+            }
+            theInCDATA = thePipe.theAnswer;
+            if (theInCDATA) {
+                theScanner.startCDATA();
+            }
+        }
+
+        // Whether the parser will take a tag name for a CDATA element; names that aren't plain letters are cleaned up by the parser first
+        private boolean isCDATAName(final char[] buff, final int offset, final int length) {
+            for (int i = 0; i < length; i++) {
+                if (!Character.isLetter(buff[offset + i])) {
+                    String name = theParser.makeName(buff, offset, length);
+                    for (String cdataName : theCDATANames) {
+                        if (cdataName.equalsIgnoreCase(name)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            }
+            for (String cdataName : theCDATANames) {
+                if (cdataName.length() == length && matches(cdataName, buff, offset)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean matches(final String name, final char[] buff, final int offset) {
+            for (int i = 0; i < name.length(); i++) {
+                if (Character.toLowerCase(buff[offset + i]) != Character.toLowerCase(name.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void adup(final char[] buff, final int offset, final int length) throws SAXException {
+            record(ADUP, buff, offset, length, false);
+        }
+
+        @Override
+        public void aname(final char[] buff, final int offset, final int length) throws SAXException {
+            record(ANAME, buff, offset, length, false);
+        }
+
+        @Override
+        public void aval(final char[] buff, final int offset, final int length) throws SAXException {
+            record(AVAL, buff, offset, length, false);
+        }
+
+        @Override
+        public void cdsect(final char[] buff, final int offset, final int length) throws SAXException {
+            record(CDSECT, buff, offset, length, false);
+        }
+
+        @Override
+        public void decl(final char[] buff, final int offset, final int length) throws SAXException {
+            record(DECL, buff, offset, length, false);
+        }
+
+        @Override
+        public void entity(final char[] buff, final int offset, final int length) {
+            theEntity = theParser.lookupEntity(buff, offset, length);
+        }
+
+        @Override
+        public void eof(final char[] buff, final int offset, final int length) throws SAXException {
+            record(EOF, buff, offset, length, false);
+        }
+
+        @Override
+        public void etag(final char[] buff, final int offset, final int length) throws SAXException {
+            theCDATAStart = false;
+            if (theInCDATA) {
+                recordAndFollow(ETAG, buff, offset, length);
+            } else {
+                record(ETAG, buff, offset, length, false);
+            }
+        }
+
+        @Override
+        public void gi(final char[] buff, final int offset, final int length) throws SAXException {
+            if (isCDATAName(buff, offset, length)) {
+                theCDATAStart = true;
+            }
+            record(GI, buff, offset, length, false);
+        }
+
+        @Override
+        public void pcdata(final char[] buff, final int offset, final int length) throws SAXException {
+            record(PCDATA, buff, offset, length, false);
+        }
+
+        @Override
+        public void pi(final char[] buff, final int offset, final int length) throws SAXException {
+            record(PI, buff, offset, length, false);
+        }
+
+        @Override
+        public void pitarget(final char[] buff, final int offset, final int length) throws SAXException {
+            record(PITARGET, buff, offset, length, false);
+        }
+
+        @Override
+        public void stagc(final char[] buff, final int offset, final int length) throws SAXException {
+            startTag(STAGC, buff, offset, length);
+        }
+
+        @Override
+        public void stage(final char[] buff, final int offset, final int length) throws SAXException {
+            startTag(STAGE, buff, offset, length);
+        }
+
+        private void startTag(final byte event, final char[] buff, final int offset, final int length) throws SAXException {
+            if (theCDATAStart) {
+                theCDATAStart = false;
+                recordAndFollow(event, buff, offset, length);
+            } else {
+                record(event, buff, offset, length, false);
+            }
+        }
+
+        @Override
+        public void cmnt(final char[] buff, final int offset, final int length) throws SAXException {
+            record(CMNT, buff, offset, length, false);
+        }
+
+        @Override
+        public int getEntity() {
+            return theEntity;
+        }
+    }
+}
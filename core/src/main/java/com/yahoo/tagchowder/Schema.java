@@ -23,7 +23,9 @@
 
 package com.yahoo.tagchowder;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Abstract class representing a TSSL schema. Actual TSSL schemas are compiled into concrete subclasses of this class.
@@ -46,8 +48,13 @@ public abstract class Schema {
     /** noforce. */
     public static final int F_NOFORCE = 4;
 
-    private HashMap theEntities = new HashMap(); // String -> Character
+    private static final int INITIAL_NAME_TABLE_SIZE = 256;
+
+    private Map<String, Integer> theEntities = new HashMap<>(); // String -> code point
+    private boolean theEntitiesShared = false; // theEntities belongs to the caller of entities(), copy before changing it
     private HashMap theElementTypes = new HashMap(); // String -> ElementType
+    private ArrayList<ElementType> theElementTypeList = new ArrayList<>(); // id -> ElementType
+    private ElementType[] theNameTable = new ElementType[INITIAL_NAME_TABLE_SIZE]; // open addressing by ASCII-lowercased name
 
     private String theURI = "";
     private String thePrefix = "";
@@ -73,7 +80,16 @@ public abstract class Schema {
 
     public void elementType(final String name, final int model, final int memberOf, final int flags) {
         ElementType e = new ElementType(name, model, memberOf, flags, this, useIntern);
-        theElementTypes.put(name.toLowerCase(), e);
+        String key = name.toLowerCase();
+        ElementType old = (ElementType) theElementTypes.put(key, e);
+        if (old == null) {
+            e.setId(theElementTypeList.size());
+            theElementTypeList.add(e);
+        } else {
+            e.setId(old.id());
+            theElementTypeList.set(old.id(), e);
+        }
+        putName(key, e);
         if (memberOf == M_ROOT) {
             theRoot = e;
         }
@@ -133,9 +149,25 @@ public abstract class Schema {
      **/
 
     public void entity(final String name, final int value) {
+        if (theEntitiesShared) {
+            theEntities = new HashMap<>(theEntities);
+            theEntitiesShared = false;
+        }
         theEntities.put(name, value);
     }
 
+    /**
+     * Replace all character entities of this schema with a map that may be shared with other schemas. The map is not changed: the first call of
+     * {@link #entity(String, int)} afterwards works on a copy of it.
+     *
+     * @param entities Map of entity names to values
+     **/
+
+    protected void entities(final Map<String, Integer> entities) {
+        theEntities = entities;
+        theEntitiesShared = true;
+    }
+
     /**
      * Get an ElementType by name.
      *
@@ -147,6 +179,112 @@ public abstract class Schema {
         return (ElementType) (theElementTypes.get(name.toLowerCase()));
     }
 
+    /**
+     * Get an ElementType by a name given as characters, without creating a String. Only names of ASCII letters and digits starting with a letter
+     * are looked up, ignoring case; for any other name this returns null, and the caller should canonicalize the name and use
+     * {@link #getElementType(String)}.
+     *
+     * @param buff Buffer holding the name
+     * @param offset Offset of the name
+     * @param length Length of the name
+     * @return The corresponding ElementType, or null if none or if the name is not plain
+     **/
+
+    public ElementType getElementType(final char[] buff, final int offset, final int length) {
+        if (length == 0 || !isAsciiLetter(buff[offset])) {
+            return null;
+        }
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            char c = buff[offset + i];
+            if (!isAsciiLetter(c) && (c < '0' || c > '9')) {
+                return null;
+            }
+            h = 31 * h + asciiLower(c);
+        }
+        int mask = theNameTable.length - 1;
+        for (int slot = spread(h) & mask;; slot = (slot + 1) & mask) {
+            ElementType e = theNameTable[slot];
+            if (e == null) {
+                return null;
+            }
+            String name = e.name();
+            if (name.length() == length && matches(name, buff, offset)) {
+                return e;
+            }
+        }
+    }
+
+    // Add or replace a name in the name table; key is the lowercased name
+    private void putName(final String key, final ElementType e) {
+        if (theElementTypeList.size() * 2 > theNameTable.length) {
+            ElementType[] old = theNameTable;
+            theNameTable = new ElementType[old.length * 2];
+            for (ElementType o : old) {
+                if (o != null) {
+                    insertName(o.name().toLowerCase(), o);
+                }
+            }
+        }
+        insertName(key, e);
+    }
+
+    private void insertName(final String key, final ElementType e) {
+        int h = 0;
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + asciiLower(key.charAt(i));
+        }
+        int mask = theNameTable.length - 1;
+        int slot = spread(h) & mask;
+        while (theNameTable[slot] != null && !theNameTable[slot].name().toLowerCase().equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        theNameTable[slot] = e;
+    }
+
+    private static boolean matches(final String name, final char[] buff, final int offset) {
+        for (int i = 0; i < name.length(); i++) {
+            if (asciiLower(name.charAt(i)) != asciiLower(buff[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(final int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean isAsciiLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static char asciiLower(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Get an ElementType by its id.
+     *
+     * @param id The id assigned to the element type by this schema
+     * @return The corresponding ElementType
+     **/
+
+    public ElementType getElementType(final int id) {
+        return theElementTypeList.get(id);
+    }
+
+    /**
+     * Return the number of element types in this schema. Ids run from 0 to this value (exclusive); unknown elements registered during a parse
+     * extend the range.
+     *
+     * @return number of element types
+     **/
+
+    public int getElementTypeCount() {
+        return theElementTypeList.size();
+    }
+
     /**
      * Get an entity value by name.
      *
@@ -156,7 +294,7 @@ public abstract class Schema {
 
     public int getEntity(final String name) {
         // System.err.println("%% Looking up entity " + name);
-        Integer ch = (Integer) theEntities.get(name);
+        Integer ch = theEntities.get(name);
         if (ch == null) {
             return 0;
         }
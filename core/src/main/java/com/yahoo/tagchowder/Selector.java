@@ -0,0 +1,386 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Compiled CSS selector
+
+package com.yahoo.tagchowder;
+
+import java.util.ArrayList;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A compiled group of CSS selectors that can be evaluated one element at a time, as elements are opened, without access to the rest of the tree.
+ * The supported subset is the one that can be decided when an element starts:
+ * <ul>
+ * <li>type selectors and the universal selector: {@code div}, {@code *}</li>
+ * <li>id and class selectors: {@code #main}, {@code .item}</li>
+ * <li>attribute selectors: {@code [href]}, {@code [a=v]}, {@code [a~=v]}, {@code [a|=v]}, {@code [a^=v]}, {@code [a$=v]}, {@code [a*=v]}</li>
+ * <li>the {@code :first-child} and {@code :nth-child(an+b)} pseudo-classes</li>
+ * <li>descendant and child combinators, and comma separated groups</li>
+ * </ul>
+ *
+ * <p>
+ * Each selector of the group is compiled into a chain of compound selectors. While a document is scanned, the state of an element is the set of
+ * chain positions still to be matched by its descendants (and, separately, by its children only), kept as a bit mask per selector; see
+ * {@link SelectorHandler}. Type and attribute names are case insensitive, attribute values are case sensitive.
+ */
+public final class Selector {
+
+    /** Maximum number of compound selectors in one selector of a group, the width of a state mask. */
+    public static final int MAX_LENGTH = 64;
+
+    private static final int OP_EXISTS = 0;
+    private static final int OP_EQUALS = 1;
+    private static final int OP_INCLUDES = 2;
+    private static final int OP_DASH = 3;
+    private static final int OP_PREFIX = 4;
+    private static final int OP_SUFFIX = 5;
+    private static final int OP_SUBSTRING = 6;
+
+    // A sequence of simple selectors that all apply to one element
+    private static final class Compound {
+        private String theType; // lower case, null for any
+        private final ArrayList<String> theAttrNames = new ArrayList<>();
+        private final ArrayList<String> theAttrValues = new ArrayList<>();
+        private final ArrayList<Integer> theAttrOps = new ArrayList<>();
+        private boolean hasNth;
+        private int theNthA;
+        private int theNthB;
+        private boolean childCombinator; // combinator to the next compound is '>'
+
+        boolean matches(final String name, final Attributes atts, final int index) {
+            if (theType != null && !theType.equalsIgnoreCase(name)) {
+                return false;
+            }
+            if (hasNth) {
+                int n = index - theNthB;
+                if (theNthA == 0 ? n != 0 : (n % theNthA != 0 || n / theNthA < 0)) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < theAttrNames.size(); i++) {
+                String value = atts.getValue(theAttrNames.get(i));
+                if (value == null || !matchValue(theAttrOps.get(i).intValue(), value, theAttrValues.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final String theSource;
+    private final Compound[][] theSelectors;
+
+    private Selector(final String source, final Compound[][] selectors) {
+        theSource = source;
+        theSelectors = selectors;
+    }
+
+    /**
+     * Compile a group of selectors.
+     *
+     * @param selector the selector text
+     * @return compiled selector
+     * @throws IllegalArgumentException if the text is not a supported selector
+     */
+    public static Selector compile(final String selector) {
+        ArrayList<Compound[]> group = new ArrayList<>();
+        ArrayList<Compound> chain = new ArrayList<>();
+        int len = selector.length();
+        int i = skipSpace(selector, 0);
+        while (true) {
+            Compound c = new Compound();
+            i = parseCompound(selector, i, c);
+            chain.add(c);
+            int next = skipSpace(selector, i);
+            if (next == len || selector.charAt(next) == ',') {
+                if (chain.size() > MAX_LENGTH) {
+                    throw new IllegalArgumentException("Selector has more than " + MAX_LENGTH + " parts: " + selector);
+                }
+                group.add(chain.toArray(new Compound[chain.size()]));
+                chain.clear();
+                if (next == len) {
+                    break;
+                }
+                i = skipSpace(selector, next + 1);
+            } else if (selector.charAt(next) == '>') {
+                c.childCombinator = true;
+                i = skipSpace(selector, next + 1);
+            } else if (next > i) {
+                i = next;
+            } else {
+                throw syntaxError(selector, next);
+            }
+        }
+        return new Selector(selector, group.toArray(new Compound[group.size()][]));
+    }
+
+    /**
+     * Return the number of selectors in this group.
+     *
+     * @return number of selectors
+     */
+    public int size() {
+        return theSelectors.length;
+    }
+
+    /**
+     * Advance the state of one selector of the group by one element.
+     *
+     * @param selector index of the selector in the group
+     * @param inherited state positions open to any descendant of the parent
+     * @param direct state positions open to the children of the parent only
+     * @param name element name
+     * @param atts element attributes
+     * @param index position of the element among the element children of its parent, starting at 1
+     * @param next receives the positions open to descendants at [0] and to children at [1] of the element
+     * @return true if the element matches the selector
+     */
+    boolean advance(final int selector, final long inherited, final long direct, final String name, final Attributes atts, final int index,
+            final long[] next) {
+        Compound[] chain = theSelectors[selector];
+        long candidates = inherited | direct | 1L;
+        long descendants = inherited;
+        long children = 0L;
+        boolean matched = false;
+        while (candidates != 0) {
+            int k = Long.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+            Compound c = chain[k];
+            if (!c.matches(name, atts, index)) {
+                continue;
+            }
+            if (k == chain.length - 1) {
+                matched = true;
+            } else if (c.childCombinator) {
+                children |= 1L << (k + 1);
+            } else {
+                descendants |= 1L << (k + 1);
+            }
+        }
+        next[0] = descendants;
+        next[1] = children;
+        return matched;
+    }
+
+    @Override
+    public String toString() {
+        return theSource;
+    }
+
+    // // // Compilation
+
+    private static int parseCompound(final String s, final int start, final Compound c) {
+        int len = s.length();
+        int i = start;
+        if (i < len && s.charAt(i) == '*') {
+            i++;
+        } else if (i < len && isNameChar(s.charAt(i))) {
+            int end = scanName(s, i);
+            c.theType = s.substring(i, end).toLowerCase();
+            i = end;
+        }
+        while (i < len) {
+            char ch = s.charAt(i);
+            if (ch == '#' || ch == '.') {
+                int end = scanName(s, i + 1);
+                if (end == i + 1) {
+                    throw syntaxError(s, i + 1);
+                }
+                c.theAttrNames.add(ch == '#' ? "id" : "class");
+                c.theAttrOps.add(Integer.valueOf(ch == '#' ? OP_EQUALS : OP_INCLUDES));
+                c.theAttrValues.add(s.substring(i + 1, end));
+                i = end;
+            } else if (ch == '[') {
+                i = parseAttribute(s, i + 1, c);
+            } else if (ch == ':') {
+                i = parsePseudo(s, i + 1, c);
+            } else {
+                break;
+            }
+        }
+        if (i == start) {
+            throw syntaxError(s, i);
+        }
+        return i;
+    }
+
+    private static int parseAttribute(final String s, final int start, final Compound c) {
+        int i = skipSpace(s, start);
+        int end = scanName(s, i);
+        if (end == i) {
+            throw syntaxError(s, i);
+        }
+        c.theAttrNames.add(s.substring(i, end).toLowerCase());
+        i = skipSpace(s, end);
+        if (i < s.length() && s.charAt(i) == ']') {
+            c.theAttrOps.add(Integer.valueOf(OP_EXISTS));
+            c.theAttrValues.add(null);
+            return i + 1;
+        }
+        int op;
+        int opStart = i;
+        if (s.startsWith("=", i)) {
+            op = OP_EQUALS;
+        } else if (s.startsWith("~=", i)) {
+            op = OP_INCLUDES;
+        } else if (s.startsWith("|=", i)) {
+            op = OP_DASH;
+        } else if (s.startsWith("^=", i)) {
+            op = OP_PREFIX;
+        } else if (s.startsWith("$=", i)) {
+            op = OP_SUFFIX;
+        } else if (s.startsWith("*=", i)) {
+            op = OP_SUBSTRING;
+        } else {
+            throw syntaxError(s, i);
+        }
+        i = skipSpace(s, opStart + (op == OP_EQUALS ? 1 : 2));
+        String value;
+        if (i < s.length() && (s.charAt(i) == '"' || s.charAt(i) == '\'')) {
+            int close = s.indexOf(s.charAt(i), i + 1);
+            if (close < 0) {
+                throw syntaxError(s, i);
+            }
+            value = s.substring(i + 1, close);
+            i = close + 1;
+        } else {
+            end = scanName(s, i);
+            if (end == i) {
+                throw syntaxError(s, i);
+            }
+            value = s.substring(i, end);
+            i = end;
+        }
+        i = skipSpace(s, i);
+        if (i >= s.length() || s.charAt(i) != ']') {
+            throw syntaxError(s, i);
+        }
+        c.theAttrOps.add(Integer.valueOf(op));
+        c.theAttrValues.add(value);
+        return i + 1;
+    }
+
+    private static int parsePseudo(final String s, final int start, final Compound c) {
+        int end = scanName(s, start);
+        String name = s.substring(start, end).toLowerCase();
+        if (name.equals("first-child")) {
+            c.hasNth = true;
+            c.theNthA = 0;
+            c.theNthB = 1;
+            return end;
+        }
+        if (!name.equals("nth-child") || end >= s.length() || s.charAt(end) != '(') {
+            throw new IllegalArgumentException("Unsupported pseudo-class :" + name + " in selector: " + s);
+        }
+        int close = s.indexOf(')', end);
+        if (close < 0) {
+            throw syntaxError(s, end);
+        }
+        String expr = s.substring(end + 1, close).replaceAll("\\s+", "").toLowerCase();
+        c.hasNth = true;
+        try {
+            if (expr.equals("odd")) {
+                c.theNthA = 2;
+                c.theNthB = 1;
+            } else if (expr.equals("even")) {
+                c.theNthA = 2;
+                c.theNthB = 0;
+            } else if (expr.indexOf('n') < 0) {
+                c.theNthA = 0;
+                c.theNthB = Integer.parseInt(expr);
+            } else {
+                int n = expr.indexOf('n');
+                String a = expr.substring(0, n);
+                String b = expr.substring(n + 1);
+                c.theNthA = a.isEmpty() || a.equals("+") ? 1 : a.equals("-") ? -1 : Integer.parseInt(a);
+                c.theNthB = b.isEmpty() ? 0 : Integer.parseInt(b.startsWith("+") ? b.substring(1) : b);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad :nth-child argument " + expr + " in selector: " + s);
+        }
+        return close + 1;
+    }
+
+    private static boolean isNameChar(final char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '-' || ch == '_' || ch > 0x7F;
+    }
+
+    private static int scanName(final String s, final int start) {
+        int i = start;
+        while (i < s.length() && isNameChar(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSpace(final String s, final int start) {
+        int i = start;
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static IllegalArgumentException syntaxError(final String s, final int at) {
+        return new IllegalArgumentException("Bad selector at offset " + at + ": " + s);
+    }
+
+    // // // Matching
+
+    private static boolean matchValue(final int op, final String value, final String expected) {
+        switch (op) {
+        case OP_EXISTS:
+            return true;
+        case OP_EQUALS:
+            return value.equals(expected);
+        case OP_INCLUDES:
+            return containsToken(value, expected);
+        case OP_DASH:
+            return value.startsWith(expected) && (value.length() == expected.length() || value.charAt(expected.length()) == '-');
+        case OP_PREFIX:
+            return !expected.isEmpty() && value.startsWith(expected);
+        case OP_SUFFIX:
+            return !expected.isEmpty() && value.endsWith(expected);
+        case OP_SUBSTRING:
+            return !expected.isEmpty() && value.contains(expected);
+        default:
+            return false;
+        }
+    }
+
+    // True if a whitespace separated list contains a token, without splitting the list
+    private static boolean containsToken(final String list, final String token) {
+        int tlen = token.length();
+        if (tlen == 0) {
+            return false;
+        }
+        int from = 0;
+        while (true) {
+            int i = list.indexOf(token, from);
+            if (i < 0) {
+                return false;
+            }
+            int end = i + tlen;
+            if ((i == 0 || Character.isWhitespace(list.charAt(i - 1))) && (end == list.length() || Character.isWhitespace(list.charAt(end)))) {
+                return true;
+            }
+            from = i + 1;
+        }
+    }
+}
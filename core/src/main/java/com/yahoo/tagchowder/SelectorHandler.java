@@ -0,0 +1,205 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// ContentHandler that passes on the subtrees matching a selector
+
+package com.yahoo.tagchowder;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A ContentHandler that evaluates a {@link Selector} while the document is parsed and passes the events of every matching element, with its whole
+ * subtree, to a target handler; all other events are dropped. No tree is built: the handler keeps one small frame per open element, so its memory
+ * depends on the nesting depth of the document and not on its size. The parser already reports a balanced element stack (elements it closes
+ * implicitly get their endElement), which is what the frames follow.
+ *
+ * <p>
+ * The target receives startDocument and endDocument as usual, so any handler can capture the matches: an {@link XMLWriter} writes them as
+ * fragments, a {@link TextExtractor} collects their text, a {@link CompactTreeBuilder} builds a small tree of them. Subclasses can override
+ * {@link #startMatch(String)} and {@link #endMatch(String)} to tell matches apart. Elements matching inside a match are part of the outer match.
+ */
+public class SelectorHandler extends DefaultHandler {
+
+    private static final int INITIAL_DEPTH = 32;
+
+    private final Selector theSelector;
+    private final ContentHandler theTarget;
+    private final int theWidth; // state longs per frame: 2 per selector
+    private long[] theStates; // per frame: descendant mask, child mask for each selector
+    private int[] theChildCount; // per frame: element children seen so far
+    private final long[] theNext = new long[2];
+    private int theDepth; // open elements; frame 0 is the document
+    private int theMatchDepth; // depth of the open match, or 0
+    private int theMatchCount;
+
+    /**
+     * Construct a handler.
+     *
+     * @param selector the selector to evaluate
+     * @param target handler that receives the matching subtrees
+     */
+    public SelectorHandler(final Selector selector, final ContentHandler target) {
+        theSelector = selector;
+        theTarget = target;
+        theWidth = 2 * selector.size();
+        theStates = new long[theWidth * INITIAL_DEPTH];
+        theChildCount = new int[INITIAL_DEPTH];
+    }
+
+    /**
+     * Return the number of matches found in the current or last document.
+     *
+     * @return number of matches
+     */
+    public int getMatchCount() {
+        return theMatchCount;
+    }
+
+    /**
+     * Called before the events of a matching element are passed on.
+     *
+     * @param qName element name
+     * @throws SAXException if the target fails
+     */
+    protected void startMatch(final String qName) throws SAXException {
+    }
+
+    /**
+     * Called after the events of a matching element have been passed on.
+     *
+     * @param qName element name
+     * @throws SAXException if the target fails
+     */
+    protected void endMatch(final String qName) throws SAXException {
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+        theTarget.setDocumentLocator(locator);
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        theDepth = 0;
+        theMatchDepth = 0;
+        theMatchCount = 0;
+        theChildCount[0] = 0;
+        for (int i = 0; i < theWidth; i++) {
+            theStates[i] = 0L;
+        }
+        theTarget.startDocument();
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        theTarget.endDocument();
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        if (theMatchDepth != 0) {
+            theTarget.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        if (theMatchDepth != 0) {
+            theTarget.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        int parent = theDepth;
+        int depth = ++theDepth;
+        if (depth == theChildCount.length) {
+            grow();
+        }
+        int index = ++theChildCount[parent];
+        theChildCount[depth] = 0;
+        if (theMatchDepth != 0) {
+            // Inside a match nothing else needs to be decided
+            theTarget.startElement(uri, localName, qName, atts);
+            return;
+        }
+        boolean matched = false;
+        long[] states = theStates;
+        int from = parent * theWidth;
+        int to = depth * theWidth;
+        for (int s = 0; s < theWidth; s += 2) {
+            if (theSelector.advance(s >> 1, states[from + s], states[from + s + 1], qName, atts, index, theNext)) {
+                matched = true;
+            }
+            states[to + s] = theNext[0];
+            states[to + s + 1] = theNext[1];
+        }
+        if (matched) {
+            theMatchDepth = depth;
+            theMatchCount++;
+            startMatch(qName);
+            theTarget.startElement(uri, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        if (theMatchDepth != 0) {
+            theTarget.endElement(uri, localName, qName);
+            if (theMatchDepth == theDepth) {
+                theMatchDepth = 0;
+                endMatch(qName);
+            }
+        }
+        theDepth--;
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        if (theMatchDepth != 0) {
+            theTarget.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        if (theMatchDepth != 0) {
+            theTarget.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        if (theMatchDepth != 0) {
+            theTarget.processingInstruction(target, data);
+        }
+    }
+
+    private void grow() {
+        int size = theChildCount.length * 2;
+        long[] states = new long[theWidth * size];
+        System.arraycopy(theStates, 0, states, 0, theStates.length);
+        theStates = states;
+        int[] counts = new int[size];
+        System.arraycopy(theChildCount, 0, counts, 0, theChildCount.length);
+        theChildCount = counts;
+    }
+}
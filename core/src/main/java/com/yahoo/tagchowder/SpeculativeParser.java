@@ -0,0 +1,454 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// Parses one large document with speculative parallel scanning
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.yahoo.tagchowder.templates.HTMLScanner;
+
+/**
+ * Parses a single large document by scanning it in chunks on several threads. The input is read completely and split at likely tag boundaries
+ * (a start or end tag directly following the end of another tag). Every chunk but the first is scanned ahead of time by its own
+ * {@link HTMLScanner}, on the assumption that it starts in character content, and its lexical events are recorded. The parser then consumes the
+ * chunks in order: a recording is replayed into the parser only if the real scanner did end the previous chunk at a token boundary; otherwise,
+ * for example when the boundary fell inside a comment or an attribute value, the chunk is scanned again in sequence. Chunks that contain the
+ * start of a CDATA element (script, style) are always scanned in sequence, since the parser switches the scanner to CDATA mode there.
+ *
+ * <p>
+ * Tree building stays on the calling thread, so the events reported are the same as with {@link Parser#parse(InputSource)}, except that character
+ * data may be split differently and that the line and column numbers of the document locator are not maintained. The parser must use the default
+ * HTMLScanner. A parser with {@link ParserLimits} scans every document in sequence. The parser's {@link CancellationToken} is checked by the
+ * scanners and before each chunk.
+ */
+public class SpeculativeParser {
+
+    /** Default number of characters per chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /** Number of chunks scanned ahead per thread. */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final Parser theParser;
+    private final int theParallelism;
+    private int theChunkSize = DEFAULT_CHUNK_SIZE;
+    private int theChunkCount;
+    private int theRescanCount;
+
+    /**
+     * Construct a speculative parser.
+     *
+     * @param parser the parser to feed, with its handlers and features set
+     * @param parallelism number of scanning threads
+     */
+    public SpeculativeParser(final Parser parser, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        theParser = parser;
+        theParallelism = parallelism;
+    }
+
+    /**
+     * Set the approximate number of characters per chunk.
+     *
+     * @param chunkSize chunk size
+     */
+    public void setChunkSize(final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        theChunkSize = chunkSize;
+    }
+
+    /**
+     * Return the number of chunks the last document was split into.
+     *
+     * @return chunk count
+     */
+    public int getChunkCount() {
+        return theChunkCount;
+    }
+
+    /**
+     * Return the number of chunks of the last document that had to be scanned in sequence, not counting the first one.
+     *
+     * @return rescanned chunk count
+     */
+    public int getRescanCount() {
+        return theRescanCount;
+    }
+
+    /**
+     * Parse a document.
+     *
+     * @param input the input source
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    public void parse(final InputSource input) throws IOException, SAXException {
+        char[] chars = new char[READ_BUFFER_SIZE];
+        int length = 0;
+        try (Reader r = theParser.openReader(input)) {
+            int n;
+            while ((n = r.read(chars, length, chars.length - length)) != -1) {
+                length += n;
+                if (length == chars.length) {
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                }
+            }
+        }
+        int[] bounds = split(chars, length);
+        theChunkCount = bounds.length - 1;
+        theRescanCount = 0;
+        theParser.beginPush(input.getPublicId(), input.getSystemId());
+        HTMLScanner scanner = (HTMLScanner) theParser.getProperty(Parser.SCANNER_PROPERTY);
+        // Limits are counted as the parser scans, so a parser with limits scans the whole document itself
+        if (theChunkCount == 1 || !((ParserLimits) theParser.getProperty(Parser.LIMITS_PROPERTY)).isUnlimited()) {
+            theParser.push(chars, 0, length);
+            theParser.endPush();
+            return;
+        }
+        HashSet<String> cdataNames = cdataNames();
+        CancellationToken token = theParser.getCancellationToken();
+        ForkJoinPool pool = new ForkJoinPool(theParallelism);
+        try {
+            ArrayDeque<Future<Tape>> pending = new ArrayDeque<>();
+            int next = 1;
+            int window = theParallelism * CHUNKS_PER_THREAD;
+            for (; next < theChunkCount && pending.size() < window; next++) {
+                pending.add(submit(pool, chars, bounds[next], bounds[next + 1], cdataNames));
+            }
+            theParser.push(chars, 0, bounds[1]);
+            for (int k = 1; k < theChunkCount; k++) {
+                if (token != null) {
+                    token.check(scanner, bounds[k]); // replayed chunks are not seen by the scanner's own checks
+                }
+                Tape tape = await(pending.remove());
+                if (next < theChunkCount) {
+                    pending.add(submit(pool, chars, bounds[next], bounds[next + 1], cdataNames));
+                    next++;
+                }
+                if (tape != null && !tape.hasCDATA && scanner.isAtTokenBoundary()) {
+                    tape.replay(theParser);
+                    scanner.continueFrom(tape.theScanner);
+                } else {
+                    theRescanCount++;
+                    theParser.push(chars, bounds[k], bounds[k + 1] - bounds[k]);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        theParser.endPush();
+    }
+
+    // Choose chunk boundaries: bounds[0] = 0, bounds[count] = length
+    private int[] split(final char[] chars, final int length) {
+        ArrayList<Integer> bounds = new ArrayList<>();
+        bounds.add(Integer.valueOf(0));
+        int pos = theChunkSize;
+        while (pos < length) {
+            int limit = (int) Math.min(length, (long) pos + theChunkSize);
+            int cut = -1;
+            for (int i = pos; i < limit - 1; i++) {
+                if (chars[i] == '<' && isTagBoundary(chars, i)) {
+                    cut = i;
+                    break;
+                }
+            }
+            if (cut < 0) {
+                pos = limit;
+                continue;
+            }
+            bounds.add(Integer.valueOf(cut));
+            pos = cut + theChunkSize;
+        }
+        bounds.add(Integer.valueOf(length));
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i).intValue();
+        }
+        return result;
+    }
+
+    // True if chars[i] == '<' starts a tag that follows the end of another tag, possibly after whitespace
+    private static boolean isTagBoundary(final char[] chars, final int i) {
+        char c = chars[i + 1];
+        if (!(c == '/' || Character.isLetter(c))) {
+            return false;
+        }
+        int j = i - 1;
+        while (j >= 0 && (chars[j] == ' ' || chars[j] == '\t' || chars[j] == '\n' || chars[j] == '\r')) {
+            j--;
+        }
+        return j >= 0 && chars[j] == '>';
+    }
+
+    // Names of the element types whose start puts the scanner in CDATA mode
+    private HashSet<String> cdataNames() throws SAXException {
+        HashSet<String> names = new HashSet<>();
+        Schema schema = (Schema) theParser.getProperty(Parser.SCHEMA_PROPERTY);
+        for (int id = 0; id < schema.getElementTypeCount(); id++) {
+            ElementType type = schema.getElementType(id);
+            if ((type.flags() & Schema.F_CDATA) != 0) {
+                names.add(type.name().toLowerCase());
+            }
+        }
+        return names;
+    }
+
+    private Future<Tape> submit(final ForkJoinPool pool, final char[] chars, final int start, final int end, final HashSet<String> cdataNames) {
+        return pool.submit(() -> {
+            Tape tape = new Tape(theParser, cdataNames, end - start);
+            tape.theScanner.setCancellationToken(theParser.getCancellationToken());
+            tape.theScanner.startScan();
+            tape.theScanner.scan(chars, start, end - start, tape);
+            return tape;
+        });
+    }
+
+    // Wait for a recording; null if scanning ahead failed, in which case the chunk is scanned again in sequence
+    private static Tape await(final Future<Tape> future) throws InterruptedIOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk");
+        }
+    }
+
+    /**
+     * A ScanHandler that records lexical events for later replay. Entity references are resolved while recording, through the parser, since the
+     * scanner needs their value immediately; the schema is only read.
+     */
+    private static final class Tape implements ScanHandler {
+
+        private static final byte ADUP = 0;
+        private static final byte ANAME = 1;
+        private static final byte AVAL = 2;
+        private static final byte CDSECT = 3;
+        private static final byte DECL = 4;
+        private static final byte ETAG = 5;
+        private static final byte GI = 6;
+        private static final byte PCDATA = 7;
+        private static final byte PI = 8;
+        private static final byte PITARGET = 9;
+        private static final byte STAGC = 10;
+        private static final byte STAGE = 11;
+        private static final byte CMNT = 12;
+
+        private final Parser theParser;
+        private final HashSet<String> theCDATANames;
+        private final HTMLScanner theScanner;
+        private byte[] theEvents = new byte[256];
+        private int[] theEnds = new int[256]; // end of each event's characters in the slab
+        private int theCount;
+        private char[] theSlab;
+        private int theSlabSize;
+        private int theEntity;
+        private boolean hasCDATA;
+
+        Tape(final Parser parser, final HashSet<String> cdataNames, final int chunkLength) {
+            theParser = parser;
+            theCDATANames = cdataNames;
+            theScanner = new HTMLScanner();
+            theSlab = new char[Math.max(16, chunkLength)];
+        }
+
+        private void record(final byte event, final char[] buff, final int offset, final int length) {
+            if (hasCDATA) {
+                return;
+            }
+            if (theCount == theEvents.length) {
+                theEvents = Arrays.copyOf(theEvents, theCount * 2);
+                theEnds = Arrays.copyOf(theEnds, theCount * 2);
+            }
+            if (theSlabSize + length > theSlab.length) {
+                theSlab = Arrays.copyOf(theSlab, Math.max(theSlab.length * 2, theSlabSize + length));
+            }
+            System.arraycopy(buff, offset, theSlab, theSlabSize, length);
+            theSlabSize += length;
+            theEvents[theCount] = event;
+            theEnds[theCount] = theSlabSize;
+            theCount++;
+        }
+
+        void replay(final ScanHandler h) throws SAXException {
+            int start = 0;
+            for (int i = 0; i < theCount; i++) {
+                int end = theEnds[i];
+                int length = end - start;
+                switch (theEvents[i]) {
+                case ADUP:
+                    h.adup(theSlab, start, length);
+                    break;
+                case ANAME:
+                    h.aname(theSlab, start, length);
+                    break;
+                case AVAL:
+                    h.aval(theSlab, start, length);
+                    break;
+                case CDSECT:
+                    h.cdsect(theSlab, start, length);
+                    break;
+                case DECL:
+                    h.decl(theSlab, start, length);
+                    break;
+                case ETAG:
+                    h.etag(theSlab, start, length);
+                    break;
+                case GI:
+                    h.gi(theSlab, start, length);
+                    break;
+                case PCDATA:
+                    h.pcdata(theSlab, start, length);
+                    break;
+                case PI:
+                    h.pi(theSlab, start, length);
+                    break;
+                case PITARGET:
+                    h.pitarget(theSlab, start, length);
+                    break;
+                case STAGC:
+                    h.stagc(theSlab, start, length);
+                    break;
+                case STAGE:
+                    h.stage(theSlab, start, length);
+                    break;
+                case CMNT:
+                    h.cmnt(theSlab, start, length);
+                    break;
+                default:
+                    throw new IllegalStateException("Bad event " + theEvents[i]);
+                }
+                start = end;
+            }
+        }
+
+        @Override
+        public void adup(final char[] buff, final int offset, final int length) {
+            record(ADUP, buff, offset, length);
+        }
+
+        @Override
+        public void aname(final char[] buff, final int offset, final int length) {
+            record(ANAME, buff, offset, length);
+        }
+
+        @Override
+        public void aval(final char[] buff, final int offset, final int length) {
+            record(AVAL, buff, offset, length);
+        }
+
+        @Override
+        public void cdsect(final char[] buff, final int offset, final int length) {
+            record(CDSECT, buff, offset, length);
+        }
+
+        @Override
+        public void decl(final char[] buff, final int offset, final int length) {
+            record(DECL, buff, offset, length);
+        }
+
+        @Override
+        public void entity(final char[] buff, final int offset, final int length) {
+            theEntity = theParser.lookupEntity(buff, offset, length);
+        }
+
+        @Override
+        public void eof(final char[] buff, final int offset, final int length) {
+            // Chunks are never ended
+        }
+
+        @Override
+        public void etag(final char[] buff, final int offset, final int length) {
+            record(ETAG, buff, offset, length);
+        }
+
+        @Override
+        public void gi(final char[] buff, final int offset, final int length) {
+            if (isCDATAName(buff, offset, length)) {
+                hasCDATA = true;
+            }
+            record(GI, buff, offset, length);
+        }
+
+        // Whether the parser will take a tag name for a CDATA element; names that aren't plain letters are cleaned up by the parser first
+        private boolean isCDATAName(final char[] buff, final int offset, final int length) {
+            for (int i = 0; i < length; i++) {
+                if (!Character.isLetter(buff[offset + i])) {
+                    return theCDATANames.contains(theParser.makeName(buff, offset, length).toLowerCase());
+                }
+            }
+            return theCDATANames.contains(new String(buff, offset, length).toLowerCase());
+        }
+
+        @Override
+        public void pcdata(final char[] buff, final int offset, final int length) {
+            record(PCDATA, buff, offset, length);
+        }
+
+        @Override
+        public void pi(final char[] buff, final int offset, final int length) {
+            record(PI, buff, offset, length);
+        }
+
+        @Override
+        public void pitarget(final char[] buff, final int offset, final int length) {
+            record(PITARGET, buff, offset, length);
+        }
+
+        @Override
+        public void stagc(final char[] buff, final int offset, final int length) {
+            record(STAGC, buff, offset, length);
+        }
+
+        @Override
+        public void stage(final char[] buff, final int offset, final int length) {
+            record(STAGE, buff, offset, length);
+        }
+
+        @Override
+        public void cmnt(final char[] buff, final int offset, final int length) {
+            record(CMNT, buff, offset, length);
+        }
+
+        @Override
+        public int getEntity() {
+            return theEntity;
+        }
+    }
+}
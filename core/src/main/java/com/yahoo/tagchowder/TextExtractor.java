@@ -0,0 +1,202 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// ContentHandler that extracts visible text
+
+package com.yahoo.tagchowder;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.yahoo.tagchowder.templates.HTMLModels;
+
+/**
+ * A ContentHandler that appends the visible text of a document to a caller-supplied StringBuilder. Element types are classified once per schema
+ * name using the {@link Schema}: CDATA elements (script, style) and a configurable set of other elements (noscript by default) are suppressed with
+ * their whole subtree, elements that are not members of the inline model start a new line, and runs of whitespace collapse to a single space.
+ *
+ * <p>
+ * Apart from classifying each element type the first time it is seen, the handler does no allocation: characters are copied straight into the
+ * buffer, which can be cleared and reused for the next document.
+ */
+public class TextExtractor extends DefaultHandler {
+
+    private static final byte INLINE = 0;
+    private static final byte BLOCK = 1;
+    private static final byte HIDDEN = 2;
+    private static final byte BREAK = 3;
+
+    private final Parser theParser;
+    private Schema theSchema;
+    private StringBuilder theBuffer;
+    private final HashSet<String> theHiddenNames = new HashSet<>();
+    private final IdentityHashMap<String, Byte> theKinds = new IdentityHashMap<>(); // interned name -> kind
+    private int theHiddenDepth; // open elements inside a suppressed subtree
+    private boolean hasText; // text appended for the current document
+    private boolean pendingSpace;
+    private boolean pendingBreak;
+
+    /**
+     * Construct an extractor for documents parsed by the given parser. The parser's schema is picked up when the document starts.
+     *
+     * @param parser the parser that will report events to this extractor
+     * @param buffer the buffer to append text to
+     */
+    public TextExtractor(final Parser parser, final StringBuilder buffer) {
+        theParser = parser;
+        theBuffer = buffer;
+        theHiddenNames.add("noscript");
+    }
+
+    /**
+     * Construct an extractor that classifies elements with the given schema.
+     *
+     * @param schema schema used by the parser that will report events to this extractor
+     * @param buffer the buffer to append text to
+     */
+    public TextExtractor(final Schema schema, final StringBuilder buffer) {
+        this((Parser) null, buffer);
+        theSchema = schema;
+    }
+
+    /**
+     * Change the buffer text is appended to. Takes effect for the next document.
+     *
+     * @param buffer the buffer to append text to
+     */
+    public void setBuffer(final StringBuilder buffer) {
+        theBuffer = buffer;
+    }
+
+    /**
+     * Return the buffer text is appended to.
+     *
+     * @return the buffer
+     */
+    public StringBuilder getBuffer() {
+        return theBuffer;
+    }
+
+    /**
+     * Choose whether the text of an element type is suppressed, in addition to the CDATA elements which are always suppressed.
+     *
+     * @param name element type name
+     * @param hidden true to suppress the element and its subtree
+     */
+    public void setHidden(final String name, final boolean hidden) {
+        if (hidden) {
+            theHiddenNames.add(name.toLowerCase());
+        } else {
+            theHiddenNames.remove(name.toLowerCase());
+        }
+        theKinds.clear();
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (theParser != null) {
+            Schema schema = (Schema) theParser.getProperty(Parser.SCHEMA_PROPERTY);
+            if (schema != theSchema) {
+                theSchema = schema;
+                theKinds.clear();
+            }
+        }
+        theHiddenDepth = 0;
+        hasText = false;
+        pendingSpace = false;
+        pendingBreak = false;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        if (theHiddenDepth > 0) {
+            theHiddenDepth++;
+            return;
+        }
+        byte kind = kindOf(qName);
+        if (kind == HIDDEN) {
+            theHiddenDepth = 1;
+        } else if (kind != INLINE) {
+            pendingBreak = true;
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        if (theHiddenDepth > 0) {
+            theHiddenDepth--;
+            return;
+        }
+        if (kindOf(qName) == BLOCK) {
+            pendingBreak = true;
+        }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        if (theHiddenDepth > 0) {
+            return;
+        }
+        StringBuilder buffer = theBuffer;
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            char c = ch[i];
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f') {
+                pendingSpace = true;
+                continue;
+            }
+            if (hasText) {
+                if (pendingBreak) {
+                    buffer.append('\n');
+                } else if (pendingSpace) {
+                    buffer.append(' ');
+                }
+            }
+            pendingBreak = false;
+            pendingSpace = false;
+            hasText = true;
+            buffer.append(c);
+        }
+    }
+
+    // Classify an element type, caching the result by interned name
+    private byte kindOf(final String qName) {
+        Byte cached = theKinds.get(qName);
+        if (cached != null) {
+            return cached.byteValue();
+        }
+        byte kind;
+        ElementType type = theSchema == null ? null : theSchema.getElementType(qName);
+        if (type == null) {
+            kind = INLINE;
+        } else if ((type.flags() & Schema.F_CDATA) != 0 || theHiddenNames.contains(type.name())) {
+            kind = HIDDEN;
+        } else if (type == theSchema.getElementType("br")) {
+            kind = BREAK;
+        } else if ((type.memberOf() & HTMLModels.M_INLINE) == 0) {
+            kind = BLOCK;
+        } else {
+            kind = INLINE;
+        }
+        theKinds.put(qName, Byte.valueOf(kind));
+        return kind;
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+// ContentHandler that records events for replay
+
+package com.yahoo.tagchowder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A ContentHandler and LexicalHandler that records the events of a document so that they can be replayed, any number of times, into other
+ * handlers without parsing again. Events are stored as a stream of ints (an opcode and its operands), element names as ids of the
+ * {@link Schema}'s element types, other names as ids into a small table of strings, and all text and attribute values in one char slab.
+ *
+ * <p>
+ * Replay passes slices of the slab to the handlers and creates attribute value strings only when a handler asks for them, so it allocates
+ * little. A complete tape can be replayed by several threads at once. The document locator is not recorded.
+ *
+ * <pre>
+ * Parser parser = new Parser();
+ * TokenTape tape = new TokenTape(parser);
+ * parser.setContentHandler(tape);
+ * parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, tape);
+ * parser.parse(source);
+ * tape.replay(firstHandler);
+ * tape.replay(secondHandler);
+ * </pre>
+ */
+public class TokenTape extends DefaultHandler implements LexicalHandler {
+
+    private static final int START_DOCUMENT = 0;
+    private static final int END_DOCUMENT = 1;
+    private static final int START_PREFIX_MAPPING = 2; // prefix, uri
+    private static final int END_PREFIX_MAPPING = 3; // prefix
+    private static final int START_ELEMENT = 4; // element, uri, localName, attribute count, 6 per attribute
+    private static final int END_ELEMENT = 5; // element, uri, localName
+    private static final int CHARACTERS = 6; // start, length
+    private static final int IGNORABLE_WHITESPACE = 7; // start, length
+    private static final int PROCESSING_INSTRUCTION = 8; // target, start, length
+    private static final int SKIPPED_ENTITY = 9; // name
+    private static final int START_DTD = 10; // name, publicid, systemid
+    private static final int END_DTD = 11;
+    private static final int START_ENTITY = 12; // name
+    private static final int END_ENTITY = 13; // name
+    private static final int START_CDATA = 14;
+    private static final int END_CDATA = 15;
+    private static final int COMMENT = 16; // start, length
+
+    /** Ints per attribute: uri, localName, qName, type, value start, value length. */
+    private static final int ATTRIBUTE_SIZE = 6;
+
+    private static final int INITIAL_OPS = 256;
+    private static final int INITIAL_SLAB = 1024;
+    private static final int INITIAL_NAMES = 16;
+
+    /** Rough sizes, in bytes, of the tape's objects and of each name with its table entries. */
+    private static final int OBJECT_OVERHEAD = 200;
+    private static final int NAME_OVERHEAD = 100;
+
+    private final Parser theParser;
+    private Schema theSchema;
+
+    private int[] theOps = new int[INITIAL_OPS];
+    private int theOpsLength;
+    private char[] theSlab = new char[INITIAL_SLAB];
+    private int theSlabLength;
+    private int theEventCount;
+    private String[] theNames = new String[INITIAL_NAMES];
+    private int theNameCount;
+    private final HashMap<String, Integer> theNameIds = new HashMap<>();
+
+    /**
+     * Construct a tape for documents parsed by the given parser. The parser's schema is picked up when the document starts, so the parser may
+     * create its default schema lazily.
+     *
+     * @param parser the parser that will report events to this tape
+     */
+    public TokenTape(final Parser parser) {
+        theParser = parser;
+    }
+
+    /**
+     * Construct a tape that stores element names as ids of the given schema.
+     *
+     * @param schema schema used by the parser that will report events to this tape
+     */
+    public TokenTape(final Schema schema) {
+        theParser = null;
+        theSchema = schema;
+    }
+
+    /**
+     * Construct a tape that keeps all names in its own table, for events that don't come from a {@link Parser}.
+     */
+    public TokenTape() {
+        theParser = null;
+    }
+
+    /**
+     * Return the number of events recorded.
+     *
+     * @return event count
+     */
+    public int getEventCount() {
+        return theEventCount;
+    }
+
+    /**
+     * Return an estimate of the memory taken by the recorded events, in bytes.
+     *
+     * @return size in bytes
+     */
+    public long getMemorySize() {
+        long size = OBJECT_OVERHEAD + 4L * theOps.length + 2L * theSlab.length;
+        for (int i = 0; i < theNameCount; i++) {
+            size += NAME_OVERHEAD + 2L * theNames[i].length();
+        }
+        return size;
+    }
+
+    /**
+     * Replay the recorded events into a handler. If the handler is also a {@link LexicalHandler} it receives the lexical events.
+     *
+     * @param handler the handler
+     * @throws SAXException if the handler fails
+     */
+    public void replay(final ContentHandler handler) throws SAXException {
+        replay(handler, handler instanceof LexicalHandler ? (LexicalHandler) handler : null);
+    }
+
+    /**
+     * Replay the recorded events into a content handler and a lexical handler.
+     *
+     * @param handler the content handler
+     * @param lexicalHandler the lexical handler, or null to drop lexical events
+     * @throws SAXException if a handler fails
+     */
+    public void replay(final ContentHandler handler, final LexicalHandler lexicalHandler) throws SAXException {
+        int[] ops = theOps;
+        int length = theOpsLength;
+        char[] slab = theSlab;
+        TapeAttributes atts = new TapeAttributes();
+        int i = 0;
+        while (i < length) {
+            switch (ops[i]) {
+            case START_DOCUMENT:
+                handler.startDocument();
+                i += 1;
+                break;
+            case END_DOCUMENT:
+                handler.endDocument();
+                i += 1;
+                break;
+            case START_PREFIX_MAPPING:
+                handler.startPrefixMapping(name(ops[i + 1]), name(ops[i + 2]));
+                i += 3;
+                break;
+            case END_PREFIX_MAPPING:
+                handler.endPrefixMapping(name(ops[i + 1]));
+                i += 2;
+                break;
+            case START_ELEMENT:
+                atts.theStart = i + 5;
+                atts.theLength = ops[i + 4];
+                handler.startElement(name(ops[i + 2]), name(ops[i + 3]), elementName(ops[i + 1]), atts);
+                i += 5 + ATTRIBUTE_SIZE * ops[i + 4];
+                break;
+            case END_ELEMENT:
+                handler.endElement(name(ops[i + 2]), name(ops[i + 3]), elementName(ops[i + 1]));
+                i += 4;
+                break;
+            case CHARACTERS:
+                handler.characters(slab, ops[i + 1], ops[i + 2]);
+                i += 3;
+                break;
+            case IGNORABLE_WHITESPACE:
+                handler.ignorableWhitespace(slab, ops[i + 1], ops[i + 2]);
+                i += 3;
+                break;
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction(name(ops[i + 1]), new String(slab, ops[i + 2], ops[i + 3]));
+                i += 4;
+                break;
+            case SKIPPED_ENTITY:
+                handler.skippedEntity(name(ops[i + 1]));
+                i += 2;
+                break;
+            case START_DTD:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startDTD(name(ops[i + 1]), name(ops[i + 2]), name(ops[i + 3]));
+                }
+                i += 4;
+                break;
+            case END_DTD:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endDTD();
+                }
+                i += 1;
+                break;
+            case START_ENTITY:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startEntity(name(ops[i + 1]));
+                }
+                i += 2;
+                break;
+            case END_ENTITY:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endEntity(name(ops[i + 1]));
+                }
+                i += 2;
+                break;
+            case START_CDATA:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startCDATA();
+                }
+                i += 1;
+                break;
+            case END_CDATA:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endCDATA();
+                }
+                i += 1;
+                break;
+            case COMMENT:
+                if (lexicalHandler != null) {
+                    lexicalHandler.comment(slab, ops[i + 1], ops[i + 2]);
+                }
+                i += 3;
+                break;
+            default:
+                throw new IllegalStateException("Bad opcode " + ops[i]);
+            }
+        }
+    }
+
+    // ContentHandler implementation
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (theParser != null) {
+            theSchema = (Schema) theParser.getProperty(Parser.SCHEMA_PROPERTY);
+        }
+        theOps = new int[INITIAL_OPS];
+        theOpsLength = 0;
+        theSlab = new char[INITIAL_SLAB];
+        theSlabLength = 0;
+        theEventCount = 0;
+        theNames = new String[INITIAL_NAMES];
+        theNameCount = 0;
+        theNameIds.clear();
+        event(START_DOCUMENT, 0);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        event(END_DOCUMENT, 0);
+        theOps = Arrays.copyOf(theOps, theOpsLength);
+        theSlab = Arrays.copyOf(theSlab, theSlabLength);
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        int i = event(START_PREFIX_MAPPING, 2);
+        theOps[i] = nameId(prefix);
+        theOps[i + 1] = nameId(uri);
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        int i = event(END_PREFIX_MAPPING, 1);
+        theOps[i] = nameId(prefix);
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        int len = atts.getLength();
+        int i = event(START_ELEMENT, 4 + ATTRIBUTE_SIZE * len);
+        theOps[i] = elementId(qName);
+        theOps[i + 1] = nameId(uri);
+        theOps[i + 2] = nameId(localName);
+        theOps[i + 3] = len;
+        i += 4;
+        for (int a = 0; a < len; a++) {
+            String value = atts.getValue(a);
+            theOps[i] = nameId(atts.getURI(a));
+            theOps[i + 1] = nameId(atts.getLocalName(a));
+            theOps[i + 2] = nameId(atts.getQName(a));
+            theOps[i + 3] = nameId(atts.getType(a));
+            theOps[i + 4] = theSlabLength;
+            theOps[i + 5] = value.length();
+            ensureSlab(value.length());
+            value.getChars(0, value.length(), theSlab, theSlabLength);
+            theSlabLength += value.length();
+            i += ATTRIBUTE_SIZE;
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        int i = event(END_ELEMENT, 3);
+        theOps[i] = elementId(qName);
+        theOps[i + 1] = nameId(uri);
+        theOps[i + 2] = nameId(localName);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        text(CHARACTERS, ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        text(IGNORABLE_WHITESPACE, ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        int i = event(PROCESSING_INSTRUCTION, 3);
+        theOps[i] = nameId(target);
+        theOps[i + 1] = theSlabLength;
+        theOps[i + 2] = data.length();
+        ensureSlab(data.length());
+        data.getChars(0, data.length(), theSlab, theSlabLength);
+        theSlabLength += data.length();
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+        int i = event(SKIPPED_ENTITY, 1);
+        theOps[i] = nameId(name);
+    }
+
+    // LexicalHandler implementation
+
+    @Override
+    public void startDTD(final String name, final String publicid, final String systemid) throws SAXException {
+        int i = event(START_DTD, 3);
+        theOps[i] = nameId(name);
+        theOps[i + 1] = nameId(publicid);
+        theOps[i + 2] = nameId(systemid);
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        event(END_DTD, 0);
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+        int i = event(START_ENTITY, 1);
+        theOps[i] = nameId(name);
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+        int i = event(END_ENTITY, 1);
+        theOps[i] = nameId(name);
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        event(START_CDATA, 0);
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        event(END_CDATA, 0);
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+        text(COMMENT, ch, start, length);
+    }
+
+    // Append an opcode and room for its operands; return the index of the first operand
+    private int event(final int opcode, final int operands) {
+        if (theOpsLength + 1 + operands > theOps.length) {
+            theOps = Arrays.copyOf(theOps, Math.max(theOps.length * 2, theOpsLength + 1 + operands));
+        }
+        theOps[theOpsLength] = opcode;
+        int first = theOpsLength + 1;
+        theOpsLength = first + operands;
+        theEventCount++;
+        return first;
+    }
+
+    private void text(final int opcode, final char[] ch, final int start, final int length) {
+        int i = event(opcode, 2);
+        theOps[i] = theSlabLength;
+        theOps[i + 1] = length;
+        ensureSlab(length);
+        System.arraycopy(ch, start, theSlab, theSlabLength, length);
+        theSlabLength += length;
+    }
+
+    private void ensureSlab(final int length) {
+        if (theSlabLength + length > theSlab.length) {
+            theSlab = Arrays.copyOf(theSlab, Math.max(theSlab.length * 2, theSlabLength + length));
+        }
+    }
+
+    // Element names are schema ids when the schema knows them, otherwise the complement of a name id
+    private int elementId(final String qName) {
+        if (theSchema != null) {
+            ElementType type = theSchema.getElementType(qName);
+            if (type != null && type.name().equals(qName)) {
+                return type.id();
+            }
+        }
+        return ~nameId(qName);
+    }
+
+    private String elementName(final int id) {
+        return id >= 0 ? theSchema.getElementType(id).name() : theNames[~id];
+    }
+
+    // Names are ids into the table; null is -1
+    private int nameId(final String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = theNameIds.get(name);
+        if (id != null) {
+            return id.intValue();
+        }
+        if (theNameCount == theNames.length) {
+            theNames = Arrays.copyOf(theNames, theNameCount * 2);
+        }
+        theNames[theNameCount] = name;
+        theNameIds.put(name, Integer.valueOf(theNameCount));
+        return theNameCount++;
+    }
+
+    private String name(final int id) {
+        return id < 0 ? null : theNames[id];
+    }
+
+    /**
+     * The attributes of the element being replayed, read from the tape. Values are turned into strings on demand.
+     */
+    private final class TapeAttributes implements Attributes {
+
+        private int theStart; // first attribute in the ops
+        private int theLength;
+
+        private int at(final int index) {
+            return theStart + ATTRIBUTE_SIZE * index;
+        }
+
+        @Override
+        public int getLength() {
+            return theLength;
+        }
+
+        @Override
+        public String getURI(final int index) {
+            return index >= 0 && index < theLength ? name(theOps[at(index)]) : null;
+        }
+
+        @Override
+        public String getLocalName(final int index) {
+            return index >= 0 && index < theLength ? name(theOps[at(index) + 1]) : null;
+        }
+
+        @Override
+        public String getQName(final int index) {
+            return index >= 0 && index < theLength ? name(theOps[at(index) + 2]) : null;
+        }
+
+        @Override
+        public String getType(final int index) {
+            return index >= 0 && index < theLength ? name(theOps[at(index) + 3]) : null;
+        }
+
+        @Override
+        public String getValue(final int index) {
+            if (index < 0 || index >= theLength) {
+                return null;
+            }
+            int a = at(index);
+            return new String(theSlab, theOps[a + 4], theOps[a + 5]);
+        }
+
+        @Override
+        public int getIndex(final String uri, final String localName) {
+            for (int i = 0; i < theLength; i++) {
+                if (uri.equals(getURI(i)) && localName.equals(getLocalName(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int getIndex(final String qName) {
+            for (int i = 0; i < theLength; i++) {
+                if (qName.equals(getQName(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String getType(final String uri, final String localName) {
+            return getType(getIndex(uri, localName));
+        }
+
+        @Override
+        public String getType(final String qName) {
+            return getType(getIndex(qName));
+        }
+
+        @Override
+        public String getValue(final String uri, final String localName) {
+            return getValue(getIndex(uri, localName));
+        }
+
+        @Override
+        public String getValue(final String qName) {
+            return getValue(getIndex(qName));
+        }
+    }
+}
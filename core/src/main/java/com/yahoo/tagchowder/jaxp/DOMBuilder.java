@@ -0,0 +1,188 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder.jaxp;
+
+import java.util.ArrayList;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A ContentHandler that appends the events of a TagChowder {@link com.yahoo.tagchowder.Parser} directly to a W3C DOM {@link Document}. Element and
+ * attribute names are handed to the DOM exactly as the parser reports them, so the interned names of the schema are shared rather than copied.
+ * Adjacent character events are coalesced into a single Text node.
+ *
+ * <p>
+ * When the builder is not namespace aware, elements and attributes are created with the DOM level 1 methods and prefix mappings are ignored, so no
+ * namespace bookkeeping is done per event.
+ */
+public class DOMBuilder extends DefaultHandler implements LexicalHandler {
+
+    private final Document theDocument;
+    private final boolean namespaces;
+    private boolean ignoreComments = false;
+    private Node theCurrent;
+    private final StringBuilder theText = new StringBuilder();
+    private final ArrayList<String> thePrefixes = new ArrayList<>(); // pending prefix, uri pairs
+
+    /**
+     * Construct a builder that appends to the given document.
+     *
+     * @param document the document (or an empty document) to append to
+     * @param namespaces true if the parser reports namespace names, i.e. its namespaces feature is on
+     */
+    public DOMBuilder(final Document document, final boolean namespaces) {
+        theDocument = document;
+        this.namespaces = namespaces;
+        theCurrent = document;
+    }
+
+    /**
+     * Set whether comments are dropped instead of appended as Comment nodes.
+     *
+     * @param ignoreComments true to drop comments
+     */
+    public void setIgnoreComments(final boolean ignoreComments) {
+        this.ignoreComments = ignoreComments;
+    }
+
+    /**
+     * Return the document being built.
+     *
+     * @return the document
+     */
+    public Document getDocument() {
+        return theDocument;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        flushText();
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        if (namespaces && prefix.length() != 0) {
+            thePrefixes.add(prefix);
+            thePrefixes.add(uri);
+        }
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+        flushText();
+        Element e;
+        try {
+            if (namespaces) {
+                e = theDocument.createElementNS(uri.length() == 0 ? null : uri, qName);
+            } else {
+                e = theDocument.createElement(qName);
+            }
+        } catch (DOMException de) {
+            throw new SAXException("Cannot create element " + qName + ": " + de.getMessage());
+        }
+        for (int i = 0; i < thePrefixes.size(); i += 2) {
+            e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + thePrefixes.get(i), thePrefixes.get(i + 1));
+        }
+        thePrefixes.clear();
+        int len = atts.getLength();
+        for (int i = 0; i < len; i++) {
+            try {
+                if (namespaces) {
+                    String attUri = atts.getURI(i);
+                    e.setAttributeNS(attUri.length() == 0 ? null : attUri, atts.getQName(i), atts.getValue(i));
+                } else {
+                    e.setAttribute(atts.getQName(i), atts.getValue(i));
+                }
+            } catch (DOMException de) {
+                // HTML allows attribute names that are not XML names; the DOM cannot represent them
+                continue;
+            }
+        }
+        theCurrent.appendChild(e);
+        theCurrent = e;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        flushText();
+        theCurrent = theCurrent.getParentNode();
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        theText.append(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        flushText();
+        theCurrent.appendChild(theDocument.createProcessingInstruction(target, data));
+    }
+
+    // Append any pending characters as one Text node
+    private void flushText() {
+        if (theText.length() != 0) {
+            theCurrent.appendChild(theDocument.createTextNode(theText.toString()));
+            theText.setLength(0);
+        }
+    }
+
+    // LexicalHandler implementation
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+        if (ignoreComments) {
+            return;
+        }
+        flushText();
+        theCurrent.appendChild(theDocument.createComment(new String(ch, start, length)));
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder.jaxp;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.FactoryConfigurationError;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.DOMImplementation;
+import org.xml.sax.SAXException;
+
+import com.yahoo.tagchowder.Parser;
+
+/**
+ * This is a simple implementation of JAXP {@link DocumentBuilderFactory}, to allow building a W3C DOM from HTML without an identity transformation.
+ * Documents are created by the platform DOM implementation and filled in directly from {@link Parser} callbacks.
+ */
+public class DOMFactoryImpl extends DocumentBuilderFactory {
+    /** Class name of the DOM factory built into the JDK, used to obtain the DOM implementation. */
+    private static final String PLATFORM_FACTORY = "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl";
+
+    /** Holds the features; parsers of new document builders are copies of it. */
+    private Parser prototypeParser = null;
+
+    /** Whether the namespaces feature was set explicitly, which takes precedence over namespace awareness. */
+    private boolean namespacesFeatureSet = false;
+
+    private boolean secureProcessing = false;
+    private DOMImplementation domImplementation = null;
+
+    /**
+     * Constructor.
+     */
+    public DOMFactoryImpl() {
+        super();
+    }
+
+    /**
+     * Set the DOM implementation used to create documents. By default the DOM implementation of the JDK is used.
+     *
+     * @param domImplementation DOM implementation
+     */
+    public void setDOMImplementation(final DOMImplementation domImplementation) {
+        this.domImplementation = domImplementation;
+    }
+
+    // // // JAXP API implementation:
+
+    @Override
+    public DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        try {
+            Parser parser = getPrototype().copy();
+            if (!namespacesFeatureSet) {
+                parser.setFeature(Parser.NAMESPACES_FEATURE, isNamespaceAware());
+            }
+            return DocumentBuilderImpl.newInstance(getDOMImplementation(), parser, isIgnoringComments());
+        } catch (SAXException se) {
+            // Translate to ParserConfigurationException
+            throw new ParserConfigurationException(se.getMessage());
+        }
+    }
+
+    /**
+     * No attributes are supported.
+     */
+    @Override
+    public void setAttribute(final String name, final Object value) {
+        throw new IllegalArgumentException("Unknown attribute " + name);
+    }
+
+    /**
+     * No attributes are supported.
+     */
+    @Override
+    public Object getAttribute(final String name) {
+        throw new IllegalArgumentException("Unknown attribute " + name);
+    }
+
+    /**
+     * Defines that the specified feature is to enabled/disabled on parsers used by document builders created by this factory. Secure processing is
+     * accepted and has no further effect, since the parser never loads external entities.
+     */
+    @Override
+    public void setFeature(final String name, final boolean value) throws ParserConfigurationException {
+        if (XMLConstants.FEATURE_SECURE_PROCESSING.equals(name)) {
+            secureProcessing = value;
+            return;
+        }
+        try {
+            getPrototype().setFeature(name, value);
+        } catch (SAXException se) {
+            throw new ParserConfigurationException(se.getMessage());
+        }
+        if (Parser.NAMESPACES_FEATURE.equals(name)) {
+            namespacesFeatureSet = true;
+        }
+    }
+
+    @Override
+    public boolean getFeature(final String name) throws ParserConfigurationException {
+        if (XMLConstants.FEATURE_SECURE_PROCESSING.equals(name)) {
+            return secureProcessing;
+        }
+        try {
+            return getPrototype().getFeature(name);
+        } catch (SAXException se) {
+            throw new ParserConfigurationException(se.getMessage());
+        }
+    }
+
+    // // // Internal methods
+
+    private Parser getPrototype() {
+        if (prototypeParser == null) {
+            prototypeParser = new Parser();
+        }
+        return prototypeParser;
+    }
+
+    private DOMImplementation getDOMImplementation() throws ParserConfigurationException {
+        if (domImplementation == null) {
+            try {
+                domImplementation = DocumentBuilderFactory.newInstance(PLATFORM_FACTORY, null).newDocumentBuilder().getDOMImplementation();
+            } catch (FactoryConfigurationError fce) {
+                throw new ParserConfigurationException(fce.getMessage());
+            }
+        }
+        return domImplementation;
+    }
+}
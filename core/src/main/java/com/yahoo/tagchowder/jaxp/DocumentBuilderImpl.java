@@ -0,0 +1,138 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder.jaxp;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.yahoo.tagchowder.Parser;
+
+/**
+ * This is a simple implementation of JAXP {@link DocumentBuilder} that builds the DOM straight from TagChowder {@link Parser} callbacks with a
+ * {@link DOMBuilder}, instead of going through an identity transformation of a SAX source.
+ */
+public class DocumentBuilderImpl extends DocumentBuilder {
+    private final Parser parser;
+    private final DOMImplementation domImplementation;
+    private final boolean namespaces;
+    private final boolean ignoreComments;
+
+    protected DocumentBuilderImpl(final DOMImplementation domImplementation, final Parser parser, final boolean ignoreComments) throws SAXException {
+        super();
+        this.domImplementation = domImplementation;
+        this.parser = parser;
+        this.namespaces = parser.getFeature(Parser.NAMESPACES_FEATURE);
+        this.ignoreComments = ignoreComments;
+    }
+
+    /**
+     * Initialize new instance.
+     *
+     * @param domImplementation DOM implementation used to create documents
+     * @param namespaceAware whether element and attribute names are reported with namespaces
+     * @param ignoreComments whether comments are dropped
+     * @param features features map, applied after namespaceAware
+     * @return new DocumentBuilderImpl instance
+     * @throws SAXException SAXException
+     */
+    public static DocumentBuilderImpl newInstance(final DOMImplementation domImplementation, final boolean namespaceAware,
+            final boolean ignoreComments, final Map features) throws SAXException {
+        Parser parser = new Parser();
+        parser.setFeature(Parser.NAMESPACES_FEATURE, namespaceAware);
+        if (features != null) {
+            Iterator it = features.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                parser.setFeature((String) entry.getKey(), ((Boolean) entry.getValue()).booleanValue());
+            }
+        }
+        return new DocumentBuilderImpl(domImplementation, parser, ignoreComments);
+    }
+
+    /**
+     * Initialize new instance around a configured parser, such as a copy of a prototype.
+     *
+     * @param domImplementation DOM implementation used to create documents
+     * @param parser the parser, owned by the new instance
+     * @param ignoreComments whether comments are dropped
+     * @return new DocumentBuilderImpl instance
+     * @throws SAXException SAXException
+     */
+    public static DocumentBuilderImpl newInstance(final DOMImplementation domImplementation, final Parser parser, final boolean ignoreComments)
+            throws SAXException {
+        return new DocumentBuilderImpl(domImplementation, parser, ignoreComments);
+    }
+
+    // // // JAXP API implementation:
+
+    @Override
+    public Document parse(final InputSource is) throws SAXException, IOException {
+        Document document = newDocument();
+        DOMBuilder builder = new DOMBuilder(document, namespaces);
+        builder.setIgnoreComments(ignoreComments);
+        parser.setContentHandler(builder);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, builder);
+        try {
+            parser.parse(is);
+        } finally {
+            parser.setContentHandler(null);
+            parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, null);
+        }
+        return document;
+    }
+
+    @Override
+    public boolean isNamespaceAware() {
+        return namespaces;
+    }
+
+    @Override
+    public boolean isValidating() {
+        return false;
+    }
+
+    @Override
+    public void setEntityResolver(final EntityResolver er) {
+        parser.setEntityResolver(er);
+    }
+
+    @Override
+    public void setErrorHandler(final ErrorHandler eh) {
+        parser.setErrorHandler(eh);
+    }
+
+    @Override
+    public Document newDocument() {
+        return domImplementation.createDocument(null, null, null);
+    }
+
+    @Override
+    public DOMImplementation getDOMImplementation() {
+        return domImplementation;
+    }
+}
@@ -21,14 +21,10 @@
 
 package com.yahoo.tagchowder.jaxp;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 
@@ -40,20 +36,12 @@ import org.xml.sax.SAXNotSupportedException;
  */
 public class SAXFactoryImpl extends SAXParserFactory {
     /**
-     * The easiest way to test validity of features to set is to use a prototype object. Currently this is actually not a real prototype, in the sense
-     * that the configuration is actually passed separately (as opposed to instantiating new readers from this prototype), but this could be changed
-     * in future, if TagChowder parser object allowed cloning.
+     * Features are set on a prototype object, which also validates them. New parsers are copies of the prototype, so they start from its
+     * configuration without replaying the features, and share its schema where that is safe (see {@link com.yahoo.tagchowder.Parser#copy()}).
+     * Settings can still be changed between instantiations.
      */
     private SAXParserImpl prototypeParser = null;
 
-    /**
-     * This Map contains explicitly set features that can be succesfully set for XMLReader instances. Temporary storage is needed due to JAXP design:
-     * multiple readers can be instantiated from a single factory, and settings can be changed between instantiations.
-     * <p>
-     * Note that we wouldn't need this map if we could create instances directly using the prototype instance.
-     */
-    private HashMap features = null;
-
     /**
      * Constructor.
      */
@@ -68,12 +56,7 @@ public class SAXFactoryImpl extends SAXParserFactory {
      */
     @Override
     public SAXParser newSAXParser() throws ParserConfigurationException {
-        try {
-            return SAXParserImpl.newInstance(features);
-        } catch (SAXException se) {
-            // Translate to ParserConfigurationException
-            throw new ParserConfigurationException(se.getMessage());
-        }
+        return getPrototype().copy();
     }
 
     /**
@@ -82,15 +65,8 @@ public class SAXFactoryImpl extends SAXParserFactory {
     @Override
     public void setFeature(final String name, final boolean value)
             throws ParserConfigurationException, SAXNotRecognizedException, SAXNotSupportedException {
-        // First, let's see if it's a valid call
+        // Throws if it's not a valid call
         getPrototype().setFeature(name, value);
-
-        // If not, exception was thrown: so we are good now:
-        if (features == null) {
-            // Let's retain the ordering as well
-            features = new LinkedHashMap();
-        }
-        features.put(name, value ? Boolean.TRUE : Boolean.FALSE);
     }
 
     /**
@@ -46,6 +46,11 @@ public class SAXParserImpl extends SAXParser {
         parser = new Parser();
     }
 
+    protected SAXParserImpl(final Parser parser) { // used by factory, for copies of its prototype
+        super();
+        this.parser = parser;
+    }
+
     /**
      * Initialize new instance.
      *
@@ -113,6 +118,15 @@ public class SAXParserImpl extends SAXParser {
 
     // // // Additional convenience methods
 
+    /**
+     * Return a new instance with the configuration of this one, as given by {@link Parser#copy()}.
+     *
+     * @return new SAXParserImpl instance
+     */
+    public SAXParserImpl copy() {
+        return new SAXParserImpl(parser.copy());
+    }
+
     /**
      * Set feature.
      *
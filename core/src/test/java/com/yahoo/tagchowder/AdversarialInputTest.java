@@ -0,0 +1,187 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Performance regression test on pathological input. Every document of a generated corpus is parsed at two sizes, and the growth of parse time
+ * and allocation must stay close to the growth of the input. Linear growth gives a ratio near {@link #FACTOR}, quadratic growth its square.
+ */
+public class AdversarialInputTest {
+
+    private static final int SIZE = 100_000; // characters of the smaller document
+    private static final int FACTOR = 8;
+    private static final double MAX_TIME_GROWTH = FACTOR * FACTOR / 2.0;
+    private static final double MAX_ALLOCATION_GROWTH = FACTOR * 2.0;
+    private static final int RUNS = 5; // parses of the smaller document per measurement, the fastest counts
+    private static final int ATTEMPTS = 3; // measurements before a time growth is reported
+    private static final long PARSE_TIMEOUT = 20; // seconds; far beyond any linear parse of the corpus
+
+    /**
+     * The adversarial corpus. A document is a prefix, units repeated up to the size, and a suffix, parsed with the given features on.
+     */
+    private enum Corpus {
+        DEEP_NESTING("", i -> "<div>", "x"),
+        DEEP_TABLES("", i -> "<table><tr><td>", "x"),
+        UNCLOSED_RESTARTABLE("", i -> "<b><p>x", "", Parser.LIMIT_RESTARTS_FEATURE),
+        MISNESTED_RESTARTABLE("", i -> "<b><i>x<p>y</b>", "", Parser.LIMIT_RESTARTS_FEATURE),
+        MISNESTED_RESTARTABLE_ATTRIBUTES("", i -> "<b><i class=" + i + ">x<p>y</b>", "", Parser.LIMIT_RESTARTS_FEATURE),
+        STRAY_END_TAGS("<p>", i -> "</div></table></nosuch>", ""),
+        NESTED_STRAY_END_TAGS("", i -> i % 10 == 0 ? "<div>" : "</span>", ""),
+        UNKNOWN_ELEMENTS("", i -> "<x" + i + ">", ""),
+        HUGE_ATTRIBUTE_COUNT("<div", i -> " a" + i + "=v", ">"),
+        DUPLICATE_ATTRIBUTES("<div", i -> " a=v", ">"),
+        UNTERMINATED_ATTRIBUTE_VALUE("<a href=\"", i -> "x&amp;", ""),
+        ENTITIES("", i -> "&amp;&lt;&nosuch;&#65;&#x1F600;&", ""),
+        ENDLESS_ENTITY_NAME("&", i -> "a", ""),
+        ENDLESS_NUMERIC_ENTITY("&#", i -> "9", ""),
+        UNTERMINATED_COMMENT("<!--", i -> "x-", ""),
+        SCRIPT_FAKE_END_TAGS("<script>", i -> "</scrip></scripts></ script><!--", "</script>"),
+        UNTERMINATED_SCRIPT("<script>", i -> "a<b", "");
+
+        private final String thePrefix;
+        private final IntFunction<String> theUnit;
+        private final String theSuffix;
+        private final String[] theFeatures;
+
+        Corpus(final String prefix, final IntFunction<String> unit, final String suffix, final String... features) {
+            thePrefix = prefix;
+            theUnit = unit;
+            theSuffix = suffix;
+            theFeatures = features;
+        }
+
+        String document(final int size) {
+            StringBuilder sb = new StringBuilder(size + theSuffix.length()).append(thePrefix);
+            for (int i = 0; sb.length() < size; i++) {
+                sb.append(theUnit.apply(i));
+            }
+            return sb.append(theSuffix).toString();
+        }
+    }
+
+    /**
+     * Return the corpus.
+     *
+     * @return one document generator per test
+     */
+    @DataProvider(name = "corpus")
+    public Object[][] corpus() {
+        Corpus[] values = Corpus.values();
+        Object[][] data = new Object[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = new Object[] {values[i]};
+        }
+        return data;
+    }
+
+    /**
+     * Test that parse time grows linearly with the input.
+     *
+     * @param corpus document generator
+     * @throws Exception exception
+     */
+    @Test(dataProvider = "corpus")
+    public void testTimeGrowth(final Corpus corpus) throws Exception {
+        String small = corpus.document(SIZE);
+        String large = corpus.document(SIZE * FACTOR);
+        long budget = 0;
+        long time = 0;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            budget = (long) (fastestParse(corpus, small) * MAX_TIME_GROWTH);
+            for (int i = 0; i < RUNS; i++) {
+                time = parseTime(corpus, large);
+                if (time <= budget) {
+                    return;
+                }
+                if (time > budget * FACTOR) {
+                    break; // far beyond noise; more runs of a regression would keep the suite busy for minutes
+                }
+            }
+            if (time > budget * FACTOR) {
+                break;
+            }
+        }
+        Assert.fail(corpus + ": parse time grew " + Math.round(time * MAX_TIME_GROWTH / budget) + " times for " + FACTOR + " times the input");
+    }
+
+    /**
+     * Test that allocation grows linearly with the input.
+     *
+     * @param corpus document generator
+     * @throws Exception exception
+     */
+    @Test(dataProvider = "corpus")
+    public void testAllocationGrowth(final Corpus corpus) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return; // allocation is not measured on this JVM
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        String small = corpus.document(SIZE);
+        String large = corpus.document(SIZE * FACTOR);
+        parse(corpus, small);
+        double growth = (double) allocation(bean, corpus, large) / allocation(bean, corpus, small);
+        Assert.assertTrue(growth <= MAX_ALLOCATION_GROWTH,
+                corpus + ": allocation grew " + Math.round(growth) + " times for " + FACTOR + " times the input");
+    }
+
+    private static long fastestParse(final Corpus corpus, final String document) throws Exception {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            fastest = Math.min(fastest, parseTime(corpus, document));
+        }
+        return fastest;
+    }
+
+    private static long parseTime(final Corpus corpus, final String document) throws Exception {
+        long start = System.nanoTime();
+        parse(corpus, document);
+        return System.nanoTime() - start;
+    }
+
+    private static long allocation(final com.sun.management.ThreadMXBean bean, final Corpus corpus, final String document) throws Exception {
+        long id = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(id);
+        parse(corpus, document);
+        return bean.getThreadAllocatedBytes(id) - start;
+    }
+
+    private static void parse(final Corpus corpus, final String document) throws Exception {
+        Parser parser = new Parser();
+        for (String feature : corpus.theFeatures) {
+            parser.setFeature(feature, true);
+        }
+        parser.setProperty(Parser.CANCELLATION_TOKEN_PROPERTY, CancellationToken.withTimeout(PARSE_TIMEOUT, TimeUnit.SECONDS));
+        try {
+            parser.parse(new InputSource(new StringReader(document)));
+        } catch (ParseCancelledException e) {
+            Assert.fail("parse did not finish in " + PARSE_TIMEOUT + " seconds, after " + e.getCharacterCount() + " characters", e);
+        }
+    }
+}
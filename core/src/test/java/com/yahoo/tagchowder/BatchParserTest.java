@@ -0,0 +1,169 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link BatchParser}.
+ */
+public class BatchParserTest {
+
+    /**
+     * Verify that all documents are parsed and failures are reported without stopping the batch.
+     *
+     * @throws InterruptedException InterruptedException
+     */
+    @Test
+    public void testParseAll() throws InterruptedException {
+        final List<InputSource> inputs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            if (i % 50 == 7) {
+                final InputSource broken = new InputSource(new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("broken");
+                    }
+                });
+                broken.setSystemId("broken" + i);
+                inputs.add(broken);
+            } else {
+                inputs.add(new InputSource(new StringReader("<p>x<foo>" + "<b>y</b>".repeat(i) + "</foo>")));
+            }
+        }
+        final AtomicInteger elements = new AtomicInteger();
+        final AtomicInteger documents = new AtomicInteger();
+        final List<BatchParser.Failure> failures = BatchParser.parseAll(inputs, () -> new DefaultHandler() {
+            @Override
+            public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                elements.incrementAndGet();
+            }
+
+            @Override
+            public void endDocument() {
+                documents.incrementAndGet();
+            }
+        }, 3);
+        Assert.assertEquals(failures.size(), 4);
+        Assert.assertEquals(failures.get(0).index(), 7L);
+        Assert.assertEquals(failures.get(3).input().getSystemId(), "broken157");
+        Assert.assertTrue(failures.get(0).cause() instanceof IOException, String.valueOf(failures.get(0).cause()));
+        Assert.assertEquals(documents.get(), 196);
+        int expected = 0;
+        for (int i = 0; i < 200; i++) {
+            if (i % 50 != 7) {
+                expected += 4 + i; // html, body, p, foo and the b elements
+            }
+        }
+        Assert.assertEquals(elements.get(), expected);
+    }
+
+    /**
+     * Verify that small documents after a slow one are parsed while it is still running, instead of waiting for it.
+     *
+     * @throws InterruptedException InterruptedException
+     */
+    @Test
+    public void testSlowDocument() throws InterruptedException {
+        final int small = 100;
+        final CountDownLatch smallDone = new CountDownLatch(small);
+        final AtomicBoolean overtaken = new AtomicBoolean();
+        final List<InputSource> inputs = new ArrayList<>();
+        inputs.add(new InputSource(new Reader() {
+            private boolean theWaited;
+
+            @Override
+            public int read(final char[] cbuf, final int off, final int len) throws IOException {
+                if (theWaited) {
+                    return -1;
+                }
+                theWaited = true;
+                try {
+                    overtaken.set(smallDone.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                cbuf[off] = 'x';
+                return 1;
+            }
+
+            @Override
+            public void close() {
+            }
+        }));
+        for (int i = 0; i < small; i++) {
+            inputs.add(new InputSource(new StringReader("<p>small " + i)));
+        }
+        final List<BatchParser.Failure> failures = BatchParser.parseAll(inputs, () -> new DefaultHandler() {
+            @Override
+            public void endDocument() {
+                smallDone.countDown();
+            }
+        }, 2);
+        Assert.assertTrue(failures.isEmpty(), String.valueOf(failures));
+        Assert.assertTrue(overtaken.get(), "small documents waited for the slow one");
+    }
+
+    /**
+     * Verify that features are applied to the worker parsers.
+     *
+     * @throws InterruptedException InterruptedException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testFeatures() throws InterruptedException, SAXException {
+        final BatchParser batch = new BatchParser(2);
+        batch.setFeature(Parser.IGNORE_BOGONS_FEATURE, true);
+        final List<InputSource> inputs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            inputs.add(new InputSource(new StringReader("<p>x<foo" + i + ">y</foo" + i + "></p>")));
+        }
+        final AtomicInteger elements = new AtomicInteger();
+        final List<BatchParser.Failure> failures = batch.parse(inputs, () -> new DefaultHandler() {
+            @Override
+            public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                elements.incrementAndGet();
+            }
+        });
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(elements.get(), 20 * 3);
+        try {
+            batch.setFeature("http://example.com/unknown", true);
+            Assert.fail("Expected unknown feature");
+        } catch (SAXException e) {
+            // expected
+        }
+    }
+}
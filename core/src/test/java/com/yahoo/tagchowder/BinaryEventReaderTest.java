@@ -0,0 +1,134 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test for {@link BinaryEventReader} and {@link BinaryEventWriter}.
+ */
+public class BinaryEventReaderTest {
+
+    private static final String HTML = "<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\"><html><head><title>T &amp; t</title>"
+        + "<script>if (a < b) x();</script></head><body><!-- note --><p id=p1 class='a b'>one<br>two &#xD800; \u00e9\u20ac<?pi data?>"
+        + "<svg:rect width=1 /><blink>bogon</blink><![CDATA[ <raw> ]]><table><tr><td>cell</table></body></html>";
+
+    private static String xml(final String html) throws IOException, SAXException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final XMLWriter writer = new XMLWriter(out);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        parser.parse(new InputSource(new StringReader(html)));
+        return out.toString();
+    }
+
+    private static void write(final String html, final OutputStream out, final boolean indexed) throws IOException, SAXException {
+        final Parser parser = new Parser();
+        final BinaryEventWriter writer = new BinaryEventWriter(out, indexed);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        parser.parse(new InputSource(new StringReader(html)));
+    }
+
+    private static String replay(final BinaryEventReader reader) throws SAXException {
+        final StringWriter out = new StringWriter();
+        reader.replay(new XMLWriter(out));
+        return out.toString();
+    }
+
+    /**
+     * Verify that a stored document, read back from a mapped file, gives the same events as parsing.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testRoundTrip() throws IOException, SAXException {
+        final Path file = Files.createTempFile("tagchowder", ".bin");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                write(HTML, out, false);
+            }
+            final BinaryEventReader reader = new BinaryEventReader(file);
+            Assert.assertFalse(reader.isIndexed());
+            Assert.assertEquals(reader.getElementCount(), -1);
+            final String expected = xml(HTML);
+            Assert.assertEquals(replay(reader), expected);
+            Assert.assertEquals(replay(reader), expected);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Verify replaying single elements through the index.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testIndex() throws IOException, SAXException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write("<html><body><p>one<b>two</b></p><p>three", out, true);
+        final BinaryEventReader reader = new BinaryEventReader(ByteBuffer.wrap(out.toByteArray()));
+        Assert.assertTrue(reader.isIndexed());
+        Assert.assertEquals(reader.getElementCount(), 5);
+        final StringWriter fragment = new StringWriter();
+        final XMLWriter writer = new XMLWriter(fragment);
+        writer.startDocument();
+        reader.replayElement(2, writer);
+        reader.replayElement(4, writer);
+        writer.endDocument();
+        final String xmlns = " xmlns=\"http://www.w3.org/1999/xhtml\"";
+        Assert.assertTrue(fragment.toString().trim().endsWith("<p" + xmlns + ">one<b>two</b></p>\n<p" + xmlns + ">three</p>"), fragment.toString());
+    }
+
+    /**
+     * Verify that other data is rejected.
+     *
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testNotAnEventFile() throws SAXException {
+        try {
+            new BinaryEventReader(ByteBuffer.wrap("<html>".getBytes()));
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Not a binary event file");
+        }
+        try {
+            new BinaryEventReader(ByteBuffer.wrap(new byte[] {'T', 'C', 'E', 'V', 1, 0, 5}));
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Truncated binary event file");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link CancellationToken}.
+ */
+public class CancellationTokenTest {
+
+    private static final String HTML;
+
+    static {
+        StringBuilder sb = new StringBuilder("<html><body>\n");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<p class='x'>paragraph ").append(i).append("</p>\n");
+        }
+        HTML = sb.toString();
+    }
+
+    private static ParseCancelledException assertCancelled(final Parser parser) throws IOException {
+        try {
+            parser.parse(new InputSource(new StringReader(HTML)));
+        } catch (ParseCancelledException e) {
+            return e;
+        } catch (SAXException e) {
+            Assert.fail("unexpected exception", e);
+        }
+        Assert.fail("parse was not cancelled");
+        return null;
+    }
+
+    /**
+     * Verify that a cancelled or expired token stops a parse early, with its progress, and that a live token does not.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testStop() throws IOException, SAXException {
+        Parser parser = new Parser();
+        final CancellationToken cancelled = new CancellationToken();
+        cancelled.cancel();
+        parser.setProperty(Parser.CANCELLATION_TOKEN_PROPERTY, cancelled);
+        ParseCancelledException e = assertCancelled(parser);
+        Assert.assertFalse(e.isDeadlinePassed());
+        Assert.assertEquals(e.getCharacterCount(), 4096L);
+        Assert.assertTrue(e.getLineNumber() > 0, e.toString());
+
+        parser.setProperty(Parser.CANCELLATION_TOKEN_PROPERTY, CancellationToken.withTimeout(0, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(assertCancelled(parser).isDeadlinePassed());
+
+        final CancellationToken live = CancellationToken.withTimeout(1, TimeUnit.HOURS);
+        parser.setProperty(Parser.CANCELLATION_TOKEN_PROPERTY, live);
+        Assert.assertSame(parser.getProperty(Parser.CANCELLATION_TOKEN_PROPERTY), live);
+        parser.parse(new InputSource(new StringReader(HTML)));
+        Assert.assertFalse(live.isCancelled() || live.isExpired());
+    }
+
+    /**
+     * Verify that a token cancelled during the parse stops it within the check interval, and no end of document is reported.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testCancelDuringParse() throws IOException, SAXException {
+        for (boolean pipelined : new boolean[] {false, true}) {
+            final CancellationToken token = new CancellationToken();
+            final AtomicInteger paragraphs = new AtomicInteger();
+            final AtomicInteger ends = new AtomicInteger();
+            Parser parser = new Parser();
+            if (pipelined) {
+                parser.setProperty(Parser.SCANNER_PROPERTY, new PipelinedScanner());
+            }
+            parser.setProperty(Parser.CANCELLATION_TOKEN_PROPERTY, token);
+            parser.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                    if (paragraphs.incrementAndGet() == 100) {
+                        token.cancel();
+                    }
+                }
+
+                @Override
+                public void endDocument() {
+                    ends.incrementAndGet();
+                }
+            });
+            ParseCancelledException e = assertCancelled(parser);
+            Assert.assertTrue(paragraphs.get() < 1000, "pipelined " + pipelined + ": " + paragraphs.get());
+            Assert.assertEquals(ends.get(), 0);
+            Assert.assertTrue(e.getCharacterCount() < HTML.length());
+        }
+    }
+
+    /**
+     * Verify that a token cancelled during a speculative parse stops it, although its chunks are replayed rather than scanned by the parser.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testCancelSpeculativeParse() throws IOException, SAXException {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            html.append("<p class='x'>paragraph ").append(i).append("</p>");
+        }
+        final CancellationToken token = new CancellationToken();
+        final AtomicInteger paragraphs = new AtomicInteger();
+        Parser parser = new Parser();
+        parser.setProperty(Parser.CANCELLATION_TOKEN_PROPERTY, token);
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                if (paragraphs.incrementAndGet() == 500) {
+                    token.cancel();
+                }
+            }
+        });
+        SpeculativeParser speculative = new SpeculativeParser(parser, 2);
+        speculative.setChunkSize(4096);
+        try {
+            speculative.parse(new InputSource(new StringReader(html.toString())));
+            Assert.fail("parse was not cancelled");
+        } catch (ParseCancelledException e) {
+            Assert.assertTrue(e.getCharacterCount() < html.length());
+        }
+        Assert.assertTrue(speculative.getChunkCount() > 10);
+        Assert.assertEquals(speculative.getRescanCount(), 0);
+        Assert.assertTrue(paragraphs.get() < 1000, String.valueOf(paragraphs.get()));
+    }
+}
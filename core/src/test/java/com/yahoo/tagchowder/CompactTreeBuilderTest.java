@@ -0,0 +1,116 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test for {@link CompactTreeBuilder} and {@link CompactTree}.
+ */
+public class CompactTreeBuilderTest {
+
+    private CompactTree build(final String html) throws IOException, SAXException {
+        final Parser parser = new Parser();
+        final CompactTreeBuilder builder = new CompactTreeBuilder(parser);
+        parser.setContentHandler(builder);
+        parser.parse(new InputSource(new StringReader(html)));
+        return builder.getTree();
+    }
+
+    /**
+     * Verify structure, names, attributes and text of a small document.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testStructure() throws IOException, SAXException {
+        final CompactTree tree = build("<p class=x>Hello <b>big</b> world<p>second");
+        final int html = tree.rootElement();
+        Assert.assertEquals(tree.name(html), "html");
+        Assert.assertEquals(tree.parent(html), 0);
+        final int body = tree.firstChild(html);
+        Assert.assertEquals(tree.name(body), "body");
+
+        final int p1 = tree.firstChild(body);
+        Assert.assertEquals(tree.name(p1), "p");
+        Assert.assertEquals(tree.getAttribute(p1, "class"), "x");
+        Assert.assertEquals(tree.attributeCount(p1), 1);
+        Assert.assertEquals(tree.attributeName(p1, 0), "class");
+        Assert.assertEquals(tree.attributeValue(p1, 0), "x");
+        Assert.assertEquals(tree.textContent(p1), "Hello big world");
+
+        final int text = tree.firstChild(p1);
+        Assert.assertTrue(tree.isText(text));
+        Assert.assertEquals(tree.text(text), "Hello ");
+        final int b = tree.nextSibling(text);
+        Assert.assertEquals(tree.elementType(b), tree.schema().getElementType("b"));
+
+        final int p2 = tree.nextSibling(p1);
+        Assert.assertEquals(tree.name(p2), "p");
+        Assert.assertEquals(tree.textContent(p2), "second");
+        Assert.assertEquals(tree.nextSibling(p2), CompactTree.NONE);
+    }
+
+    /**
+     * Verify that node views navigate the same structure as the int API.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testNodeViews() throws IOException, SAXException {
+        final CompactTree tree = build("<div id=a><span>one</span><span>two</span></div>");
+        final CompactTree.Node div = tree.node(tree.rootElement()).firstChild().firstChild();
+        Assert.assertEquals(div.name(), "div");
+        Assert.assertEquals(div.getAttribute("id"), "a");
+        Assert.assertEquals(div.firstChild().nextSibling().textContent(), "two");
+        Assert.assertNull(div.firstChild().nextSibling().nextSibling());
+        Assert.assertEquals(div.firstChild().parent(), div);
+        Assert.assertEquals(tree.document().textContent(), "onetwo");
+    }
+
+    /**
+     * Verify that character events split by the scanner buffer end up in one text node.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testMergedText() throws IOException, SAXException {
+        final StringBuilder sb = new StringBuilder("<p>");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("0123456789");
+        }
+        final Parser parser = new Parser();
+        parser.setDefaultBufferSize(100);
+        final CompactTreeBuilder builder = new CompactTreeBuilder(parser);
+        parser.setContentHandler(builder);
+        parser.parse(new InputSource(new StringReader(sb.toString())));
+        final CompactTree tree = builder.getTree();
+        final int p = tree.firstChild(tree.firstChild(tree.rootElement()));
+        Assert.assertEquals(tree.text(tree.firstChild(p)).length(), 10000);
+        Assert.assertEquals(tree.nextSibling(tree.firstChild(p)), CompactTree.NONE);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link HTMLAutoDetector}.
+ */
+public class HTMLAutoDetectorTest {
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    /**
+     * Verify that byte order marks are recognized.
+     */
+    @Test
+    public void testBom() {
+        Assert.assertEquals(detect("ï»¿<p>"), StandardCharsets.UTF_8);
+        Assert.assertEquals(detect("þÿ\u0000<"), StandardCharsets.UTF_16BE);
+        Assert.assertEquals(detect("ÿþ<\u0000"), StandardCharsets.UTF_16LE);
+    }
+
+    /**
+     * Verify the meta declarations that are recognized, and those that are not.
+     */
+    @Test
+    public void testMeta() {
+        Assert.assertEquals(detect("<html><head><meta charset=utf-8>"), StandardCharsets.UTF_8);
+        Assert.assertEquals(detect("<!DOCTYPE html><META CharSet='Shift_JIS'/>"), Charset.forName("Shift_JIS"));
+        Assert.assertEquals(detect("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=euc-kr\">"), Charset.forName("EUC-KR"));
+        Assert.assertEquals(detect("<meta content='text/html;charset=\"koi8-r\"' http-equiv=content-type>"), Charset.forName("KOI8-R"));
+        Assert.assertEquals(detect("<meta charset=iso-8859-1>"), WINDOWS_1252);
+        Assert.assertEquals(detect("<meta charset=utf-16>"), StandardCharsets.UTF_8);
+        Assert.assertEquals(detect("<meta charset=bogus><meta charset=utf-8>"), StandardCharsets.UTF_8);
+        Assert.assertNull(detect("<meta content=\"text/html; charset=utf-8\">"), "content without http-equiv");
+        Assert.assertNull(detect("<!-- <meta charset=utf-8> --><p>"), "in a comment");
+        Assert.assertNull(detect("<img alt=\"<meta charset=utf-8>\">"), "in an attribute value");
+        Assert.assertNull(detect("<p>text</p>"));
+        Assert.assertNull(detect("<meta charset=\"utf-8"), "unterminated value");
+    }
+
+    /**
+     * Verify that a declaration past the prescan window is ignored.
+     */
+    @Test
+    public void testWindow() {
+        StringBuilder sb = new StringBuilder("<html>");
+        while (sb.length() < HTMLAutoDetector.PRESCAN_SIZE) {
+            sb.append("<!-- padding -->");
+        }
+        Assert.assertNull(detect(sb + "<meta charset=utf-8>"));
+    }
+
+    /**
+     * Verify that the reader decodes the prescanned bytes and the rest of the stream with the detected charset, dropping a byte order mark.
+     *
+     * @throws IOException IOException
+     */
+    @Test
+    public void testReader() throws IOException {
+        StringBuilder sb = new StringBuilder("<meta charset=\"windows-1252\"><p>é’");
+        for (int i = 0; i < 500; i++) {
+            sb.append(" café");
+        }
+        String html = sb.toString();
+        Assert.assertEquals(read(new HTMLAutoDetector(StandardCharsets.UTF_8), html.getBytes(WINDOWS_1252)), html);
+        byte[] utf8 = html.replace("windows-1252", "utf-8").getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(read(new HTMLAutoDetector(WINDOWS_1252), utf8), html.replace("windows-1252", "utf-8"));
+        byte[] bom = ("﻿<p>é").getBytes(StandardCharsets.UTF_16LE);
+        Assert.assertEquals(read(new HTMLAutoDetector(WINDOWS_1252), bom), "<p>é");
+        Assert.assertEquals(read(new HTMLAutoDetector(StandardCharsets.UTF_8), "<p>é".getBytes(StandardCharsets.UTF_8)), "<p>é");
+    }
+
+    /**
+     * Verify that the parser decodes a byte stream with the charset its meta declares.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testParser() throws IOException, SAXException {
+        byte[] bytes = "<meta charset=koi8-r><p>привет</p>".getBytes(Charset.forName("KOI8-R"));
+        final StringBuilder text = new StringBuilder();
+        Parser parser = new Parser();
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void characters(final char[] ch, final int start, final int length) {
+                text.append(ch, start, length);
+            }
+        });
+        parser.parse(new InputSource(new ByteArrayInputStream(bytes)));
+        Assert.assertEquals(text.toString(), "привет");
+    }
+
+    private static Charset detect(final String latin1) {
+        byte[] bytes = latin1.getBytes(StandardCharsets.ISO_8859_1);
+        return HTMLAutoDetector.detect(bytes, Math.min(bytes.length, HTMLAutoDetector.PRESCAN_SIZE));
+    }
+
+    private static String read(final HTMLAutoDetector detector, final byte[] bytes) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[100];
+        try (Reader r = detector.autoDetectingReader(new ByteArrayInputStream(bytes))) {
+            for (int n = r.read(buf); n >= 0; n = r.read(buf)) {
+                sb.append(buf, 0, n);
+            }
+        }
+        return sb.toString();
+    }
+}
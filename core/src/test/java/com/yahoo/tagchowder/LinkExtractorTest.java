@@ -0,0 +1,85 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test for {@link LinkExtractor}.
+ */
+public class LinkExtractorTest {
+
+    private List<String> extract(final LinkExtractor extractor, final String systemId, final String html) throws IOException, SAXException {
+        final Parser parser = new Parser();
+        parser.setContentHandler(extractor);
+        final InputSource input = new InputSource(new StringReader(html));
+        input.setSystemId(systemId);
+        parser.parse(input);
+        final List<String> result = new ArrayList<>();
+        for (LinkExtractor.Link link : extractor.getLinks()) {
+            result.add(link.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Verify the default interests and resolution against the system id.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testDefaults() throws IOException, SAXException {
+        final String html = "<a href='a.html' title='x.html'>1</a><A HREF=' /b '>2</A><img src='i.png' srcset='s1.png 1x, s2.png 2x' alt='no.png'>"
+                + "<form action='?q'></form><div href='ignored'></div><a name='x'></a><a href=''>empty</a>";
+        Assert.assertEquals(extract(new LinkExtractor(), "http://example.com", html),
+                Arrays.asList("a@href=http://example.com/a.html", "a@href=http://example.com/b", "img@src=http://example.com/i.png",
+                        "img@srcset=http://example.com/s1.png", "img@srcset=http://example.com/s2.png", "form@action=http://example.com/?q"));
+    }
+
+    /**
+     * Verify that the first base element changes the base, and custom interests.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testBaseAndInterests() throws IOException, SAXException {
+        final LinkExtractor extractor = new LinkExtractor(false);
+        extractor.addInterest("A", "HREF");
+        extractor.addInterest("div", "data-url");
+        extractor.setDocumentBase("http://example.com/dir/page.html");
+        final String html = "<html><head><base href='../other/'><base href='http://ignored/'></head>"
+                + "<body><a href='x'>1</a><a href='x'>2</a><div data-url='//cdn.example.com/y'></div><a href='mailto:a@b.c'>m</a>"
+                + "<img src='i.png'></body></html>";
+        Assert.assertEquals(extract(extractor, null, html), Arrays.asList("a@href=http://example.com/other/x",
+                "a@href=http://example.com/other/x", "div@data-url=http://cdn.example.com/y", "a@href=mailto:a@b.c"));
+        // Without a base, relative links are reported as found
+        extractor.setDocumentBase(null);
+        Assert.assertEquals(extract(extractor, null, "<a href=' x '>1</a>"), Arrays.asList("a@href=x"));
+    }
+}
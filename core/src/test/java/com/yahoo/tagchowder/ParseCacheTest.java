@@ -0,0 +1,198 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test for {@link ParseCache}.
+ */
+public class ParseCacheTest {
+
+    private static final String HTML = "<html><head><title>T &amp; t</title><script>if (a < b) x();</script></head>"
+        + "<body><!-- note --><p id=p1>one<br>two<blink>bogon</blink><table><tr><td>cell</table></body></html>";
+
+    private static String parse(final ParseCache cache, final InputSource input, final boolean ignoreBogons) throws IOException, SAXException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final XMLWriter writer = new XMLWriter(out);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        parser.setFeature(Parser.IGNORE_BOGONS_FEATURE, ignoreBogons);
+        if (cache == null) {
+            parser.parse(input);
+        } else {
+            cache.parse(parser, input);
+        }
+        return out.toString();
+    }
+
+    private static InputSource chars(final String html) {
+        return new InputSource(new StringReader(html));
+    }
+
+    private static InputSource bytes(final String html) {
+        final InputSource input = new InputSource(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
+        input.setEncoding("UTF-8");
+        return input;
+    }
+
+    /**
+     * Verify that hits replay the same document as parsing, and that content, features and kind of input are part of the key.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testHitsAndMisses() throws IOException, SAXException {
+        final ParseCache cache = new ParseCache(1 << 20);
+        final String expected = parse(null, chars(HTML), false);
+        Assert.assertEquals(parse(cache, chars(HTML), false), expected);
+        Assert.assertEquals(parse(cache, chars(HTML), false), expected);
+        Assert.assertEquals(cache.getMissCount(), 1);
+        Assert.assertEquals(cache.getHitCount(), 1);
+        Assert.assertEquals(parse(cache, bytes(HTML), false), expected);
+        Assert.assertEquals(parse(cache, bytes(HTML), false), expected);
+        Assert.assertEquals(parse(cache, chars(HTML + " "), false), parse(null, chars(HTML + " "), false));
+        Assert.assertEquals(parse(cache, chars(HTML), true), parse(null, chars(HTML), true));
+        Assert.assertEquals(cache.getMissCount(), 4);
+        Assert.assertEquals(cache.getHitCount(), 2);
+        Assert.assertEquals(cache.getEntryCount(), 4);
+        Assert.assertTrue(cache.getByteCount() > 0);
+
+        // The parser's lazily created defaults don't change the key
+        final ParseCache reuse = new ParseCache(1 << 20);
+        final Parser parser = new Parser();
+        reuse.parse(parser, bytes(HTML));
+        reuse.parse(parser, bytes(HTML));
+        Assert.assertEquals(reuse.getHitCount(), 1);
+    }
+
+    /**
+     * Verify that documents longer than the digest's buffer are keyed by all their content.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testLongDocuments() throws IOException, SAXException {
+        final ParseCache cache = new ParseCache(1 << 22);
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append(HTML);
+        }
+        final String first = sb + "a";
+        final String second = sb + "b";
+        Assert.assertEquals(parse(cache, chars(first), false), parse(null, chars(first), false));
+        Assert.assertEquals(parse(cache, chars(second), false), parse(null, chars(second), false));
+        Assert.assertEquals(parse(cache, bytes(first), false), parse(null, bytes(first), false));
+        Assert.assertEquals(parse(cache, bytes(second), false), parse(null, bytes(second), false));
+        Assert.assertEquals(cache.getMissCount(), 4);
+        parse(cache, chars(second), false);
+        parse(cache, bytes(first), false);
+        Assert.assertEquals(cache.getHitCount(), 2);
+    }
+
+    /**
+     * Verify that a document whose doctype has a system id is only reused for the same system id.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testDoctypeSystemId() throws IOException, SAXException {
+        final ParseCache cache = new ParseCache(1 << 20);
+        final String html = "<!DOCTYPE html SYSTEM \"doc.dtd\"><p>x";
+        for (String base : new String[] {"http://a.example/", "http://b.example/", "http://a.example/"}) {
+            final InputSource input = chars(html);
+            input.setSystemId(base + "page.html");
+            final InputSource direct = chars(html);
+            direct.setSystemId(base + "page.html");
+            Assert.assertEquals(parse(cache, input, false), parse(null, direct, false));
+        }
+        Assert.assertEquals(cache.getMissCount(), 3);
+    }
+
+    /**
+     * Verify that the least recently used documents are evicted to stay within the budget.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testEviction() throws IOException, SAXException {
+        final ParseCache cache = new ParseCache(1 << 20);
+        parse(cache, chars(HTML), false);
+        final long size = cache.getByteCount();
+        final ParseCache small = new ParseCache(size * 3);
+        for (int i = 0; i < 10; i++) {
+            parse(small, chars(HTML + "<!--" + i + "-->"), false);
+            parse(small, chars(HTML + "<!--0-->"), false);
+        }
+        Assert.assertTrue(small.getByteCount() <= size * 3);
+        Assert.assertTrue(small.getEvictionCount() > 0);
+        Assert.assertEquals(small.getMissCount(), 10);
+        Assert.assertEquals(new ParseCache(0).getEntryCount(), 0);
+        final ParseCache none = new ParseCache(0);
+        parse(none, chars(HTML), false);
+        Assert.assertEquals(none.getEntryCount(), 0);
+    }
+
+    /**
+     * Verify concurrent use of one cache.
+     *
+     * @throws InterruptedException InterruptedException
+     * @throws ExecutionException ExecutionException
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testConcurrentUse() throws InterruptedException, ExecutionException, IOException, SAXException {
+        final ParseCache cache = new ParseCache(1 << 20);
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String html = HTML + "<p>" + (i % 5);
+                results.add(pool.submit(() -> parse(cache, bytes(html), false)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(results.get(i).get(), parse(null, bytes(HTML + "<p>" + (i % 5)), false));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(cache.getHitCount() + cache.getMissCount(), 200);
+        Assert.assertEquals(cache.getEntryCount(), 5);
+    }
+}
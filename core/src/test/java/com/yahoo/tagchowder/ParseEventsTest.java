@@ -0,0 +1,157 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+import com.yahoo.tagchowder.ParseStatistics.Counter;
+
+/**
+ * Unit test for {@link ParseEvents}.
+ */
+public class ParseEventsTest {
+
+    private static final String PARSE = "com.yahoo.tagchowder.Parse";
+    private static final String SLOW_PARSE = "com.yahoo.tagchowder.SlowParse";
+    private static final String DOCUMENT = "<p>one<p>two<div><b>three</b></div>";
+
+    /**
+     * Test the events of a document parsed from bytes.
+     *
+     * @throws Exception exception
+     */
+    @Test
+    public void testParseEvent() throws Exception {
+        List<RecordedEvent> events = record(PARSE, Duration.ZERO, new Parser());
+        Assert.assertEquals(events.size(), 1);
+        RecordedEvent event = events.get(0);
+        Assert.assertEquals(event.getString("systemId"), "doc.html");
+        Assert.assertEquals(event.getLong("bytes"), DOCUMENT.length());
+        Assert.assertEquals(event.getLong("characters"), DOCUMENT.length());
+        Assert.assertEquals(event.getLong("elements"), 6L); // html, body, p, p, div, b
+        Assert.assertEquals(event.getLong("maxDepth"), 4L); // html, body, div, b
+        Assert.assertFalse(event.getDuration().isNegative());
+    }
+
+    /**
+     * Test that the slow parse event is gated by its threshold.
+     *
+     * @throws Exception exception
+     */
+    @Test
+    public void testSlowParseThreshold() throws Exception {
+        Assert.assertTrue(record(SLOW_PARSE, Duration.ofMinutes(1), new Parser()).isEmpty());
+        Assert.assertEquals(record(SLOW_PARSE, Duration.ZERO, new Parser()).size(), 1);
+    }
+
+    /**
+     * Test that only the slow parse event is enabled by default.
+     *
+     * @throws Exception exception
+     */
+    @Test
+    public void testDefaults() throws Exception {
+        Parser parser = new Parser();
+        try (Recording recording = new Recording()) {
+            recording.start();
+            parser.parse(new InputSource(new StringReader(DOCUMENT)));
+            recording.stop();
+            Assert.assertTrue(read(recording, PARSE).isEmpty());
+        }
+    }
+
+    /**
+     * Test that recording does not change the statistics set on the parser.
+     *
+     * @throws Exception exception
+     */
+    @Test
+    public void testStatisticsProperty() throws Exception {
+        Parser parser = new Parser();
+        record(PARSE, Duration.ZERO, parser);
+        Assert.assertNull(parser.getProperty(Parser.STATISTICS_PROPERTY));
+
+        ParseStatistics statistics = new ParseStatistics();
+        parser.setProperty(Parser.STATISTICS_PROPERTY, statistics);
+        RecordedEvent event = record(PARSE, Duration.ZERO, parser).get(0);
+        Assert.assertSame(parser.getProperty(Parser.STATISTICS_PROPERTY), statistics);
+        Assert.assertEquals(event.getLong("elements"), statistics.get(Counter.ELEMENTS_PUSHED));
+    }
+
+    /**
+     * Test that nothing is recorded without a recording, and that parsing characters reports no bytes.
+     *
+     * @throws Exception exception
+     */
+    @Test
+    public void testCharacters() throws Exception {
+        Parser parser = new Parser();
+        parser.parse(new InputSource(new StringReader(DOCUMENT))); // no recording
+        InputSource input = new InputSource(new StringReader(DOCUMENT));
+        try (Recording recording = new Recording()) {
+            recording.enable(PARSE).withThreshold(Duration.ZERO);
+            recording.start();
+            parser.parse(input);
+            recording.stop();
+            List<RecordedEvent> events = read(recording, PARSE);
+            Assert.assertEquals(events.size(), 1);
+            Assert.assertEquals(events.get(0).getLong("bytes"), 0L);
+            Assert.assertEquals(events.get(0).getLong("characters"), DOCUMENT.length());
+        }
+    }
+
+    // Parse the document in a recording of one event
+    private static List<RecordedEvent> record(final String name, final Duration threshold, final Parser parser) throws Exception {
+        InputSource input = new InputSource(new ByteArrayInputStream(DOCUMENT.getBytes(StandardCharsets.UTF_8)));
+        input.setEncoding("UTF-8");
+        input.setSystemId("doc.html");
+        try (Recording recording = new Recording()) {
+            recording.enable(name).withThreshold(threshold);
+            recording.start();
+            parser.parse(input);
+            recording.stop();
+            return read(recording, name);
+        }
+    }
+
+    // Read the events of a type; the slow parse event is enabled by default, so a recording may also have it
+    private static List<RecordedEvent> read(final Recording recording, final String name) throws Exception {
+        Path file = Files.createTempFile("parse", ".jfr");
+        try {
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
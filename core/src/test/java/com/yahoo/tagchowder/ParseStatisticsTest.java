@@ -0,0 +1,148 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+import com.yahoo.tagchowder.ParseStatistics.Counter;
+
+/**
+ * Unit test for {@link ParseStatistics}.
+ */
+public class ParseStatisticsTest {
+
+    private static final String HTML = "<p title='&amp;&nope;'>a &amp; &bogus; <b>x<p>y</b> <foo>z</foo> &lt;";
+
+    /**
+     * Verify the counts of one document read from bytes.
+     *
+     * @throws Exception Exception
+     */
+    @Test
+    public void testCounts() throws Exception {
+        Parser parser = new Parser();
+        ParseStatistics statistics = new ParseStatistics();
+        parser.setProperty(Parser.STATISTICS_PROPERTY, statistics);
+        Assert.assertSame(parser.getProperty(Parser.STATISTICS_PROPERTY), statistics);
+        byte[] bytes = HTML.getBytes(StandardCharsets.US_ASCII);
+        parser.parse(new InputSource(new ByteArrayInputStream(bytes)));
+
+        Assert.assertEquals(statistics.get(Counter.BYTES), bytes.length);
+        Assert.assertEquals(statistics.get(Counter.CHARACTERS), HTML.length());
+        // html, body, p, b, p, b restarted, foo
+        Assert.assertEquals(statistics.get(Counter.ELEMENTS_PUSHED), 7);
+        Assert.assertEquals(statistics.get(Counter.ELEMENTS_POPPED), 7);
+        Assert.assertEquals(statistics.get(Counter.IMPLIED_ELEMENTS), 2);
+        Assert.assertEquals(statistics.get(Counter.RESTARTED_ELEMENTS), 1);
+        Assert.assertEquals(statistics.get(Counter.BOGONS), 1);
+        Assert.assertEquals(statistics.get(Counter.ENTITIES_RESOLVED), 3);
+        Assert.assertEquals(statistics.get(Counter.ENTITIES_UNRESOLVED), 2);
+        Assert.assertEquals(statistics.get(Counter.MAX_DEPTH), 4);
+        Assert.assertTrue(statistics.get(Counter.NANOS) > 0);
+
+        // The next document starts from zero
+        parser.parse(new InputSource(new StringReader("<p>x")));
+        Assert.assertEquals(statistics.get(Counter.BYTES), 0);
+        Assert.assertEquals(statistics.get(Counter.CHARACTERS), 4);
+        Assert.assertEquals(statistics.get(Counter.BOGONS), 0);
+    }
+
+    /**
+     * Verify that a speculative parse of a document read from bytes counts as much as a sequential one.
+     *
+     * @throws Exception Exception
+     */
+    @Test
+    public void testSpeculativeCounts() throws Exception {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            html.append(HTML).append('\n');
+        }
+        byte[] bytes = html.toString().getBytes(StandardCharsets.US_ASCII);
+        Parser parser = new Parser();
+        ParseStatistics expected = new ParseStatistics();
+        parser.setProperty(Parser.STATISTICS_PROPERTY, expected);
+        parser.parse(new InputSource(new ByteArrayInputStream(bytes)));
+
+        ParseStatistics statistics = new ParseStatistics();
+        parser.setProperty(Parser.STATISTICS_PROPERTY, statistics);
+        SpeculativeParser speculative = new SpeculativeParser(parser, 2);
+        speculative.setChunkSize(256);
+        speculative.parse(new InputSource(new ByteArrayInputStream(bytes)));
+        Assert.assertTrue(speculative.getChunkCount() > 1);
+
+        Assert.assertEquals(statistics.get(Counter.BYTES), bytes.length);
+        Assert.assertEquals(statistics.get(Counter.CHARACTERS), html.length());
+        Assert.assertEquals(statistics.get(Counter.ELEMENTS_PUSHED), expected.get(Counter.ELEMENTS_PUSHED));
+        Assert.assertEquals(statistics.get(Counter.RESTARTED_ELEMENTS), expected.get(Counter.RESTARTED_ELEMENTS));
+        Assert.assertEquals(statistics.get(Counter.ENTITIES_RESOLVED), expected.get(Counter.ENTITIES_RESOLVED));
+        Assert.assertTrue(statistics.get(Counter.NANOS) > 0);
+    }
+
+    /**
+     * Verify that copies of a parser on several threads add up in the registry.
+     *
+     * @throws Exception Exception
+     */
+    @Test
+    public void testRegistry() throws Exception {
+        final ParseStatistics.Registry registry = new ParseStatistics.Registry();
+        Parser prototype = new Parser();
+        prototype.setProperty(Parser.STATISTICS_PROPERTY, new ParseStatistics(registry));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final Parser parser = prototype.copy();
+                Assert.assertNotSame(parser.getProperty(Parser.STATISTICS_PROPERTY), prototype.getProperty(Parser.STATISTICS_PROPERTY));
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        parser.parse(new InputSource(new StringReader(i % 2 == 0 ? HTML : "<div><div>&amp;")));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(registry.getDocumentCount(), 100);
+        Assert.assertEquals(registry.get(Counter.CHARACTERS), 4 * (13 * HTML.length() + 12 * 15));
+        // each copy registers foo in its own schema once
+        Assert.assertEquals(registry.get(Counter.BOGONS), 4);
+        Assert.assertEquals(registry.get(Counter.ENTITIES_RESOLVED), 4 * (13 * 3 + 12));
+        Assert.assertEquals(registry.get(Counter.MAX_DEPTH), 4);
+        registry.reset();
+        Assert.assertEquals(registry.getDocumentCount(), 0);
+        Assert.assertEquals(registry.get(Counter.CHARACTERS), 0);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+
+import com.yahoo.tagchowder.templates.HTMLScanner;
+
+/**
+ * Unit test for {@link ParserConfig}.
+ */
+public class ParserConfigTest {
+
+    private static final String[] FEATURES = {
+        Parser.NAMESPACES_FEATURE, Parser.NAMESPACE_PREFIXES_FEATURE, Parser.EXTERNAL_GENERAL_ENTITIES_FEATURE,
+        Parser.EXTERNAL_PARAMETER_ENTITIES_FEATURE, Parser.IS_STANDALONE_FEATURE, Parser.LEXICAL_HANDLER_PARAMETER_ENTITIES_FEATURE,
+        Parser.RESOLVE_DTDURIS_FEATURE, Parser.STRING_INTERNING_FEATURE, Parser.USE_ATTRIBUTES2_FEATURE, Parser.USE_LOCATOR2_FEATURE,
+        Parser.USE_ENTITYRESOLVER2_FEATURE, Parser.VALIDATION_FEATURE, Parser.XMLNS_URIS_FEATURE, Parser.XML11_FEATURE,
+        Parser.IGNORE_BOGONS_FEATURE, Parser.BOGONS_EMPTY_FEATURE, Parser.ROOT_BOGONS_FEATURE, Parser.DEFAULT_ATTRIBUTES_FEATURE,
+        Parser.TRANSLATE_COLONS_FEATURE, Parser.RESTART_ELEMENTS_FEATURE, Parser.IGNORABLE_WHITESPACE_FEATURE, Parser.CDATA_ELEMENTS_FEATURE,
+        Parser.AMP_VALIDATION_FEATURE, Parser.LIMIT_RESTARTS_FEATURE,
+    };
+
+    private static final String[] DEFAULT_ON = {
+        Parser.NAMESPACES_FEATURE, Parser.RESOLVE_DTDURIS_FEATURE, Parser.STRING_INTERNING_FEATURE, Parser.ROOT_BOGONS_FEATURE,
+        Parser.DEFAULT_ATTRIBUTES_FEATURE, Parser.RESTART_ELEMENTS_FEATURE, Parser.CDATA_ELEMENTS_FEATURE,
+    };
+
+    /**
+     * A new parser has the documented SAX defaults, and each feature can be set on its own.
+     *
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testFeatures() throws SAXException {
+        for (String name : FEATURES) {
+            boolean on = false;
+            for (String d : DEFAULT_ON) {
+                on |= d.equals(name);
+            }
+            Assert.assertEquals(new Parser().getFeature(name), on, name);
+            Assert.assertEquals(ParserConfig.DEFAULT.getFeature(name), on, name);
+
+            final ParserConfig config = new ParserConfig.Builder().setFeature(name, !on).build();
+            final Parser parser = new Parser(config);
+            for (String other : FEATURES) {
+                Assert.assertEquals(parser.getFeature(other), new Parser().getFeature(other) ^ other.equals(name), name + " " + other);
+            }
+            parser.setFeature(name, on);
+            Assert.assertEquals(parser.getFeature(name), on);
+            Assert.assertEquals(config.getFeature(name), !on);
+        }
+    }
+
+    /**
+     * Unknown features are rejected.
+     *
+     * @throws SAXException SAXException
+     */
+    @Test(expectedExceptions = SAXNotRecognizedException.class)
+    public void testUnknownFeature() throws SAXException {
+        new ParserConfig.Builder().setFeature("http://example.com/unknown", true);
+    }
+
+    /**
+     * Parsers share the default schema only when unknown elements are ignored, and take the scanner factory and buffer size of the configuration.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testSharedSettings() throws IOException, SAXException {
+        Assert.assertNull(ParserConfig.DEFAULT.getSchema());
+        final ParserConfig config = new ParserConfig.Builder().setFeature(Parser.IGNORE_BOGONS_FEATURE, true)
+                .setScannerFactory(() -> new HTMLScanner(64)).build();
+        Assert.assertNotNull(config.getSchema());
+        final Parser first = new Parser(config);
+        final Parser second = new Parser(config);
+        Assert.assertSame(first.getProperty(Parser.SCHEMA_PROPERTY), config.getSchema());
+        Assert.assertSame(second.getProperty(Parser.SCHEMA_PROPERTY), config.getSchema());
+
+        first.parse(new InputSource(new StringReader("<p>one<bogon>two</bogon>")));
+        Assert.assertTrue(first.getProperty(Parser.SCANNER_PROPERTY) instanceof HTMLScanner);
+        Assert.assertNull(config.getSchema().getElementType("bogon"));
+
+        final ParserConfig rebuilt = new ParserConfig.Builder(config).setFeature(Parser.IGNORE_BOGONS_FEATURE, false).build();
+        Assert.assertNull(rebuilt.getSchema());
+        Assert.assertSame(rebuilt.getScannerFactory(), config.getScannerFactory());
+    }
+}
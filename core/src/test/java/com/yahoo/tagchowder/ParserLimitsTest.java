@@ -0,0 +1,253 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.DefaultHandler2;
+
+import com.yahoo.tagchowder.ParserLimits.Limit;
+import com.yahoo.tagchowder.ParserLimits.Policy;
+
+/**
+ * Unit test for {@link ParserLimits}.
+ */
+public class ParserLimitsTest {
+
+    /**
+     * Records the events of a document as a string.
+     */
+    private static final class Recorder extends DefaultHandler2 {
+
+        private final StringBuilder theEvents = new StringBuilder();
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+            theEvents.append('<').append(qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                theEvents.append(' ').append(atts.getQName(i)).append("='").append(atts.getValue(i)).append('\'');
+            }
+            theEvents.append('>');
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            theEvents.append("</").append(qName).append('>');
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            theEvents.append(ch, start, length);
+        }
+
+        @Override
+        public void comment(final char[] ch, final int start, final int length) {
+            theEvents.append("<!--").append(ch, start, length).append("-->");
+        }
+
+        @Override
+        public void endDocument() {
+            theEvents.append('$');
+        }
+
+        @Override
+        public String toString() {
+            return theEvents.toString();
+        }
+    }
+
+    private static String parse(final String html, final Limit limit, final long max, final Policy policy) throws IOException, SAXException {
+        Parser parser = new Parser(new ParserConfig.Builder().setLimits(new ParserLimits.Builder().setLimit(limit, max, policy).build()).build());
+        Recorder recorder = new Recorder();
+        parser.setContentHandler(recorder);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, recorder);
+        parser.parse(new InputSource(new StringReader(html)));
+        return recorder.toString();
+    }
+
+    private static String nested(final int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("<div>");
+        }
+        return sb.append("x").toString();
+    }
+
+    private static void assertFails(final String html, final Limit limit, final long max) throws IOException {
+        try {
+            parse(html, limit, max, Policy.FAIL);
+            Assert.fail("no exception for " + limit);
+        } catch (SAXException e) {
+            Assert.assertTrue(e instanceof SAXParseException, e.toString());
+            Assert.assertTrue(e.getMessage().contains(limit.toString()), e.getMessage());
+        }
+    }
+
+    /**
+     * Verify the depth limit with each policy, on a document too deep to parse quickly without it.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testDepth() throws IOException, SAXException {
+        final String html = "<div><div><div>x</div>y</div>z</div>w";
+        // html and body count
+        Assert.assertEquals(parse(html, Limit.DEPTH, 5, Policy.FAIL), "<html><body><div><div><div>x</div>y</div>z</div>w</body></html>$");
+        Assert.assertEquals(parse(html, Limit.DEPTH, 4, Policy.FLATTEN), "<html><body><div><div>x</div>y</div>zw</body></html>$");
+        Assert.assertEquals(parse(html, Limit.DEPTH, 4, Policy.TRUNCATE), "<html><body><div><div></div></div></body></html>$");
+        Assert.assertEquals(parse("<p>a<br/>b<img>c", Limit.DEPTH, 3, Policy.FLATTEN), "<html><body><p>abc</p></body></html>$");
+        assertFails(html, Limit.DEPTH, 4);
+
+        String flat = parse(nested(200000), Limit.DEPTH, 100, Policy.FLATTEN);
+        Assert.assertTrue(flat.contains("<div>x</div></div></div>"));
+        Assert.assertEquals(flat.split("<div>", -1).length - 1, 98);
+        assertFails(nested(200000), Limit.DEPTH, 1000);
+    }
+
+    /**
+     * Verify the limits on attributes.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testAttributes() throws IOException, SAXException {
+        final String html = "<p a=1 b=2 c=3 a=4 d>x";
+        Assert.assertEquals(parse(html, Limit.ATTRIBUTES, 2, Policy.TRUNCATE), "<html><body><p a='4' b='2'>x</p></body></html>$");
+        assertFails(html, Limit.ATTRIBUTES, 2);
+        Assert.assertEquals(parse("<p title='abcdef'>x", Limit.ATTRIBUTE_VALUE_LENGTH, 3, Policy.TRUNCATE),
+                "<html><body><p title='abc'>x</p></body></html>$");
+        assertFails("<p title='abcdef'>x", Limit.ATTRIBUTE_VALUE_LENGTH, 3);
+    }
+
+    /**
+     * Verify the token length limit.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testTokenLength() throws IOException, SAXException {
+        Assert.assertEquals(parse("<p>x<!-- long comment -->", Limit.TOKEN_LENGTH, 5, Policy.TRUNCATE),
+                "<html><body><p>x<!-- long--></p></body></html>$");
+        assertFails("<p>x<!-- long comment -->", Limit.TOKEN_LENGTH, 5);
+    }
+
+    /**
+     * Verify the character limit, when parsing from a reader and when characters are pushed.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testCharacters() throws IOException, SAXException {
+        final String html = "<p>abc</p><p>def</p>";
+        Assert.assertEquals(parse(html, Limit.CHARACTERS, html.length(), Policy.FAIL), "<html><body><p>abc</p><p>def</p></body></html>$");
+        Assert.assertEquals(parse(html, Limit.CHARACTERS, 14, Policy.TRUNCATE), "<html><body><p>abc</p><p>d</p></body></html>$");
+        assertFails(html, Limit.CHARACTERS, 14);
+
+        Parser parser = new Parser();
+        parser.setProperty(Parser.LIMITS_PROPERTY, new ParserLimits.Builder().setLimit(Limit.CHARACTERS, 14, Policy.TRUNCATE).build());
+        Recorder recorder = new Recorder();
+        parser.setContentHandler(recorder);
+        parser.startPush(null, null);
+        parser.push(html.toCharArray(), 0, 12);
+        parser.push(html.toCharArray(), 12, 8);
+        parser.push(html.toCharArray(), 0, 8);
+        parser.endPush();
+        Assert.assertEquals(recorder.toString(), "<html><body><p>abc</p><p>d</p></body></html>$");
+    }
+
+    /**
+     * Verify the event limit.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testEvents() throws IOException, SAXException {
+        // html, body, p, a, b, b
+        Assert.assertEquals(parse("<p>a<b>b</b>c<i>d", Limit.EVENTS, 6, Policy.TRUNCATE), "<html><body><p>a<b>b</b></p></body></html>$");
+        assertFails("<p>a<b>b</b>c<i>d", Limit.EVENTS, 6);
+    }
+
+    /**
+     * Verify the smallest limits with each policy, and that a document ended at a limit before its first element does not start one.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testSmallestLimits() throws IOException, SAXException {
+        for (Limit limit : new Limit[] {Limit.DEPTH, Limit.TOKEN_LENGTH, Limit.EVENTS}) {
+            for (Policy policy : Policy.values()) {
+                Assert.assertThrows(IllegalArgumentException.class, () -> new ParserLimits.Builder().setLimit(limit, 0, policy));
+            }
+        }
+        Assert.assertEquals(parse("<p a=1>x", Limit.ATTRIBUTES, 0, Policy.TRUNCATE), "<html><body><p>x</p></body></html>$");
+        assertFails("<p a=1>x", Limit.ATTRIBUTES, 0);
+        Assert.assertEquals(parse("<p a=1>x", Limit.ATTRIBUTE_VALUE_LENGTH, 0, Policy.TRUNCATE), "<html><body><p a=''>x</p></body></html>$");
+        assertFails("<p a=1>x", Limit.ATTRIBUTE_VALUE_LENGTH, 0);
+        Assert.assertEquals(parse("<p>x", Limit.CHARACTERS, 0, Policy.TRUNCATE), "<html><body></body></html>$");
+        assertFails("<p>x", Limit.CHARACTERS, 0);
+
+        Assert.assertEquals(parse("<p>x", Limit.DEPTH, 1, Policy.TRUNCATE), "<html></html>$");
+        Assert.assertEquals(parse("<p>x", Limit.DEPTH, 1, Policy.FLATTEN), "<html>x</html>$");
+        Assert.assertEquals(parse("<!--c--><p>x", Limit.EVENTS, 1, Policy.TRUNCATE), "<!--c-->$");
+        Parser parser = new Parser();
+        parser.setProperty(Parser.LIMITS_PROPERTY, new ParserLimits.Builder().setLimit(Limit.EVENTS, 1, Policy.TRUNCATE).build());
+        Recorder recorder = new Recorder();
+        parser.setContentHandler(recorder);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, recorder);
+        parser.startPush(null, null);
+        parser.push("<!--c--><p>x".toCharArray(), 0, 12);
+        parser.endPush();
+        Assert.assertEquals(recorder.toString(), "<!--c-->$");
+    }
+
+    /**
+     * Verify the builder, the property and copies.
+     *
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testConfiguration() throws SAXException {
+        ParserLimits limits = new ParserLimits.Builder().setLimit(Limit.DEPTH, 10, Policy.FLATTEN).setLimit(Limit.EVENTS, 1000, Policy.FAIL).build();
+        Assert.assertEquals(limits.toString(), "DEPTH=10/FLATTEN EVENTS=1000/FAIL");
+        Assert.assertEquals(new ParserLimits.Builder(limits).build().toString(), limits.toString());
+        Assert.assertEquals(ParserLimits.NONE.getMax(Limit.CHARACTERS), ParserLimits.UNLIMITED);
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ParserLimits.Builder().setLimit(Limit.ATTRIBUTES, 10, Policy.FLATTEN));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ParserLimits.Builder().setLimit(Limit.DEPTH, -1, Policy.FAIL));
+
+        Parser parser = new Parser();
+        Assert.assertSame(parser.getProperty(Parser.LIMITS_PROPERTY), ParserLimits.NONE);
+        parser.setProperty(Parser.LIMITS_PROPERTY, limits);
+        Assert.assertSame(parser.copy().getProperty(Parser.LIMITS_PROPERTY), limits);
+        parser.setProperty(Parser.LIMITS_PROPERTY, null);
+        Assert.assertSame(parser.getProperty(Parser.LIMITS_PROPERTY), ParserLimits.NONE);
+    }
+}
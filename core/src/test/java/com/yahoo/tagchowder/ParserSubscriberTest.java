@@ -0,0 +1,125 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link ParserSubscriber}.
+ */
+public class ParserSubscriberTest {
+
+    private static final String TRICKY = "\uFEFF<p title='caf\u00e9'>a\r\nb\rc&amp;d&#x1F600;<!-- x\r\n -->\u0093<script>if (a < b) {}</script>"
+            + "<![CDATA[ z ]]>\u20ac\u00e9<?pi data?>&lt";
+
+    private String parseWhole(final String html) throws IOException, SAXException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final PYXWriter writer = new PYXWriter(out);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        parser.parse(new InputSource(new StringReader(html)));
+        return out.toString();
+    }
+
+    private String parseChunked(final String html, final int chunkSize) throws SAXException, InterruptedException, ExecutionException,
+            TimeoutException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final PYXWriter writer = new PYXWriter(out);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        final ParserSubscriber subscriber = new ParserSubscriber(parser, StandardCharsets.UTF_8, null);
+        final byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(subscriber);
+            for (int i = 0; i < bytes.length; i += chunkSize) {
+                publisher.submit(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+            }
+        }
+        subscriber.getResult().get(10, TimeUnit.SECONDS);
+        return out.toString();
+    }
+
+    /**
+     * Verify that a document delivered in chunks of any size, splitting characters, CR LF pairs and markup, gives the same events as a whole
+     * document.
+     *
+     * @throws Exception Exception
+     */
+    @Test
+    public void testChunks() throws Exception {
+        final String expected = parseWhole(TRICKY);
+        for (int chunkSize = 1; chunkSize <= 9; chunkSize++) {
+            Assert.assertEquals(parseChunked(TRICKY, chunkSize), expected, "chunk size " + chunkSize);
+        }
+        final String html;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/html/html5.txt"),
+                StandardCharsets.UTF_8))) {
+            html = reader.lines().collect(Collectors.joining("\n"));
+        }
+        Assert.assertEquals(parseChunked(html, 7), parseWhole(html));
+        Assert.assertEquals(parseChunked(html, 4096), parseWhole(html));
+    }
+
+    /**
+     * Verify that a handler failure cancels the subscription and completes the result exceptionally.
+     *
+     * @throws Exception Exception
+     */
+    @Test
+    public void testHandlerFailure() throws Exception {
+        final Parser parser = new Parser();
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void characters(final char[] ch, final int start, final int length) throws SAXException {
+                throw new SAXException("stop");
+            }
+        });
+        final ParserSubscriber subscriber = new ParserSubscriber(parser, StandardCharsets.UTF_8, null);
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(subscriber);
+            publisher.submit(ByteBuffer.wrap("<p>text".getBytes(StandardCharsets.UTF_8)));
+            publisher.submit(ByteBuffer.wrap("<p>more</p>".getBytes(StandardCharsets.UTF_8)));
+        }
+        try {
+            subscriber.getResult().get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected failure");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(e.getCause().getMessage(), "stop");
+        }
+    }
+}
@@ -31,8 +31,10 @@ import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Unit test for {@link Parser}.
@@ -40,6 +42,54 @@ import org.xml.sax.SAXException;
  */
 public class ParserTest {
 
+    /**
+     * A copy has the features of the original, and shares the default schema only when unknown elements are ignored.
+     *
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testCopy() throws SAXException {
+        final Parser parser = new Parser();
+        parser.setFeature(Parser.NAMESPACES_FEATURE, false);
+        parser.setFeature(Parser.BOGONS_EMPTY_FEATURE, true);
+        parser.setDefaultBufferSize(100);
+        final Parser copy = parser.copy();
+        Assert.assertFalse(copy.getFeature(Parser.NAMESPACES_FEATURE));
+        Assert.assertTrue(copy.getFeature(Parser.BOGONS_EMPTY_FEATURE));
+        Assert.assertEquals(copy.getDefaultBufferSize(), 100);
+        Assert.assertEquals(copy.getFeatureKey(), parser.getFeatureKey());
+        Assert.assertNull(copy.getProperty(Parser.SCHEMA_PROPERTY));
+
+        copy.setFeature(Parser.BOGONS_EMPTY_FEATURE, false);
+        Assert.assertTrue(parser.getFeature(Parser.BOGONS_EMPTY_FEATURE));
+
+        parser.setFeature(Parser.IGNORE_BOGONS_FEATURE, true);
+        final Parser first = parser.copy();
+        final Parser second = parser.copy();
+        Assert.assertNotNull(first.getProperty(Parser.SCHEMA_PROPERTY));
+        Assert.assertSame(first.getProperty(Parser.SCHEMA_PROPERTY), second.getProperty(Parser.SCHEMA_PROPERTY));
+        Assert.assertSame(first.copy().getProperty(Parser.SCHEMA_PROPERTY), first.getProperty(Parser.SCHEMA_PROPERTY));
+    }
+
+    /**
+     * A copy that stops ignoring unknown elements does not register them in the shared schema.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testCopyWithBogons() throws IOException, SAXException {
+        final Parser parser = new Parser();
+        parser.setFeature(Parser.IGNORE_BOGONS_FEATURE, true);
+        final Parser copy = parser.copy();
+        final Schema shared = (Schema) copy.getProperty(Parser.SCHEMA_PROPERTY);
+        copy.setFeature(Parser.IGNORE_BOGONS_FEATURE, false);
+        copy.parse(new InputSource(new StringReader("<bogon>text</bogon>")));
+        Assert.assertNotSame(copy.getProperty(Parser.SCHEMA_PROPERTY), shared);
+        Assert.assertNull(shared.getElementType("bogon"));
+        Assert.assertNotNull(((Schema) copy.getProperty(Parser.SCHEMA_PROPERTY)).getElementType("bogon"));
+    }
+
     /**
      * Parse an sample html.
      *
@@ -242,6 +292,67 @@ public class ParserTest {
         parser.parse(inSource);
     }
 
+    /**
+     * Restartable elements closed by a block or a misnested end-tag are restarted after it, even several identical ones. Only with
+     * {@link Parser#LIMIT_RESTARTS_FEATURE}, an element restarted three times is dropped while three others of its type that were also restarted
+     * three times wait to be restarted.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testRestartedElements() throws IOException, SAXException {
+        Assert.assertEquals(elements("<b><i>x<p>y</b>z"), "<html><body><b><i>x</i></b><p><b><i>y</i></b><i>z</i></p></body></html>");
+        Assert.assertEquals(elements("<b><i>x</b>y</i>z"), "<html><body><b><i>x</i></b><i>y</i>z</body></html>");
+        Assert.assertEquals(elements("<a href=1><b><u>x<div>y</div>z</b>w</a>"),
+            "<html><body><a shape='rect' href='1'><b><u>x</u></b></a><div><b><u>y</u></b></div><b><u>z</u></b><u>w</u></body></html>");
+        Assert.assertEquals(elements("<p><b>one<p>two<p>three<p>four"),
+            "<html><body><p><b>one</b></p><p><b>two</b></p><p><b>three</b></p><p><b>four</b></p></body></html>");
+        Assert.assertEquals(elements("<i><i><i><i>x<p>y<p>z"),
+            "<html><body><i><i><i><i>x</i></i></i></i><p><i><i><i><i>y</i></i></i></i></p><p><i><i><i><i>z</i></i></i></i></p></body></html>");
+        final String html = "<i><i><i><i>x<p>1<p>2<p>3<p>4";
+        final String restarted = "<html><body><i><i><i><i>x</i></i></i></i><p><i><i><i><i>1</i></i></i></i></p><p><i><i><i><i>2</i></i></i></i></p>"
+            + "<p><i><i><i><i>3</i></i></i></i></p>";
+        Assert.assertEquals(elements(html), restarted + "<p><i><i><i><i>4</i></i></i></i></p></body></html>");
+        final Parser limited = new Parser();
+        limited.setFeature(Parser.LIMIT_RESTARTS_FEATURE, true);
+        Assert.assertEquals(elements(limited, html), restarted + "<p><i><i><i>4</i></i></i></p></body></html>");
+        Assert.assertEquals(elements(limited, "<i><i><i><i>x<p>y<p>z"),
+            "<html><body><i><i><i><i>x</i></i></i></i><p><i><i><i><i>y</i></i></i></i></p><p><i><i><i><i>z</i></i></i></i></p></body></html>");
+    }
+
+    // Return the elements and characters of a document
+    private static String elements(final String html) throws IOException, SAXException {
+        return elements(new Parser(), html);
+    }
+
+    // Return the elements and characters of a document parsed by a parser
+    private static String elements(final Parser parser, final String html) throws IOException, SAXException {
+        final StringBuilder sb = new StringBuilder();
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                sb.append('<').append(qName);
+                for (int i = 0; i < atts.getLength(); i++) {
+                    sb.append(' ').append(atts.getQName(i)).append("='").append(atts.getValue(i)).append('\'');
+                }
+                sb.append('>');
+            }
+
+            @Override
+            public void endElement(final String uri, final String localName, final String qName) {
+                sb.append("</").append(qName).append('>');
+            }
+
+            @Override
+            public void characters(final char[] ch, final int start, final int length) {
+                sb.append(ch, start, length);
+            }
+        });
+        parser.parse(new InputSource(new StringReader(html)));
+        return sb.toString();
+    }
+
     /**
      * Read HTML from file and returns string.
      *
@@ -0,0 +1,148 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link PipelinedScanner}.
+ */
+public class PipelinedScannerTest {
+
+    private static String document() {
+        final StringBuilder sb = new StringBuilder("<html><head><title>t</title><style>p > b {}</style></head><body><table>\r\n");
+        for (int i = 0; i < 3000; i++) {
+            sb.append("<tr><td class='c").append(i).append("'>").append(i).append(" &amp; &#x41;&eacute;</td><td>x<b>y</b><br></td></tr>\r\n");
+            if (i % 97 == 0) {
+                sb.append("<!-- <tr><td>commented</td></tr> --><?pi data?><![CDATA[ <raw> ]]>");
+            }
+            if (i % 211 == 0) {
+                sb.append("<script>\nvar s = '</td><td>';\n</scriptx></tr><tr>\n</script><SCRIPT/><td>after</td><Style>b{}</STYLE>");
+                sb.append("x<<script>a</b></script>");
+            }
+        }
+        sb.append("</table><p>end<script>unclosed");
+        return sb.toString();
+    }
+
+    private static String parse(final String html, final boolean pipelined, final boolean cdataElements) throws IOException, SAXException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final XMLWriter writer = new XMLWriter(out);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        parser.setFeature(Parser.CDATA_ELEMENTS_FEATURE, cdataElements);
+        if (pipelined) {
+            parser.setProperty(Parser.SCANNER_PROPERTY, new PipelinedScanner());
+        }
+        parser.parse(new InputSource(new StringReader(html)));
+        return out.toString();
+    }
+
+    /**
+     * Verify that the pipelined scanner gives the same document as the default scanner, with and without CDATA elements.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testSameDocument() throws IOException, SAXException {
+        final String html = document();
+        Assert.assertEquals(parse(html, true, true), parse(html, false, true));
+        Assert.assertEquals(parse(html, true, false), parse(html, false, false));
+        Assert.assertEquals(parse("", true, true), parse("", false, true));
+    }
+
+    /**
+     * Verify that the document locator reports the same positions as with the default scanner.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testLocator() throws IOException, SAXException {
+        final String html = document();
+        final StringBuilder[] positions = {new StringBuilder(), new StringBuilder()};
+        for (int i = 0; i < 2; i++) {
+            final StringBuilder sb = positions[i];
+            final Parser parser = new Parser();
+            parser.setContentHandler(new DefaultHandler() {
+                private Locator theLocator;
+
+                @Override
+                public void setDocumentLocator(final Locator locator) {
+                    theLocator = locator;
+                }
+
+                @Override
+                public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                    sb.append(qName).append(':').append(theLocator.getLineNumber()).append(':').append(theLocator.getColumnNumber()).append(' ');
+                }
+            });
+            if (i == 1) {
+                parser.setProperty(Parser.SCANNER_PROPERTY, new PipelinedScanner());
+            }
+            parser.parse(new InputSource(new StringReader(html)));
+        }
+        Assert.assertEquals(positions[1].toString(), positions[0].toString());
+    }
+
+    /**
+     * Verify that an exception of the content handler stops the scanning thread and reaches the caller, and that the scanner can be used again.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testHandlerFailure() throws IOException, SAXException {
+        final String html = document();
+        final Parser parser = new Parser();
+        final PipelinedScanner scanner = new PipelinedScanner();
+        parser.setProperty(Parser.SCANNER_PROPERTY, scanner);
+        parser.setContentHandler(new DefaultHandler() {
+            private int theCount;
+
+            @Override
+            public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+                if (++theCount == 1000) {
+                    throw new SAXException("stop");
+                }
+            }
+        });
+        try {
+            parser.parse(new InputSource(new StringReader(html)));
+            Assert.fail("Expected the handler's exception");
+        } catch (SAXException e) {
+            Assert.assertEquals(e.getMessage(), "stop");
+        }
+        final StringWriter out = new StringWriter();
+        parser.setContentHandler(new XMLWriter(out));
+        parser.parse(new InputSource(new StringReader("<p>again")));
+        Assert.assertTrue(out.toString().contains("<p>again</p>"), out.toString());
+    }
+}
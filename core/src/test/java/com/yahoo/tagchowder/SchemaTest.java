@@ -0,0 +1,97 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.yahoo.tagchowder.templates.HTMLSchema;
+
+/**
+ * Unit test for {@link Schema}, as loaded by {@link HTMLSchema}.
+ */
+public class SchemaTest {
+
+    /**
+     * The HTML schema has its element types, parents, default attributes and entities.
+     */
+    @Test
+    public void testHTMLSchema() {
+        final Schema schema = new HTMLSchema(true);
+        Assert.assertEquals(schema.getURI(), "http://www.w3.org/1999/xhtml");
+        Assert.assertEquals(schema.rootElementType().name(), "html");
+        Assert.assertEquals(schema.getElementType(0).name(), "<pcdata>");
+        Assert.assertEquals(schema.getElementType("<pcdata>").parent().name(), "body");
+        Assert.assertEquals(schema.getElementType("html").parent().name(), "<root>");
+        Assert.assertEquals(schema.getElementType("td").parent().name(), "tr");
+        Assert.assertEquals(schema.getElementType("script").flags(), Schema.F_CDATA);
+
+        final AttributesImpl form = schema.getElementType("form").atts();
+        Assert.assertEquals(form.getValue("method"), "get");
+        Assert.assertEquals(form.getType("id"), "ID");
+        Assert.assertEquals(form.getType("class"), "NMTOKEN");
+        Assert.assertEquals(schema.getElementType("br").atts().getValue("clear"), "none");
+
+        Assert.assertEquals(schema.getEntity("amp"), '&');
+        Assert.assertEquals(schema.getEntity("nbsp"), 0xA0);
+        Assert.assertEquals(schema.getEntity("Afr"), 0x1D504);
+        Assert.assertEquals(schema.getEntity("nosuchentity"), 0);
+    }
+
+    /**
+     * Adding an entity to one schema does not change the entities other schemas share.
+     */
+    @Test
+    public void testEntityIsolation() {
+        final Schema first = new HTMLSchema(true);
+        final Schema second = new HTMLSchema(true);
+        first.entity("custom", 0x41);
+        first.entity("amp", 0x42);
+        Assert.assertEquals(first.getEntity("custom"), 0x41);
+        Assert.assertEquals(first.getEntity("amp"), 0x42);
+        Assert.assertEquals(first.getEntity("lt"), '<');
+        Assert.assertEquals(second.getEntity("custom"), 0);
+        Assert.assertEquals(second.getEntity("amp"), '&');
+        Assert.assertEquals(new HTMLSchema(false).getEntity("amp"), '&');
+    }
+
+    /**
+     * Plain names are found from characters regardless of case; other names are left to the String lookup.
+     */
+    @Test
+    public void testGetElementTypeByChars() {
+        final Schema schema = new HTMLSchema(true);
+        final char[] buff = "xTaBlE h1 o:p _x".toCharArray();
+        Assert.assertSame(schema.getElementType(buff, 1, 5), schema.getElementType("table"));
+        Assert.assertSame(schema.getElementType(buff, 7, 2), schema.getElementType("h1"));
+        Assert.assertNull(schema.getElementType(buff, 1, 4));
+        Assert.assertNull(schema.getElementType(buff, 10, 3));
+        Assert.assertNull(schema.getElementType(buff, 14, 2));
+        Assert.assertNull(schema.getElementType(buff, 0, 0));
+
+        for (int i = 0; i < 1000; i++) {
+            schema.elementType("Bogon" + i, Schema.M_ANY, Schema.M_ANY, 0);
+        }
+        final char[] bogon = "BOGON999".toCharArray();
+        final ElementType type = schema.getElementType(bogon, 0, bogon.length);
+        Assert.assertEquals(type.name(), "Bogon999");
+        Assert.assertSame(schema.getElementType(type.id()), type);
+        Assert.assertSame(schema.getElementType(buff, 1, 5), schema.getElementType("table"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link Selector} and {@link SelectorHandler}.
+ */
+public class SelectorHandlerTest {
+
+    private static final String HTML = "<html><body><div id='main' class='content wide'>"
+            + "<ul><li>one<li class='x'>two<li lang='en-US'>three<li>four<li>five</ul>"
+            + "<p>para <a href='http://example.com/a.pdf'>link</a></p></div>"
+            + "<div class='contentx'><p>other</p><section><p>deep</p></section></div></body></html>";
+
+    private List<String> select(final String selector) throws IOException, SAXException {
+        final List<String> matches = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        final DefaultHandler target = new DefaultHandler() {
+            @Override
+            public void characters(final char[] ch, final int start, final int length) {
+                text.append(ch, start, length);
+            }
+        };
+        final SelectorHandler handler = new SelectorHandler(Selector.compile(selector), target) {
+            @Override
+            protected void startMatch(final String qName) {
+                text.setLength(0);
+            }
+
+            @Override
+            protected void endMatch(final String qName) {
+                matches.add(qName + ":" + text);
+            }
+        };
+        final Parser parser = new Parser();
+        parser.setContentHandler(handler);
+        parser.parse(new InputSource(new StringReader(HTML)));
+        Assert.assertEquals(handler.getMatchCount(), matches.size());
+        return matches;
+    }
+
+    /**
+     * Verify simple selectors and combinators.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testCombinators() throws IOException, SAXException {
+        Assert.assertEquals(select("p"), Arrays.asList("p:para link", "p:other", "p:deep"));
+        Assert.assertEquals(select("div > p"), Arrays.asList("p:para link", "p:other"));
+        Assert.assertEquals(select("div.contentx p"), Arrays.asList("p:other", "p:deep"));
+        Assert.assertEquals(select("body>div>section>p, #main a"), Arrays.asList("a:link", "p:deep"));
+        Assert.assertEquals(select("DIV#main"), Arrays.asList("div:onetwothreefourfivepara link"));
+        Assert.assertEquals(select("span"), Arrays.asList());
+    }
+
+    /**
+     * Verify attribute selectors and pseudo-classes.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testAttributesAndPseudoClasses() throws IOException, SAXException {
+        Assert.assertEquals(select(".content"), Arrays.asList("div:onetwothreefourfivepara link"));
+        Assert.assertEquals(select("[class~=wide] li.x"), Arrays.asList("li:two"));
+        Assert.assertEquals(select("li[lang|=en]"), Arrays.asList("li:three"));
+        Assert.assertEquals(select("a[href^='http:'][href$=\".pdf\"], [class*=tx]"), Arrays.asList("a:link", "div:otherdeep"));
+        Assert.assertEquals(select("li:nth-child(odd)"), Arrays.asList("li:one", "li:three", "li:five"));
+        Assert.assertEquals(select("li:nth-child(-n + 2)"), Arrays.asList("li:one", "li:two"));
+        Assert.assertEquals(select("li:nth-child(3n)"), Arrays.asList("li:three"));
+        Assert.assertEquals(select("ul :first-child, section > :first-child"), Arrays.asList("li:one", "p:deep"));
+    }
+
+    /**
+     * Verify that unsupported selectors are rejected.
+     */
+    @Test
+    public void testCompileErrors() {
+        for (String bad : new String[] {"", "a >", "a[", "a[b=]", "a:hover", "li:nth-child(x)", "a,,b"}) {
+            try {
+                Selector.compile(bad);
+                Assert.fail("Expected failure for " + bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
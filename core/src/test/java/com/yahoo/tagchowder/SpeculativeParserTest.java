@@ -0,0 +1,116 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test for {@link SpeculativeParser}.
+ */
+public class SpeculativeParserTest {
+
+    private String parse(final String html, final int chunkSize, final SpeculativeParser[] used) throws IOException, SAXException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final XMLWriter writer = new XMLWriter(out);
+        parser.setContentHandler(writer);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+        if (chunkSize == 0) {
+            parser.parse(new InputSource(new StringReader(html)));
+        } else {
+            final SpeculativeParser speculative = new SpeculativeParser(parser, 4);
+            speculative.setChunkSize(chunkSize);
+            speculative.parse(new InputSource(new StringReader(html)));
+            used[0] = speculative;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Verify that chunked parsing gives the same document as sequential parsing, including chunks that start inside comments, attribute values
+     * and CDATA elements.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testSameDocument() throws IOException, SAXException {
+        final StringBuilder sb = new StringBuilder("<html><head><title>t</title></head><body><table>\r\n");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<tr><td class='c").append(i).append("'>").append(i).append(" &amp; &#x41;&eacute;</td><td>x<b>y</b><br></td></tr>\r\n");
+            if (i % 97 == 0) {
+                sb.append("<!-- <tr><td>commented</td></tr>\n<tr><td>out</td></tr> -->");
+            }
+            if (i % 131 == 0) {
+                sb.append("<tr><td title='a><b>c'><img alt=\"<p>\"></td></tr>");
+            }
+            if (i % 211 == 0) {
+                sb.append("<script>\nvar s = '</td><td>';\n</tr><tr>\n</script><style>p > b {}</style>");
+            }
+        }
+        sb.append("</table><p>end");
+        final String html = sb.toString();
+        final String expected = parse(html, 0, null);
+        final SpeculativeParser[] used = new SpeculativeParser[1];
+        for (int chunkSize : new int[] {50, 333, 4096, 1 << 20}) {
+            Assert.assertEquals(parse(html, chunkSize, used), expected, "chunk size " + chunkSize);
+        }
+        Assert.assertEquals(used[0].getChunkCount(), 1);
+        parse(html, 4096, used);
+        Assert.assertTrue(used[0].getChunkCount() > 10);
+        Assert.assertTrue(used[0].getRescanCount() < used[0].getChunkCount() - 1);
+    }
+
+    /**
+     * Verify that chunked parsing gives the same document as sequential parsing on malformed input, where tag names have to be cleaned up before
+     * the parser recognizes a CDATA element.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testSameDocumentMalformed() throws IOException, SAXException {
+        final String repro = "<]><x><<script><";
+        Assert.assertEquals(parse(repro, 3, new SpeculativeParser[1]), parse(repro, 0, null));
+
+        final String[] pieces = {"<", ">", "</", "<]>", "<x>", "<<script>", "<script>", "</script>", "<<style>", "<sCrIpT/>", "<:script>",
+            "<1script>", "<!--", "-->", "<b>", "</b>", "<p ", "a='", "'", "\"", "&amp;", "&", "text", " ", "\n", "<?pi ?>", "<![CDATA[x]]>"};
+        final Random random = new Random(42);
+        for (int doc = 0; doc < 1000; doc++) {
+            final StringBuilder sb = new StringBuilder();
+            final int count = 1 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            final String html = sb.toString();
+            final String expected = parse(html, 0, null);
+            for (int chunkSize : new int[] {3, 7}) {
+                Assert.assertEquals(parse(html, chunkSize, new SpeculativeParser[1]), expected, "chunk size " + chunkSize + ": " + html);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test for {@link TextExtractor}.
+ */
+public class TextExtractorTest {
+
+    private String extract(final TextExtractor extractor, final Parser parser, final String html) throws IOException, SAXException {
+        extractor.getBuffer().setLength(0);
+        parser.parse(new InputSource(new StringReader(html)));
+        return extractor.getBuffer().toString();
+    }
+
+    /**
+     * Verify that hidden subtrees are dropped and block elements are separated.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testVisibleText() throws IOException, SAXException {
+        final Parser parser = new Parser();
+        final TextExtractor extractor = new TextExtractor(parser, new StringBuilder());
+        parser.setContentHandler(extractor);
+        final String html = "<html><head><title>T</title><style>p {}</style><script>var x = '<p>';</script></head>"
+                + "<body><div>Hello   <b>bold</b>\n world</div><noscript><p>enable js</p></noscript>"
+                + "<p>line<br>break</p><ul><li>one<li>two</ul></body></html>";
+        Assert.assertEquals(extract(extractor, parser, html), "T\nHello bold world\nline\nbreak\none\ntwo");
+        // The buffer is reused for the next document
+        Assert.assertEquals(extract(extractor, parser, "<span>a</span> <span>b</span>"), "a b");
+    }
+
+    /**
+     * Verify that additional element types can be hidden.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testSetHidden() throws IOException, SAXException {
+        final Parser parser = new Parser();
+        final TextExtractor extractor = new TextExtractor(parser, new StringBuilder());
+        extractor.setHidden("TITLE", true);
+        extractor.setHidden("noscript", false);
+        parser.setContentHandler(extractor);
+        Assert.assertEquals(extract(extractor, parser, "<title>T</title><noscript>shown</noscript>"), "shown");
+    }
+}
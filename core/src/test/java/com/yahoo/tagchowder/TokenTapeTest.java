@@ -0,0 +1,100 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Unit test for {@link TokenTape}.
+ */
+public class TokenTapeTest {
+
+    private static final String HTML = "<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\"><html><head><title>T &amp; t</title>"
+        + "<script>if (a < b) x();</script></head><body><!-- note --><p id=p1 class='a b'>one<br>two<?pi data?>"
+        + "<svg:rect width=1 /><blink>bogon</blink><![CDATA[ <raw> ]]><table><tr><td>cell</table></body></html>";
+
+    private static String write(final String html, final TokenTape tape) throws IOException, SAXException {
+        final StringWriter out = new StringWriter();
+        final Parser parser = new Parser();
+        final XMLWriter writer = new XMLWriter(out);
+        if (tape == null) {
+            parser.setContentHandler(writer);
+            parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, writer);
+            parser.parse(new InputSource(new StringReader(html)));
+        } else {
+            tape.replay(writer);
+        }
+        return out.toString();
+    }
+
+    private static TokenTape record(final String html, final boolean withSchema) throws IOException, SAXException {
+        final Parser parser = new Parser();
+        final TokenTape tape = withSchema ? new TokenTape(parser) : new TokenTape();
+        parser.setContentHandler(tape);
+        parser.setProperty(Parser.LEXICAL_HANDLER_PROPERTY, tape);
+        parser.parse(new InputSource(new StringReader(html)));
+        return tape;
+    }
+
+    /**
+     * Verify that replaying a tape gives the same document as parsing, more than once, with and without schema ids.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testReplay() throws IOException, SAXException {
+        final String expected = write(HTML, null);
+        final TokenTape tape = record(HTML, true);
+        Assert.assertEquals(write(HTML, tape), expected);
+        Assert.assertEquals(write(HTML, tape), expected);
+        Assert.assertEquals(write(HTML, record(HTML, false)), expected);
+        Assert.assertTrue(tape.getEventCount() > 20);
+    }
+
+    /**
+     * Verify the attributes passed on replay, and that lexical events are dropped for a plain content handler.
+     *
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testAttributes() throws IOException, SAXException {
+        final StringBuilder sb = new StringBuilder();
+        record(HTML, true).replay(new DefaultHandler() {
+            @Override
+            public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+                if (qName.equals("p")) {
+                    sb.append(atts.getValue("id")).append('|').append(atts.getValue("class"));
+                    sb.append('|').append(atts.getQName(atts.getIndex("class")));
+                    sb.append('|').append(atts.getType("id")).append('|').append(atts.getValue("none")).append('|').append(uri);
+                }
+            }
+        });
+        Assert.assertEquals(sb.toString(), "p1|a b|class|ID|null|http://www.w3.org/1999/xhtml");
+    }
+}
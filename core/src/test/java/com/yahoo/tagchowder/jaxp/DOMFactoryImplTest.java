@@ -0,0 +1,103 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder.jaxp;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.yahoo.tagchowder.Parser;
+
+/**
+ * Unit test for {@link DOMFactoryImpl}, {@link DocumentBuilderImpl} and {@link DOMBuilder}.
+ */
+public class DOMFactoryImplTest {
+
+    /**
+     * Build a DOM without namespaces, the JAXP default.
+     *
+     * @throws ParserConfigurationException ParserConfigurationException
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testBuildWithoutNamespaces() throws ParserConfigurationException, IOException, SAXException {
+        final DocumentBuilder builder = new DOMFactoryImpl().newDocumentBuilder();
+        Assert.assertFalse(builder.isNamespaceAware());
+        final Document doc = builder.parse(new InputSource(new StringReader("<p class=x>Hello<!--c--> <b>world</b>")));
+        final Element html = doc.getDocumentElement();
+        Assert.assertEquals(html.getTagName(), "html");
+        Assert.assertNull(html.getNamespaceURI());
+        final Element p = (Element) doc.getElementsByTagName("p").item(0);
+        Assert.assertEquals(p.getAttribute("class"), "x");
+        Assert.assertEquals(p.getTextContent(), "Hello world");
+        Assert.assertTrue(p.getChildNodes().item(1) instanceof Comment);
+    }
+
+    /**
+     * Build a namespace-aware DOM and drop comments.
+     *
+     * @throws ParserConfigurationException ParserConfigurationException
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testBuildWithNamespaces() throws ParserConfigurationException, IOException, SAXException {
+        final DOMFactoryImpl factory = new DOMFactoryImpl();
+        factory.setNamespaceAware(true);
+        factory.setIgnoringComments(true);
+        final Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader("<div>a<!--c-->b</div>")));
+        final Element div = (Element) doc.getElementsByTagNameNS("http://www.w3.org/1999/xhtml", "div").item(0);
+        Assert.assertNotNull(div);
+        Assert.assertEquals(div.getChildNodes().getLength(), 1);
+        Assert.assertEquals(div.getTextContent(), "ab");
+    }
+
+    /**
+     * Verify that features are validated and handed to the parser.
+     *
+     * @throws ParserConfigurationException ParserConfigurationException
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testFeatures() throws ParserConfigurationException, IOException, SAXException {
+        final DOMFactoryImpl factory = new DOMFactoryImpl();
+        factory.setFeature(Parser.IGNORE_BOGONS_FEATURE, true);
+        Assert.assertTrue(factory.getFeature(Parser.IGNORE_BOGONS_FEATURE));
+        final Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader("<p><foo>text</foo></p>")));
+        Assert.assertEquals(doc.getElementsByTagName("foo").getLength(), 0);
+        Assert.assertEquals(doc.getElementsByTagName("p").item(0).getTextContent(), "text");
+        try {
+            factory.setFeature("no-such-feature", true);
+            Assert.fail("unknown feature accepted");
+        } catch (ParserConfigurationException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.yahoo.tagchowder.jaxp;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.yahoo.tagchowder.Parser;
+
+/**
+ * Unit test for {@link SAXFactoryImpl} and {@link SAXParserImpl}.
+ */
+public class SAXFactoryImplTest {
+
+    /**
+     * Parsers get the features set on the factory before they were created, and share the schema when unknown elements are ignored.
+     *
+     * @throws ParserConfigurationException ParserConfigurationException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testFeatures() throws ParserConfigurationException, SAXException {
+        final SAXFactoryImpl factory = new SAXFactoryImpl();
+        factory.setFeature(Parser.NAMESPACES_FEATURE, false);
+        factory.setFeature(Parser.IGNORE_BOGONS_FEATURE, true);
+        final SAXParser first = factory.newSAXParser();
+        Assert.assertFalse(first.isNamespaceAware());
+        Assert.assertTrue(first.getXMLReader().getFeature(Parser.IGNORE_BOGONS_FEATURE));
+
+        factory.setFeature(Parser.NAMESPACES_FEATURE, true);
+        final SAXParser second = factory.newSAXParser();
+        Assert.assertTrue(second.isNamespaceAware());
+        Assert.assertFalse(first.isNamespaceAware());
+        Assert.assertNotNull(first.getProperty(Parser.SCHEMA_PROPERTY));
+        Assert.assertSame(first.getProperty(Parser.SCHEMA_PROPERTY), second.getProperty(Parser.SCHEMA_PROPERTY));
+    }
+
+    /**
+     * Unknown features are rejected by the factory.
+     *
+     * @throws ParserConfigurationException ParserConfigurationException
+     * @throws SAXException SAXException
+     */
+    @Test(expectedExceptions = SAXException.class)
+    public void testUnknownFeature() throws ParserConfigurationException, SAXException {
+        new SAXFactoryImpl().setFeature("http://example.com/unknown", true);
+    }
+
+    /**
+     * Parsers of one factory parse independently.
+     *
+     * @throws ParserConfigurationException ParserConfigurationException
+     * @throws IOException IOException
+     * @throws SAXException SAXException
+     */
+    @Test
+    public void testParse() throws ParserConfigurationException, IOException, SAXException {
+        final SAXFactoryImpl factory = new SAXFactoryImpl();
+        final StringBuilder first = new StringBuilder();
+        final StringBuilder second = new StringBuilder();
+        factory.newSAXParser().parse(new InputSource(new StringReader("<p>one<b>two</b>")), new NameCollector(first));
+        factory.newSAXParser().parse(new InputSource(new StringReader("<ul><li>three")), new NameCollector(second));
+        Assert.assertEquals(first.toString(), "html body p b ");
+        Assert.assertEquals(second.toString(), "html body ul li ");
+    }
+
+    /**
+     * Records the local names of started elements.
+     */
+    private static final class NameCollector extends DefaultHandler {
+        private final StringBuilder theNames;
+
+        NameCollector(final StringBuilder names) {
+            theNames = names;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+            theNames.append(localName).append(' ');
+        }
+    }
+}
@@ -18,8 +18,10 @@
 package com.yahoo.tagchowder.templates;
 
 import java.io.*;
+import java.util.Arrays;
 import org.xml.sax.SAXException;
 
+import com.yahoo.tagchowder.CancellationToken;
 import com.yahoo.tagchowder.PYXWriter;
 import com.yahoo.tagchowder.ScanHandler;
 import com.yahoo.tagchowder.Scanner;
@@ -48,31 +50,50 @@ public class HTMLScanner implements Scanner, Locator {
     int theNextState; // Next state
     char[] theOutputBuffer; // Output buffer
     int theSize; // Current buffer size
+    int thePushback = NO_CHAR; // Character given back to the scanner, or NO_CHAR
+    boolean theSkipLF; // Last input character was a CR
+    boolean theFirstChar; // No input character seen yet
+    private CancellationToken theCancellationToken; // checked while scanning, or null
+    private int theCheckCountdown; // characters until the next check of the token
+    private long theCheckedCharacters; // characters scanned up to the last check
+
+    private static final int NO_CHAR = -2;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int CANCELLATION_CHECK_INTERVAL = 4096;
     int[] theWinMap = { // Windows chars map
             0x20AC, 0xFFFD, 0x201A, 0x0192, 0x201E, 0x2026, 0x2020, 0x2021, 0x02C6, 0x2030, 0x0160, 0x2039, 0x0152, 0xFFFD, 0x017D, 0xFFFD, 0xFFFD,
             0x2018, 0x2019, 0x201C, 0x201D, 0x2022, 0x2013, 0x2014, 0x02DC, 0x2122, 0x0161, 0x203A, 0x0153, 0xFFFD, 0x017E, 0x0178 };
 
     /**
-     * Index into the state table for [state][input character - 2]. The state table consists of 4-entry runs on the form { current state, input
-     * character, action, next state }. We precompute the index into the state table for all possible { current state, input character } and store the
-     * result in the statetableIndex array. Since only some input characters are present in the state table, we only do the computation for characters
-     * 0 to the highest character value in the state table. An input character of -2 is used to cover all other characters as -2 is guaranteed not to
-     * match any input character entry in the state table.
+     * Index into the state table for [state * statetableIndexWidth + input character + 2]. The state table consists of 4-entry runs on the form {
+     * current state, input character, action, next state }. We precompute the index into the state table for all possible { current state, input
+     * character } and store the result in the statetableIndex array. Since only some input characters are present in the state table, we only do the
+     * computation for characters 0 to the highest character value in the state table. An input character of -2 is used to cover all other
+     * characters as -2 is guaranteed not to match any input character entry in the state table.
      *
      * <p>
      * When doing lookups, the input character should first be tested to be in the range [-1 (inclusive), statetableIndexMaxChar (exclusive)]. if it
      * isn't use -2 as the input character.
      *
      * <p>
-     * Finally, add 2 to the input character to cover for the fact that Java doesn't support negative array indexes. Then look up the value in the
-     * statetableIndex. If the value is -1, then no action or next state was found for the { state, input } that you had. If it isn't -1, then action
-     * = statetable[value + 2] and next state = statetable[value + 3]. That is, the value points to the start of the answer 4-tuple in the statetable.
+     * Finally, add 2 to the input character to cover for the fact that Java doesn't support negative array indexes, and add the row offset of the
+     * state. Then look up the value in the statetableIndex. If the value is -1, then no action or next state was found for the { state, input } that
+     * you had. If it isn't -1, then action = statetable[value + 2] and next state = statetable[value + 3]. That is, the value points to the start of
+     * the answer 4-tuple in the statetable.
+     *
+     * <p>
+     * The rows of a state are contiguous in the generated statetable, so the index is built in one pass over it: the first row with a matching
+     * input character wins, otherwise the last default row (input character 0) of the state.
      */
-    static short[][] statetableIndex;
+    static short[] statetableIndex;
     /**
      * The highest character value seen in the statetable. See the doc comment for statetableIndex to see how this is used.
      */
     static int statetableIndexMaxChar;
+    /**
+     * The number of entries per state in statetableIndex.
+     */
+    static int statetableIndexWidth;
     static {
         int maxState = -1;
         int maxChar = -1;
@@ -85,28 +106,27 @@ public class HTMLScanner implements Scanner, Locator {
             }
         }
         statetableIndexMaxChar = maxChar + 1;
+        statetableIndexWidth = maxChar + 3;
 
-        statetableIndex = new short[maxState + 1][maxChar + 3];
+        short[] defaults = new short[maxState + 1];
+        Arrays.fill(defaults, (short) -1);
+        statetableIndex = new short[(maxState + 1) * statetableIndexWidth];
+        Arrays.fill(statetableIndex, (short) -1);
+        for (int i = 0; i < statetable.length; i += 4) {
+            int row = statetable[i] * statetableIndexWidth;
+            int ch = statetable[i + 1];
+            if (ch == 0) {
+                defaults[statetable[i]] = (short) i;
+            } else if (statetableIndex[row + ch + 2] == -1) {
+                statetableIndex[row + ch + 2] = (short) i;
+            }
+        }
         for (int theState = 0; theState <= maxState; ++theState) {
+            int row = theState * statetableIndexWidth;
             for (int ch = -2; ch <= maxChar; ++ch) {
-                int hit = -1;
-                int action = 0;
-                for (int i = 0; i < statetable.length; i += 4) {
-                    if (theState != statetable[i]) {
-                        if (action != 0)
-                            break;
-                        continue;
-                    }
-                    if (statetable[i + 1] == 0) {
-                        hit = i;
-                        action = statetable[i + 2];
-                    } else if (statetable[i + 1] == ch) {
-                        hit = i;
-                        action = statetable[i + 2];
-                        break;
-                    }
+                if (ch == 0 || statetableIndex[row + ch + 2] == -1) {
+                    statetableIndex[row + ch + 2] = defaults[theState];
                 }
-                statetableIndex[theState][ch + 2] = (short) hit;
             }
         }
     }
@@ -118,11 +138,10 @@ public class HTMLScanner implements Scanner, Locator {
     public HTMLScanner() {
         theOutputBuffer = new char[20000]; // Output buffer
     }
-    // Compensate for bug in PushbackReader that allows
-    // pushing back EOF.
-    private void unread(PushbackReader r, int c) throws IOException {
+    // Give a character back to be scanned again; EOF is never given back
+    private void unread(int c) {
         if (c != -1)
-            r.unread(c);
+            thePushback = c;
     }
 
     // Locator implementation
@@ -172,31 +191,134 @@ public class HTMLScanner implements Scanner, Locator {
 
     @Override
     public void scan(Reader r0, ScanHandler h) throws IOException, SAXException {
-        theState = S_PCDATA;
-        PushbackReader r;
-        if (r0 instanceof BufferedReader) {
-            r = new PushbackReader(r0, 5);
-        } else {
-            r = new PushbackReader(new BufferedReader(r0), 5);
+        startScan();
+        char[] buff = new char[READ_BUFFER_SIZE];
+        int n;
+        while ((n = r0.read(buff, 0, buff.length)) != -1) {
+            scan(buff, 0, n, h);
         }
+        endScan(h);
+    }
+
+    /**
+     * Prepare to scan a document whose characters are supplied in chunks by {@link #scan(char[], int, int, ScanHandler)}. The scanner keeps its
+     * state between chunks, so a chunk may end anywhere, even inside a tag or entity reference.
+     */
+
+    public void startScan() {
+        theState = S_PCDATA;
+        thePushback = NO_CHAR;
+        theSkipLF = false;
+        theFirstChar = true;
+        theCheckCountdown = CANCELLATION_CHECK_INTERVAL;
+        theCheckedCharacters = 0;
+    }
+
+    /**
+     * Set the token that stops the scan once it is cancelled or expired. It is checked every few thousand characters.
+     *
+     * @param token cancellation token, or null for none
+     */
+
+    public void setCancellationToken(CancellationToken token) {
+        theCancellationToken = token;
+    }
+
+    // Check the cancellation token; called every CANCELLATION_CHECK_INTERVAL characters
+    private void checkCancellation() throws SAXException {
+        theCheckCountdown = CANCELLATION_CHECK_INTERVAL;
+        theCheckedCharacters += CANCELLATION_CHECK_INTERVAL;
+        if (theCancellationToken != null)
+            theCancellationToken.check(this, theCheckedCharacters);
+    }
+
+    /**
+     * Scan the next chunk of characters of the document, reporting lexical events.
+     *
+     * @param buff characters to scan
+     * @param offset start of the characters
+     * @param length number of characters
+     * @param h ScanHandler that accepts lexical events.
+     */
+
+    public void scan(char[] buff, int offset, int length, ScanHandler h) throws IOException, SAXException {
+        run(buff, offset, offset + length, false, h);
+    }
+
+    /**
+     * Signal the end of the characters of the document and report the remaining lexical events.
+     *
+     * @param h ScanHandler that accepts lexical events.
+     */
+
+    public void endScan(ScanHandler h) throws IOException, SAXException {
+        run(null, 0, 0, true, h);
+        h.eof(theOutputBuffer, 0, 0);
+    }
+
+    /**
+     * Return true if the scanner is between tokens in character content with nothing buffered, which is the state a scanner started with
+     * {@link #startScan()} is in after the first character. A chunk of input that starts here can be scanned ahead of time by another scanner.
+     *
+     * @return true at a token boundary
+     */
 
-        int firstChar = r.read(); // Remove any leading BOM
-        if (firstChar != '\uFEFF')
-            unread(r, firstChar);
+    public boolean isAtTokenBoundary() {
+        return theState == S_PCDATA && theSize == 0 && thePushback == NO_CHAR && !theSkipLF && !theFirstChar;
+    }
+
+    /**
+     * Take over the state another scanner reached at the end of its input, so that scanning continues where that scanner stopped.
+     *
+     * @param other the scanner whose state is copied
+     */
+
+    public void continueFrom(HTMLScanner other) {
+        theState = theNextState = other.theState;
+        if (theOutputBuffer.length < other.theOutputBuffer.length)
+            theOutputBuffer = new char[other.theOutputBuffer.length];
+        System.arraycopy(other.theOutputBuffer, 0, theOutputBuffer, 0, other.theSize);
+        theSize = other.theSize;
+        thePushback = other.thePushback;
+        theSkipLF = other.theSkipLF;
+        theFirstChar = other.theFirstChar;
+    }
 
+    // Run the state machine over buff[offset, end), then over EOF if eof is set
+    private void run(char[] buff, int offset, int end, boolean eof, ScanHandler h) throws IOException, SAXException {
+        int i = offset;
         while (theState != S_DONE) {
-            int ch = r.read();
+            int ch;
+            if (thePushback != NO_CHAR) {
+                ch = thePushback;
+                thePushback = NO_CHAR;
+            } else if (i < end) {
+                ch = buff[i++];
+                if (--theCheckCountdown == 0)
+                    checkCancellation();
+                if (theFirstChar) {
+                    theFirstChar = false;
+                    if (ch == '\uFEFF') // Remove any leading BOM
+                        continue;
+                }
+                if (theSkipLF) {
+                    theSkipLF = false;
+                    if (ch == '\n') // CR LF is one newline
+                        continue;
+                }
+            } else if (eof) {
+                ch = -1;
+            } else {
+                return;
+            }
 
             // Process control characters
             if (ch >= 0x80 && ch <= 0x9F)
                 ch = theWinMap[ch - 0x80];
 
             if (ch == '\r') {
-                ch = r.read(); // expect LF next
-                if (ch != '\n') {
-                    unread(r, ch); // nope
-                    ch = '\n';
-                }
+                theSkipLF = true; // expect LF next
+                ch = '\n';
             }
 
             if (ch == '\n') {
@@ -211,7 +333,7 @@ public class HTMLScanner implements Scanner, Locator {
 
             // Search state table
             int adjCh = (ch >= -1 && ch < statetableIndexMaxChar) ? ch : -2;
-            int statetableRow = statetableIndex[theState][adjCh + 2];
+            int statetableRow = statetableIndex[theState * statetableIndexWidth + adjCh + 2];
             int action = 0;
             if (statetableRow != -1) {
                 action = statetable[statetableRow + 2];
@@ -346,11 +468,11 @@ public class HTMLScanner implements Scanner, Locator {
                         save((ent & 0x3FF) + 0xDC00, h);
                     }
                     if (ch != ';') {
-                        unread(r, ch);
+                        unread(ch);
                         theCurrentColumn--;
                     }
                 } else {
-                    unread(r, ch);
+                    unread(ch);
                     theCurrentColumn--;
                 }
                 theNextState = S_PCDATA;
@@ -437,7 +559,7 @@ public class HTMLScanner implements Scanner, Locator {
                 h.stage(theOutputBuffer, 0, theSize);
                 break;
             case A_UNGET:
-                unread(r, ch);
+                unread(ch);
                 theCurrentColumn--;
                 break;
             case A_UNSAVE_PCDATA:
@@ -453,7 +575,6 @@ public class HTMLScanner implements Scanner, Locator {
             }
             theState = theNextState;
         }
-        h.eof(theOutputBuffer, 0, 0);
     }
 
     /**
@@ -24,19 +24,60 @@ value are not included.
 
 package com.yahoo.tagchowder.templates;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import com.yahoo.tagchowder.Schema;
 
 public class HTMLSchema extends Schema implements HTMLModels {
 
+	// The declarations are generated as tables rather than as one call per declaration, so
+	// that the constructor is a few short loops. The entities never change and are decoded once.
+
+	// Start of Schema tables
+@@SCHEMA_TABLES@@
+	// End of Schema tables
+
+	private static final Map<String, Integer> ENTITY_MAP = decodeEntities(ENTITIES);
+
 	/**
 	 * Returns a newly constructed HTMLSchema object independent of any existing ones.
 	 * @param useIntern enable jvm string intern method
 	 */
 	public HTMLSchema(final boolean useIntern) {
 		setUseIntern(useIntern);
-		// Start of Schema calls
-		@@SCHEMA_CALLS@@
-		// End of Schema calls
+		setURI(URI);
+		setPrefix(PREFIX);
+		for (int i = 0; i < ELEMENT_NAMES.length; i++) {
+			elementType(ELEMENT_NAMES[i], ELEMENT_MODELS[i], ELEMENT_MEMBER_OF[i], ELEMENT_FLAGS[i]);
+		}
+		for (int i = 0; i < PARENTS.length; i += 2) {
+			parent(PARENTS[i], PARENTS[i + 1]);
+		}
+		for (int i = 0; i < ATTRIBUTES.length; i += 4) {
+			attribute(ATTRIBUTES[i], ATTRIBUTES[i + 1], ATTRIBUTES[i + 2], ATTRIBUTES[i + 3]);
+		}
+		// Every declared element type, which excludes <pcdata> and <root>
+		for (int e = 2; e < ELEMENT_NAMES.length; e++) {
+			for (int i = 0; i < GLOBAL_ATTRIBUTES.length; i += 3) {
+				attribute(ELEMENT_NAMES[e], GLOBAL_ATTRIBUTES[i], GLOBAL_ATTRIBUTES[i + 1], GLOBAL_ATTRIBUTES[i + 2]);
+			}
+		}
+		entities(ENTITY_MAP);
+	}
+
+	// Decode "name hex name hex ..." into an unmodifiable map
+	private static Map<String, Integer> decodeEntities(final String entities) {
+		Map<String, Integer> map = new HashMap<>();
+		int start = 0;
+		while (start < entities.length()) {
+			int space = entities.indexOf(' ', start);
+			int end = entities.indexOf(' ', space + 1);
+			map.put(entities.substring(start, space), Integer.valueOf(Integer.parseInt(entities.substring(space + 1, end), 16)));
+			start = end + 1;
+		}
+		return Collections.unmodifiableMap(map);
 	}
 
 }